@@ -18,10 +18,9 @@
 
 package triangle.abstractMachine;
 
-import java.io.DataInputStream;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 
 /**
  * Disassembles the TAM code in the given file, and displays the instructions on
@@ -44,8 +43,14 @@ public class Disassembler {
 
 	static String objectName;
 
+	// the program read, or null if it could not be
+	static ObjectFile objectFile;
+
 	static int CT;
 
+	// the debug information written with the program, or null
+	static DebugInfo debugInfo;
+
 	/**
 	 * Writes the r-field of an instruction in the form "l<I>reg</I>r", where l and
 	 * r are the bracket characters to use.
@@ -299,37 +304,73 @@ public class Disassembler {
 	 * Writes all instructions of the program in code store.
 	 */
 	private static void disassembleProgram() {
+		if (debugInfo != null) {
+			System.out.println("; " + debugInfo.getSourceName());
+			writeVariables(null);
+		}
 		for (int addr = Machine.CB; addr < CT; addr++) {
+			writeDebugInfo(addr);
 			System.out.print(addr + ":  ");
-			writeInstruction(Machine.code[addr]);
+			writeInstruction(objectFile.getInstruction(addr));
 			System.out.println();
 		}
 	}
 
+	/**
+	 * Writes the name of the routine that starts at the given address, with
+	 * the layout of its parameters and variables, and the source lines whose
+	 * code starts there, if the program has debug information.
+	 */
+	private static void writeDebugInfo(int addr) {
+		if (debugInfo == null) {
+			return;
+		}
+		var routine = debugInfo.getRoutine(addr);
+		if (routine != null) {
+			System.out.println();
+			System.out.println("; " + routine.name + ", level " + routine.level + ", to " + routine.exit);
+			writeVariables(routine);
+		}
+		var line = debugInfo.getLineAt(addr);
+		if (line != null && line.address == addr) {
+			System.out.println(line.start == line.finish ? "; line " + line.start
+					: "; lines " + line.start + "-" + line.finish);
+		}
+	}
+
+	// Writes the variables in the frame of the given routine, or of the main
+	// program if it is null.
+	private static void writeVariables(DebugInfo.Routine routine) {
+		for (var variable : debugInfo.getVariables()) {
+			if (debugInfo.getRoutineAt(variable.start) == routine
+					&& variable.level == (routine == null ? 0 : routine.level)) {
+				System.out.print(";   ");
+				writeD(variable.displacement);
+				writeR('[', variable.level == 0 ? Register.SB : Register.LB, ']');
+				System.out.println("  " + variable.kind + " " + variable.name + ", " + variable.size
+						+ (variable.size == 1 ? " word" : " words"));
+			}
+		}
+	}
+
 	// LOADING
 
 	/**
-	 * Loads the TAM object program into code store from the named file.
+	 * Loads the TAM object program from the named file.
 	 *
 	 * @param objectName the name of the file containing the program.
 	 */
 	static void loadObjectProgram(String objectName) {
 
-		var finished = false;
-
-		try (var objectFile = new FileInputStream(objectName)) {
-			var objectStream = new DataInputStream(objectFile);
-			var addr = Machine.CB;
-			while (!finished) {
-				Machine.code[addr] = Instruction.read(objectStream);
-				if (Machine.code[addr] == null) {
-					finished = true;
-				} else {
-					addr = addr + 1;
-				}
+		try {
+			var file = ObjectFile.read(Path.of(objectName));
+			if (file.CT > Machine.PB) {
+				throw new IOException("program too large for code store");
 			}
-			CT = addr;
-		} catch (FileNotFoundException s) {
+			objectFile = file;
+			CT = file.CT;
+			debugInfo = file.debugInfo;
+		} catch (NoSuchFileException s) {
 			CT = Machine.CB;
 			System.err.println("Error opening object file: " + s);
 		} catch (IOException s) {
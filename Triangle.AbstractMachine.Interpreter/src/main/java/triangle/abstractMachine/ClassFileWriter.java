@@ -0,0 +1,320 @@
+package triangle.abstractMachine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a JVM class file, for the classes that JvmCompiler generates.
+ *
+ * Only the parts of the class file format that JvmCompiler needs are
+ * supported. The class files are version 49, the last version that the JVM
+ * verifies without a StackMapTable, so code can be laid out freely and no
+ * frames have to be worked out.
+ */
+final class ClassFileWriter {
+
+	final static int ACC_PUBLIC = 0x0001, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+	// JVM operation codes
+
+	final static int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13, LDC2_W = 0x14,
+			ILOAD = 0x15, LLOAD = 0x16, ALOAD = 0x19, IALOAD = 0x2e, ISTORE = 0x36, LSTORE = 0x37, ASTORE = 0x3a,
+			SWAP = 0x5f, IADD = 0x60, LADD = 0x61, ISUB = 0x64, LSUB = 0x65, LMUL = 0x69, INEG = 0x74,
+			I2L = 0x85, L2I = 0x88, IINC = 0x84, LCMP = 0x94, IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGT = 0x9d,
+			IF_ICMPEQ = 0x9f, IF_ICMPLT = 0xa1, GOTO = 0xa7, LOOKUPSWITCH = 0xab, RETURN = 0xb1,
+			GETSTATIC = 0xb2, PUTSTATIC = 0xb3, GETFIELD = 0xb4, PUTFIELD = 0xb5,
+			INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, WIDE = 0xc4;
+
+	private final static int CONSTANT_Utf8 = 1, CONSTANT_Integer = 3, CONSTANT_Long = 5, CONSTANT_Class = 7,
+			CONSTANT_Fieldref = 9, CONSTANT_Methodref = 10, CONSTANT_NameAndType = 12;
+
+	private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private final DataOutputStream pool = new DataOutputStream(poolBytes);
+	private final Map<String, Integer> poolIndex = new HashMap<>();
+	private int poolCount = 1;
+
+	private final int thisClass, superClass;
+	private final int[] interfaces;
+	private final List<byte[]> methods = new ArrayList<>();
+
+	ClassFileWriter(String className, String superName, String... interfaceNames) {
+		thisClass = classRef(className);
+		superClass = classRef(superName);
+		interfaces = new int[interfaceNames.length];
+		for (var i = 0; i < interfaceNames.length; i++) {
+			interfaces[i] = classRef(interfaceNames[i]);
+		}
+	}
+
+	// CONSTANT POOL
+
+	private int constant(String key, int slots, int tag, Object... items) {
+		var index = poolIndex.get(key);
+		if (index != null) {
+			return index;
+		}
+		try {
+			pool.writeByte(tag);
+			for (var item : items) {
+				if (item instanceof String s) {
+					pool.writeUTF(s);
+				} else if (item instanceof Long l) {
+					pool.writeLong(l);
+				} else if (item instanceof Integer i && tag == CONSTANT_Integer) {
+					pool.writeInt(i);
+				} else {
+					pool.writeShort((Integer) item);
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		index = poolCount;
+		poolCount = poolCount + slots;
+		if (poolCount > 0xffff) {
+			throw new IllegalStateException("constant pool too large");
+		}
+		poolIndex.put(key, index);
+		return index;
+	}
+
+	int utf8(String s) {
+		return constant("U" + s, 1, CONSTANT_Utf8, s);
+	}
+
+	int integer(int value) {
+		return constant("I" + value, 1, CONSTANT_Integer, value);
+	}
+
+	int longInteger(long value) {
+		return constant("J" + value, 2, CONSTANT_Long, value);
+	}
+
+	int classRef(String internalName) {
+		return constant("C" + internalName, 1, CONSTANT_Class, utf8(internalName));
+	}
+
+	private int nameAndType(String name, String descriptor) {
+		return constant("N" + name + ":" + descriptor, 1, CONSTANT_NameAndType, utf8(name), utf8(descriptor));
+	}
+
+	int fieldRef(String owner, String name, String descriptor) {
+		return constant("F" + owner + "." + name + ":" + descriptor, 1, CONSTANT_Fieldref, classRef(owner),
+				nameAndType(name, descriptor));
+	}
+
+	int methodRef(String owner, String name, String descriptor) {
+		return constant("M" + owner + "." + name + ":" + descriptor, 1, CONSTANT_Methodref, classRef(owner),
+				nameAndType(name, descriptor));
+	}
+
+	// METHODS
+
+	void addMethod(int access, String name, String descriptor, Code code, int maxStack, int maxLocals) {
+		var bytes = new ByteArrayOutputStream();
+		var out = new DataOutputStream(bytes);
+		try {
+			out.writeShort(access);
+			out.writeShort(utf8(name));
+			out.writeShort(utf8(descriptor));
+			out.writeShort(1); // attributes
+			out.writeShort(utf8("Code"));
+			out.writeInt(12 + code.length);
+			out.writeShort(maxStack);
+			out.writeShort(maxLocals);
+			out.writeInt(code.length);
+			out.write(code.bytes, 0, code.length);
+			out.writeShort(0); // exception table
+			out.writeShort(0); // attributes
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		methods.add(bytes.toByteArray());
+	}
+
+	byte[] toByteArray() {
+		var bytes = new ByteArrayOutputStream();
+		var out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(0xcafebabe);
+			out.writeShort(0); // minor version
+			out.writeShort(49); // major version
+			out.writeShort(poolCount);
+			poolBytes.writeTo(out);
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(interfaces.length);
+			for (var i : interfaces) {
+				out.writeShort(i);
+			}
+			out.writeShort(0); // fields
+			out.writeShort(methods.size());
+			for (var method : methods) {
+				out.write(method);
+			}
+			out.writeShort(0); // attributes
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	// CODE
+
+	/** A position in a method's code that can be the target of a branch. */
+	static final class Label {
+		private int position = -1;
+		private final List<int[]> uses = new ArrayList<>(); // { site, instruction, width }
+	}
+
+	/** The code of one method, with branches resolved as labels are bound. */
+	final class Code {
+		private byte[] bytes = new byte[1024];
+		private int length;
+
+		private void emit(int b) {
+			if (length == bytes.length) {
+				bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+			}
+			bytes[length++] = (byte) b;
+		}
+
+		private void emitShort(int s) {
+			emit(s >> 8);
+			emit(s);
+		}
+
+		private void emitInt(int i) {
+			emitShort(i >> 16);
+			emitShort(i);
+		}
+
+		void op(int opCode) {
+			emit(opCode);
+		}
+
+		void iconst(int value) {
+			if (-1 <= value && value <= 5) {
+				emit(ICONST_0 + value);
+			} else if (Byte.MIN_VALUE <= value && value <= Byte.MAX_VALUE) {
+				emit(BIPUSH);
+				emit(value);
+			} else if (Short.MIN_VALUE <= value && value <= Short.MAX_VALUE) {
+				emit(SIPUSH);
+				emitShort(value);
+			} else {
+				var index = integer(value);
+				if (index <= 0xff) {
+					emit(LDC);
+					emit(index);
+				} else {
+					emit(LDC_W);
+					emitShort(index);
+				}
+			}
+		}
+
+		void lconst(long value) {
+			emit(LDC2_W);
+			emitShort(longInteger(value));
+		}
+
+		void local(int opCode, int slot) {
+			if (slot > 0xff) {
+				emit(WIDE);
+				emit(opCode);
+				emitShort(slot);
+			} else {
+				emit(opCode);
+				emit(slot);
+			}
+		}
+
+		void iinc(int slot, int delta) {
+			if (slot <= 0xff && Byte.MIN_VALUE <= delta && delta <= Byte.MAX_VALUE) {
+				emit(IINC);
+				emit(slot);
+				emit(delta);
+			} else if (Short.MIN_VALUE <= delta && delta <= Short.MAX_VALUE) {
+				emit(WIDE);
+				emit(IINC);
+				emitShort(slot);
+				emitShort(delta);
+			} else {
+				// operands are 32 bits, but even a wide iinc takes only 16
+				local(ILOAD, slot);
+				iconst(delta);
+				op(IADD);
+				local(ISTORE, slot);
+			}
+		}
+
+		void field(int opCode, String owner, String name, String descriptor) {
+			emit(opCode);
+			emitShort(fieldRef(owner, name, descriptor));
+		}
+
+		void invoke(int opCode, String owner, String name, String descriptor) {
+			emit(opCode);
+			emitShort(methodRef(owner, name, descriptor));
+		}
+
+		void jump(int opCode, Label label) {
+			var instruction = length;
+			emit(opCode);
+			use(label, instruction, 2);
+		}
+
+		void lookupSwitch(Label defaultLabel, int[] keys, Label[] labels) {
+			var instruction = length;
+			emit(LOOKUPSWITCH);
+			while (length % 4 != 0) {
+				emit(0);
+			}
+			use(defaultLabel, instruction, 4);
+			emitInt(keys.length);
+			for (var i = 0; i < keys.length; i++) {
+				emitInt(keys[i]);
+				use(labels[i], instruction, 4);
+			}
+		}
+
+		private void use(Label label, int instruction, int width) {
+			var site = length;
+			for (var i = 0; i < width; i++) {
+				emit(0);
+			}
+			if (label.position >= 0) {
+				patch(site, instruction, width, label.position);
+			} else {
+				label.uses.add(new int[] { site, instruction, width });
+			}
+		}
+
+		void bind(Label label) {
+			label.position = length;
+			for (var use : label.uses) {
+				patch(use[0], use[1], use[2], length);
+			}
+			label.uses.clear();
+		}
+
+		private void patch(int site, int instruction, int width, int target) {
+			var offset = target - instruction;
+			if (width == 2 && (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)) {
+				throw new IllegalStateException("branch too far");
+			}
+			for (var i = width - 1; i >= 0; i--) {
+				bytes[site + i] = (byte) offset;
+				offset = offset >> 8;
+			}
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package triangle.abstractMachine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import triangle.CompilerSession;
+import triangle.syntacticAnalyzer.SourceFile;
+
+/**
+ * Compiles a Triangle program and runs it at once, in the one JVM, handing
+ * the code from the compiler to the Interpreter in memory rather than through
+ * an object file. The time taken to compile and to run are reported apart.
+ *
+ * For example:
+ *
+ * <pre>
+ *   java triangle.abstractMachine.CompileAndRun prog.tri [folding] [debug] [interpreter options]
+ * </pre>
+ *
+ * Any option but folding and debug is passed to the Interpreter, except
+ * restore=, since the program is always run from the start.
+ */
+public class CompileAndRun {
+
+	static String sourceName;
+
+	static boolean folding = false;
+	static boolean debugging = false;
+
+	/**
+	 * Compiles the program, reporting any errors on standard output.
+	 *
+	 * @return the program, decoded ready to run, or null if it did not compile
+	 */
+	static DecodedProgram compile(String sourceName) {
+		byte[] source;
+		try {
+			source = Files.readAllBytes(Path.of(sourceName));
+		} catch (IOException e) {
+			System.out.println("Can't access source file " + sourceName);
+			return null;
+		}
+		var session = new CompilerSession(SourceFile.ofBytes(source), sourceName);
+		session.setFolding(folding);
+		session.setDebugging(debugging);
+		if (!session.compile()) {
+			System.out.println("Compilation was unsuccessful.");
+			return null;
+		}
+		return DecodedProgram.decode(session.getCode(), session.getCodeTop(), session.getDebugInfo());
+	}
+
+	/**
+	 * Compiles the program and, if it compiles, runs it as the Interpreter's
+	 * options ask, then reports the time each took.
+	 *
+	 * @return true iff the program compiled
+	 */
+	static boolean compileAndRun(String sourceName) {
+		var startTime = System.nanoTime();
+		var program = compile(sourceName);
+		var compileTime = System.nanoTime() - startTime;
+		if (program == null) {
+			System.out.printf("Compiled in %.1f ms%n", compileTime / 1e6);
+			return false;
+		}
+
+		startTime = System.nanoTime();
+		if (program.getCodeTop() != TamMachine.CB) {
+			Interpreter.run(program, null);
+		}
+		var runTime = System.nanoTime() - startTime;
+
+		System.out.printf("Compiled in %.1f ms, ran in %.1f ms%n", compileTime / 1e6, runTime / 1e6);
+		return true;
+	}
+
+	public static void main(String[] args) {
+		System.out.println("********** Triangle Compile and Run (Java Version 2.1) **********");
+
+		var interpreterArgs = parseArgs(args);
+		if (sourceName == null) {
+			System.out.println("Usage: tcr filename [folding] [debug] [interpreter options]");
+			System.exit(1);
+		}
+		if (!parseInterpreterArgs(interpreterArgs) || !compileAndRun(sourceName)) {
+			System.exit(1);
+		}
+	}
+
+	static boolean parseInterpreterArgs(String[] args) {
+		Interpreter.parseArgs(args);
+		if (Interpreter.restoreName != null) {
+			System.err.println("Error running program: cannot restore a snapshot of a program compiled here");
+			return false;
+		}
+		return true;
+	}
+
+	static String[] parseArgs(String[] args) {
+		// Takes the source file, which comes first, and the compiler's
+		// options, and returns the rest for the Interpreter.
+
+		var rest = new ArrayList<String>();
+		for (var i = 0; i < args.length; i++) {
+			var s = args[i];
+			var sl = s.toLowerCase();
+			if (i == 0) {
+				sourceName = s;
+			} else if (sl.equals("folding")) {
+				folding = true;
+			} else if (sl.equals("debug")) {
+				debugging = true;
+			} else {
+				rest.add(s);
+			}
+		}
+		return rest.toArray(new String[0]);
+	}
+}
@@ -0,0 +1,17 @@
+package triangle.abstractMachine;
+
+/**
+ * A region of a TAM program translated into JVM bytecode by JvmCompiler.
+ */
+public interface CompiledCode {
+
+	/**
+	 * Runs the region from the given code address, working on the machine's
+	 * data store and registers, until control leaves it. CP is then left at the
+	 * next instruction for the machine to interpret.
+	 *
+	 * @param machine the machine running the program
+	 * @param entry   the code address at which to enter the region
+	 */
+	void run(TamMachine machine, int entry);
+}
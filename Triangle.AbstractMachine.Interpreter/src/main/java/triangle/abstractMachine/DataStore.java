@@ -0,0 +1,237 @@
+package triangle.abstractMachine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Objects;
+
+/**
+ * The data store of a TAM machine: the words from SB up to HB, which hold the
+ * stack and the heap.
+ *
+ * A store is kept either in a Java array, or off the Java heap in a direct
+ * buffer, so that a store of many millions of words neither enlarges the Java
+ * heap nor adds to the work of the garbage collector, or in pages that are
+ * only allocated when first written, so that a very large store costs only
+ * the memory for the parts of it that the program uses.
+ *
+ * A store can also be a copy-on-write view of another, which many machines
+ * forked from one can share, each copying only the pages it writes.
+ */
+public abstract class DataStore {
+
+	/** The size of the data store when none is given, in words. */
+	public final static int defaultSize = 1024;
+
+	/** The largest data store that can be kept off the Java heap, in words. */
+	public final static int maxOffHeapSize = Integer.MAX_VALUE / Integer.BYTES;
+
+	/** The number of words in each page of a paged store. */
+	public final static int pageSize = 1 << 12;
+
+	private final static int pageBits = 12, pageMask = pageSize - 1;
+
+	/**
+	 * @return a data store of the given number of words, in a Java array
+	 */
+	public static DataStore onHeap(int size) {
+		return new ArrayStore(size);
+	}
+
+	/**
+	 * @return a data store of the given number of words, off the Java heap
+	 */
+	public static DataStore offHeap(int size) {
+		if (size > maxOffHeapSize) {
+			throw new IllegalArgumentException("data store too large to keep off the heap: " + size);
+		}
+		return new DirectStore(size);
+	}
+
+	/**
+	 * @return a data store of the given number of words, in pages of
+	 *         pageSize words allocated when first written; the rest of the
+	 *         store reads as zero
+	 */
+	public static DataStore paged(int size) {
+		return new PagedStore(size);
+	}
+
+	/**
+	 * @return a data store of the same size as the given one, which reads as
+	 *         it does until written; each page of pageSize words is copied
+	 *         from it when first written. The given store must not be
+	 *         changed while the copy is in use, but may be shared by many
+	 *         copies on different threads.
+	 */
+	public static DataStore copyOnWrite(DataStore base) {
+		return new CopyOnWriteStore(base);
+	}
+
+	/** @return the number of words in the store, which is the value of HB */
+	public abstract int size();
+
+	/**
+	 * @return the number of words for which memory has been allocated, which
+	 *         for all but a paged store is its size, and for a copy-on-write
+	 *         store is the number of words it has copied
+	 */
+	public long getResidentWords() {
+		return size();
+	}
+
+	public abstract int get(int addr);
+
+	public abstract void set(int addr, int value);
+
+	private final static class ArrayStore extends DataStore {
+
+		private final int[] words;
+
+		ArrayStore(int size) {
+			words = new int[size];
+		}
+
+		@Override
+		public int size() {
+			return words.length;
+		}
+
+		@Override
+		public int get(int addr) {
+			return words[addr];
+		}
+
+		@Override
+		public void set(int addr, int value) {
+			words[addr] = value;
+		}
+	}
+
+	private final static class DirectStore extends DataStore {
+
+		private final IntBuffer words;
+
+		DirectStore(int size) {
+			words = ByteBuffer.allocateDirect(size * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+		}
+
+		@Override
+		public int size() {
+			return words.capacity();
+		}
+
+		@Override
+		public int get(int addr) {
+			return words.get(addr);
+		}
+
+		@Override
+		public void set(int addr, int value) {
+			words.put(addr, value);
+		}
+	}
+
+	final static class PagedStore extends DataStore {
+
+		private final int size;
+
+		// null for a page not yet written
+		private final int[][] pages;
+
+		private int allocatedPages;
+
+		PagedStore(int size) {
+			this.size = size;
+			pages = new int[(int) (((long) size + pageSize - 1) >>> pageBits)][];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public int get(int addr) {
+			var page = pages[Objects.checkIndex(addr, size) >>> pageBits];
+			return page == null ? 0 : page[addr & pageMask];
+		}
+
+		@Override
+		public void set(int addr, int value) {
+			var page = pages[Objects.checkIndex(addr, size) >>> pageBits];
+			if (page == null) {
+				if (value == 0) {
+					return; // it already reads as zero
+				}
+				page = new int[pageSize];
+				pages[addr >>> pageBits] = page;
+				allocatedPages++;
+			}
+			page[addr & pageMask] = value;
+		}
+
+		@Override
+		public long getResidentWords() {
+			return (long) allocatedPages * pageSize;
+		}
+
+		/** @return the number of pages allocated so far */
+		int getAllocatedPages() {
+			return allocatedPages;
+		}
+
+		/** @return the number of pages in the whole store */
+		int getPages() {
+			return pages.length;
+		}
+	}
+
+	final static class CopyOnWriteStore extends DataStore {
+
+		private final DataStore base;
+
+		// null for a page not yet written, which reads from the base
+		private final int[][] pages;
+
+		private int copiedPages;
+
+		CopyOnWriteStore(DataStore base) {
+			this.base = base;
+			pages = new int[(int) (((long) base.size() + pageSize - 1) >>> pageBits)][];
+		}
+
+		@Override
+		public int size() {
+			return base.size();
+		}
+
+		@Override
+		public int get(int addr) {
+			var page = pages[Objects.checkIndex(addr, base.size()) >>> pageBits];
+			return page == null ? base.get(addr) : page[addr & pageMask];
+		}
+
+		@Override
+		public void set(int addr, int value) {
+			var index = Objects.checkIndex(addr, base.size()) >>> pageBits;
+			var page = pages[index];
+			if (page == null) {
+				page = new int[pageSize];
+				var first = index << pageBits;
+				var words = Math.min(pageSize, base.size() - first);
+				for (var i = 0; i < words; i++) {
+					page[i] = base.get(first + i);
+				}
+				pages[index] = page;
+				copiedPages++;
+			}
+			page[addr & pageMask] = value;
+		}
+
+		@Override
+		public long getResidentWords() {
+			return (long) copiedPages * pageSize;
+		}
+	}
+}
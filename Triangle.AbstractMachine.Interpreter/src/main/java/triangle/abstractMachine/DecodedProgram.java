@@ -0,0 +1,224 @@
+package triangle.abstractMachine;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A TAM program in code store, decoded at load time into flat arrays of
+ * operation, register, length and operand fields. The Interpreter dispatches
+ * on these directly, so it never has to touch the Instruction objects or the
+ * OpCode, Register and Primitive enums while the program is running.
+ *
+ * A decoded program is not changed once it has been loaded, so it can be
+ * shared by any number of TamMachines.
+ *
+ * Each program is checked by the Verifier as it is decoded. If it passes,
+ * the greatest depth of each routine's frame is kept with it, so that it can
+ * be run without checking the stack space before every push.
+ */
+public final class DecodedProgram {
+
+	// Decoded operations are the TAM operation codes (Machine.LOADop ..
+	// Machine.HALTop), plus the following, which replace instructions whose
+	// target is already known at load time.
+
+	/**
+	 * CALL of a primitive routine: the decoded operation is CALLPop plus the
+	 * primitive's displacement from PB, so that each primitive is dispatched
+	 * directly.
+	 */
+	final static int CALLPop = 16;
+
+	final int[] op, r, n, d;
+
+	/** The code top: the address one beyond the last instruction. */
+	final int CT;
+
+	/**
+	 * The greatest depth of the frame of the routine at each code address, or
+	 * Verifier.notEntry; null if the program has not been verified.
+	 */
+	final int[] frameDepth;
+
+	/** The greatest depth of any routine's frame. */
+	final int maxFrameDepth;
+
+	/** The debug information from the object file, or null. */
+	final DebugInfo debugInfo;
+
+	private DecodedProgram(int CT, int[] op, int[] r, int[] n, int[] d, DebugInfo debugInfo) {
+		this.CT = CT;
+		this.op = op;
+		this.r = r;
+		this.n = n;
+		this.d = d;
+		this.debugInfo = debugInfo;
+		frameDepth = null;
+		maxFrameDepth = 0;
+	}
+
+	private DecodedProgram(DecodedProgram program, int[] op, int[] frameDepth) {
+		CT = program.CT;
+		this.op = op;
+		r = program.r;
+		n = program.n;
+		d = program.d;
+		debugInfo = program.debugInfo;
+		this.frameDepth = frameDepth;
+		maxFrameDepth = frameDepth != null ? Arrays.stream(frameDepth).max().getAsInt() : 0;
+	}
+
+	public int getCodeTop() {
+		return CT;
+	}
+
+	/**
+	 * @return the routines, source lines and frame layouts written with the
+	 *         program, or null if none were
+	 */
+	public DebugInfo getDebugInfo() {
+		return debugInfo;
+	}
+
+	/**
+	 * @return the name of the routine at the given code address, from the
+	 *         debug information if there is any
+	 */
+	String routineName(int routine) {
+		var info = debugInfo != null && routine >= 0 ? debugInfo.getRoutine(routine) : null;
+		if (info != null) {
+			return info.name;
+		}
+		return routine < 0 ? "routine@?" : "routine@" + routine;
+	}
+
+	/**
+	 * @return the source lines of the code at the given address, as
+	 *         " (line n)" or " (lines m-n)", or "" if they are not known
+	 */
+	String sourceLines(int addr) {
+		var line = debugInfo != null ? debugInfo.getLineAt(addr) : null;
+		if (line == null) {
+			return "";
+		}
+		return line.start == line.finish ? " (line " + line.start + ")"
+				: " (lines " + line.start + "-" + line.finish + ")";
+	}
+
+	/**
+	 * @return whether the program passed the Verifier
+	 */
+	public boolean isVerified() {
+		return frameDepth != null;
+	}
+
+	/**
+	 * @return a copy of this program whose decoded operations can be
+	 *         rewritten, sharing the other fields; the copy is not verified
+	 */
+	DecodedProgram copyOperations() {
+		return new DecodedProgram(this, op.clone(), null);
+	}
+
+	/**
+	 * Loads and decodes the TAM object program in the named file, which may be
+	 * in the packed or the legacy format.
+	 *
+	 * @param objectName the name of the object file
+	 * @return the decoded program
+	 * @throws IOException if the file cannot be read, or the program does not
+	 *                     fit in the code store
+	 */
+	public static DecodedProgram load(String objectName) throws IOException {
+		var objectFile = ObjectFile.read(Path.of(objectName));
+		if (objectFile.CT > Machine.PB) {
+			throw new IOException("program too large for code store");
+		}
+		// the object file's arrays are fresh, so they are decoded in place
+		var program = new DecodedProgram(objectFile.CT, objectFile.op, objectFile.r, objectFile.n, objectFile.d,
+				objectFile.debugInfo);
+		return decode(program);
+	}
+
+	/**
+	 * Decodes the instructions in code[CB] .. code[CT - 1].
+	 *
+	 * @param code the code store
+	 * @param CT   the code top
+	 * @return the decoded program
+	 */
+	public static DecodedProgram decode(Instruction[] code, int CT) {
+		return decode(code, CT, null);
+	}
+
+	/**
+	 * Decodes the instructions in code[CB] .. code[CT - 1], such as a compiler
+	 * has just emitted, keeping the debug information recorded for them.
+	 *
+	 * @param code      the code store
+	 * @param CT        the code top
+	 * @param debugInfo the debug information, or null
+	 * @return the decoded program
+	 */
+	public static DecodedProgram decode(Instruction[] code, int CT, DebugInfo debugInfo) {
+		var program = new DecodedProgram(CT, new int[CT], new int[CT], new int[CT], new int[CT], debugInfo);
+		for (var addr = Machine.CB; addr < CT; addr++) {
+			var instr = code[addr];
+			program.op[addr] = instr.opCode.ordinal();
+			program.r[addr] = instr.register.ordinal();
+			program.n[addr] = instr.length;
+			program.d[addr] = instr.operand;
+		}
+		return decode(program);
+	}
+
+	/**
+	 * Rebuilds a program from fields that were decoded before, as saved in a
+	 * Snapshot. Decoding is idempotent, so they are decoded again, and
+	 * verified.
+	 */
+	static DecodedProgram restore(int CT, int[] op, int[] r, int[] n, int[] d, DebugInfo debugInfo) {
+		return decode(new DecodedProgram(CT, op, r, n, d, debugInfo));
+	}
+
+	private static DecodedProgram decode(DecodedProgram program) {
+		// Decodes the program's fields in place, and verifies it.
+		//
+		// Operands relative to CB, CT, PB or PT are made absolute, since those
+		// registers cannot change once the program is loaded, and CALLs to a
+		// primitive routine are resolved to the primitive's own operation.
+
+		var CT = program.CT;
+		for (var addr = Machine.CB; addr < CT; addr++) {
+			var op = program.op[addr];
+			var r = program.r[addr];
+			var d = program.d[addr];
+
+			switch (r) {
+			case Machine.CTr:
+				d = d + CT;
+				r = Machine.CBr;
+				break;
+			case Machine.PBr:
+				d = d + Machine.PB;
+				r = Machine.CBr;
+				break;
+			case Machine.PTr:
+				d = d + Machine.PT;
+				r = Machine.CBr;
+				break;
+			}
+
+			if (op == Machine.CALLop && r == Machine.CBr && d >= Machine.PB && d < Machine.PT) {
+				op = CALLPop + d - Machine.PB;
+			}
+
+			program.op[addr] = op;
+			program.r[addr] = r;
+			program.d[addr] = d;
+		}
+
+		return new DecodedProgram(program, program.op, Verifier.verify(program));
+	}
+}
@@ -0,0 +1,45 @@
+package triangle.abstractMachine;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Whether the Java Flight Recorder is running, and so whether the machine's
+ * events are worth recording.
+ *
+ * Loading an event class, or asking FlightRecorder for the recorder,
+ * starts the flight recorder, which takes longer than many programs take to
+ * run, so neither is done until a recording has been started, with
+ * -XX:StartFlightRecording or jcmd. The machine asks once, as it starts
+ * running, so a recording started part way through a run is only seen by
+ * the next.
+ */
+final class FlightRecording {
+
+	private FlightRecording() {
+	}
+
+	/**
+	 * @return whether a recording has been started in this JVM
+	 */
+	static boolean isActive() {
+		return FlightRecorder.isInitialized();
+	}
+
+	/**
+	 * Starts sampling the routines that a machine is in, once a recording has
+	 * been started.
+	 *
+	 * @return the hook, to give to unwatch
+	 */
+	static Runnable watch(TamMachine machine) {
+		Runnable hook = () -> RoutineSampleEvent.sample(machine);
+		FlightRecorder.addPeriodicEvent(RoutineSampleEvent.class, hook);
+		return hook;
+	}
+
+	static void unwatch(Runnable hook) {
+		if (hook != null) {
+			FlightRecorder.removePeriodicEvent(hook);
+		}
+	}
+}
@@ -0,0 +1,308 @@
+package triangle.abstractMachine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The heap of a TAM machine: the words from HT up to HB, managed for the
+ * primitive routines new and dispose.
+ *
+ * Disposed blocks are kept on segregated free lists, one for each size up to
+ * 15 words and one for each power of two above that, and are coalesced with
+ * any free neighbours. A new block is taken from the smallest list that has a
+ * block big enough, splitting it if need be, or else from below HT, as
+ * before. A free block that ends up next to HT is given back to the stack.
+ *
+ * The free lists are kept beside the data store rather than in it, so a free
+ * block's words are left as they were, and a program that never disposes of
+ * anything lays out its heap exactly as it always has. Since dispose is given
+ * the size of the block, allocated blocks need no header either.
+ *
+ * The heap also counts its use, to show how big a data store a program
+ * needs.
+ */
+public final class Heap {
+
+	// free lists 1 .. 15 hold blocks of just that size; the rest hold blocks
+	// of sizes from 2^k to 2^(k+1) - 1, for k from 4 upwards
+	private final static int exactLists = 16;
+
+	private final static int listCount = exactLists + 31 - 4;
+
+	private final TamMachine machine;
+
+	// the free blocks, by address, with their sizes
+	private final TreeMap<Integer, Integer> freeBlocks = new TreeMap<>();
+
+	// the addresses of the free blocks in each size class
+	private final ArrayList<TreeSet<Integer>> freeLists = new ArrayList<>(listCount);
+
+	private int freeWords;
+
+	// COUNTERS
+
+	private long allocations, disposals, wordsAllocated, reused;
+
+	private int liveWords, peakHeapWords;
+
+	private long startTimeNanos;
+
+	Heap(TamMachine machine) {
+		this.machine = machine;
+		for (var list = 0; list < listCount; list++) {
+			freeLists.add(new TreeSet<>());
+		}
+	}
+
+	/**
+	 * Empties the heap, as HT is set back to HB.
+	 */
+	void reset() {
+		freeBlocks.clear();
+		for (var list : freeLists) {
+			list.clear();
+		}
+		freeWords = 0;
+		allocations = disposals = wordsAllocated = reused = 0;
+		liveWords = peakHeapWords = 0;
+		startTimeNanos = System.nanoTime();
+	}
+
+	/**
+	 * Sets the free blocks and counters, as restored from a Snapshot, once HT
+	 * has been restored.
+	 *
+	 * @param free the free blocks, by address, with their sizes
+	 */
+	void restore(Map<Integer, Integer> free, long allocations, long disposals, long wordsAllocated, long reused,
+			int liveWords, int peakHeapWords) {
+		reset();
+		free.forEach(this::addFree);
+		this.allocations = allocations;
+		this.disposals = disposals;
+		this.wordsAllocated = wordsAllocated;
+		this.reused = reused;
+		this.liveWords = liveWords;
+		this.peakHeapWords = peakHeapWords;
+	}
+
+	/** @return the free blocks, by address, with their sizes */
+	Map<Integer, Integer> getFreeBlockMap() {
+		return Collections.unmodifiableMap(freeBlocks);
+	}
+
+	private static int listFor(int size) {
+		return size < exactLists ? size : exactLists + 27 - Integer.numberOfLeadingZeros(size);
+	}
+
+	// ALLOCATION
+
+	/**
+	 * Allocates a block, reusing a free one if there is one big enough.
+	 *
+	 * @param size the number of words
+	 * @return the address of the block, or -1 if the data store is full, in
+	 *         which case the machine's status has been set
+	 */
+	int allocate(int size) {
+		return machine.recording ? allocateRecorded(size) : allocateBlock(size);
+	}
+
+	private int allocateRecorded(int size) {
+		var event = new HeapAllocationEvent();
+		event.begin();
+		var reusedBefore = reused;
+		var addr = allocateBlock(size);
+		event.end();
+		if (event.shouldCommit()) {
+			event.size = size;
+			event.address = addr;
+			event.reused = reused != reusedBefore;
+			event.heapWords = getHeapWords();
+			event.commit();
+		}
+		return addr;
+	}
+
+	private int allocateBlock(int size) {
+		if (size <= 0) {
+			return machine.HT;
+		}
+		var addr = allocateFree(size);
+		if (addr < 0) {
+			if (!machine.checkSpace(size)) {
+				return -1;
+			}
+			machine.HT = machine.HT - size;
+			addr = machine.HT;
+			peakHeapWords = Math.max(peakHeapWords, machine.HB - machine.HT);
+		} else {
+			reused++;
+		}
+		allocations++;
+		wordsAllocated += size;
+		liveWords += size;
+		return addr;
+	}
+
+	private int allocateFree(int size) {
+		// Takes the top size words of the first free block that is big
+		// enough in the smallest size class that has one, or returns -1.
+
+		for (var list = listFor(size); list < listCount; list++) {
+			var blocks = freeLists.get(list);
+			if (blocks.isEmpty()) {
+				continue;
+			}
+			if (list < exactLists || list > listFor(size)) {
+				return split(blocks.first(), size);
+			}
+			for (int block : blocks) {
+				if (freeBlocks.get(block) >= size) {
+					return split(block, size);
+				}
+			}
+		}
+		return -1;
+	}
+
+	private int split(int block, int size) {
+		var blockSize = freeBlocks.get(block);
+		removeFree(block, blockSize);
+		if (blockSize > size) {
+			addFree(block, blockSize - size);
+		}
+		return block + blockSize - size;
+	}
+
+	// DISPOSAL
+
+	/**
+	 * Frees a block, merging it with any free neighbours. A block that is not
+	 * wholly within the heap, or that overlaps a free block, is ignored.
+	 *
+	 * @param addr the address of the block
+	 * @param size the number of words
+	 */
+	void dispose(int addr, int size) {
+		if (size <= 0 || addr < machine.HT || addr > machine.HB - size || overlapsFree(addr, size)) {
+			return;
+		}
+		disposals++;
+		liveWords = Math.max(0, liveWords - size);
+
+		var below = freeBlocks.lowerEntry(addr);
+		if (below != null && below.getKey() + below.getValue() == addr) {
+			removeFree(below.getKey(), below.getValue());
+			addr = below.getKey();
+			size = size + below.getValue();
+		}
+		var above = freeBlocks.get(addr + size);
+		if (above != null) {
+			removeFree(addr + size, above);
+			size = size + above;
+		}
+
+		if (addr == machine.HT) {
+			machine.HT = machine.HT + size; // back to the stack
+		} else {
+			addFree(addr, size);
+		}
+	}
+
+	private boolean overlapsFree(int addr, int size) {
+		var below = freeBlocks.floorEntry(addr);
+		if (below != null && below.getKey() + below.getValue() > addr) {
+			return true;
+		}
+		var above = freeBlocks.higherKey(addr);
+		return above != null && above < addr + size;
+	}
+
+	private void addFree(int addr, int size) {
+		freeBlocks.put(addr, size);
+		freeLists.get(listFor(size)).add(addr);
+		freeWords += size;
+	}
+
+	private void removeFree(int addr, int size) {
+		freeBlocks.remove(addr);
+		freeLists.get(listFor(size)).remove(addr);
+		freeWords -= size;
+	}
+
+	// STATISTICS
+
+	/** @return the number of blocks allocated since the program started */
+	public long getAllocations() {
+		return allocations;
+	}
+
+	/** @return the number of blocks disposed of since the program started */
+	public long getDisposals() {
+		return disposals;
+	}
+
+	/** @return the number of allocations that reused a free block */
+	public long getReusedAllocations() {
+		return reused;
+	}
+
+	/** @return the number of words allocated since the program started */
+	public long getWordsAllocated() {
+		return wordsAllocated;
+	}
+
+	/** @return the number of words in blocks allocated and not yet disposed of */
+	public int getLiveWords() {
+		return liveWords;
+	}
+
+	/** @return the number of words from HT to HB */
+	public int getHeapWords() {
+		return machine.HB - machine.HT;
+	}
+
+	/** @return the greatest number of words there have been from HT to HB */
+	public int getPeakHeapWords() {
+		return peakHeapWords;
+	}
+
+	/** @return the number of words in free blocks */
+	public int getFreeWords() {
+		return freeWords;
+	}
+
+	/** @return the number of free blocks */
+	public int getFreeBlocks() {
+		return freeBlocks.size();
+	}
+
+	/** @return the fraction of the heap that is in use */
+	public double getOccupancy() {
+		var heapWords = getHeapWords();
+		return heapWords == 0 ? 0 : (double) (heapWords - freeWords) / heapWords;
+	}
+
+	/**
+	 * @return the fraction of the free words that are not in the largest free
+	 *         block, so that 0 means that all the free space could be
+	 *         allocated at once
+	 */
+	public double getFragmentation() {
+		var largest = 0;
+		for (int size : freeBlocks.values()) {
+			largest = Math.max(largest, size);
+		}
+		return freeWords == 0 ? 0 : 1 - (double) largest / freeWords;
+	}
+
+	/** @return the number of blocks allocated per second since the program started */
+	public double getAllocationRate() {
+		var seconds = (System.nanoTime() - startTimeNanos) / 1e9;
+		return seconds > 0 ? allocations / seconds : 0;
+	}
+}
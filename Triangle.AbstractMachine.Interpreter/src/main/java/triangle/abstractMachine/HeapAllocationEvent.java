@@ -0,0 +1,34 @@
+package triangle.abstractMachine;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event for a block allocated on the heap by the
+ * primitive routine new.
+ */
+@Name("triangle.HeapAllocation")
+@Label("Heap Allocation")
+@Category({ "Triangle", "Interpreter" })
+@Description("A block allocated by the TAM primitive routine new")
+final class HeapAllocationEvent extends Event {
+
+	@Label("Size")
+	@Description("The number of words")
+	int size;
+
+	@Label("Address")
+	@Description("The address of the block, or -1 if the data store was full")
+	int address;
+
+	@Label("Reused")
+	@Description("Whether the block was taken from a free list")
+	boolean reused;
+
+	@Label("Heap Words")
+	@Description("The number of words from HT to HB afterwards")
+	int heapWords;
+}
@@ -0,0 +1,22 @@
+package triangle.abstractMachine;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event for a wait by a TAM machine for more input,
+ * when its input buffer has run out.
+ */
+@Name("triangle.InputWait")
+@Label("Input Wait")
+@Category({ "Triangle", "Interpreter" })
+@Description("A TAM machine waiting for its input")
+final class InputWaitEvent extends Event {
+
+	@Label("Bytes Read")
+	@Description("The bytes read, or -1 at the end of the input")
+	int bytes;
+}
@@ -18,633 +18,575 @@
 
 package triangle.abstractMachine;
 
-import java.io.DataInputStream;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 public class Interpreter {
 
-	static long startTimeNanos = 0;
-	
-	static String objectName;
+	static String objectName = "obj.tam";
+
+	static boolean displayMode;
+
+	// run by the checked loop even if the program is verified
+	static boolean alwaysChecked;
+
+	// INPUT AND OUTPUT
+
+	// the files read and written by the primitives, or null for the standard
+	// input and output
+	static String inputName, outputName;
+
+	static boolean prompting = true;
 
 	// DATA STORE
 
-	static int[] data = new int[1024];
+	static int dataStoreSize = DataStore.defaultSize;
 
-	// DATA STORE REGISTERS AND OTHER REGISTERS
+	static boolean offHeap;
 
-	final static int CB = 0, SB = 0, HB = 1024; // = upper bound of data array + 1
+	// whether to keep the store in pages allocated when first written
+	static boolean paged;
 
-	static int CT, CP, ST, HT, LB, status;
+	// whether to report how much of the store was allocated
+	static boolean storeStatistics;
 
-	// status values
-	final static int running = 0, halted = 1, failedDataStoreFull = 2, failedInvalidCodeAddress = 3,
-			failedInvalidInstruction = 4, failedOverflow = 5, failedZeroDivide = 6, failedIOError = 7;
+	// the file onto which the global segment is mapped, or null
+	static String persistentName;
 
-	static long accumulator;
+	// whether to report how the program used the heap
+	static boolean heapStatistics;
 
-	static int content(int r) {
-		var register = Register.values()[r];
-		return content(register);
-	}
+	// SUPERINSTRUCTIONS
+
+	// the superinstructions to fuse at load time, or null for none
+	static int[] fusionTable;
+
+	// where to record the superinstructions chosen from a profiled, unfused
+	// run, or null
+	static String fusionProfileName;
+
+	// TIERED COMPILATION
+
+	// arrivals at a code address before it is compiled, or 0 to interpret only
+	static int jitThreshold;
+
+	// PROFILING
+
+	static boolean profiling;
+
+	// where to write the profile as folded stacks, or null
+	static String foldedStacksName;
+
+	// the most code addresses to list in the profile
+	final static int hotSpots = 20;
+
+	// whether to sample the running program; the report on the samples
+	// taken so far can be had at any time from the reportSamples operation
+	// of the machine's MBean, which is registered whenever it is sampled
+	static boolean sampling;
+
+	// where to write the samples as folded stacks, or null
+	static String sampledStacksName;
+
+	static int sampleInterval = Sampler.defaultInterval;
 
-	static int content(Register r) {
-		// Returns the current content of register r,
-		// even if r is one of the pseudo-registers L1..L6.
-
-		switch (r) {
-		case CB:
-			return CB;
-		case CT:
-			return CT;
-		case PB:
-			return Machine.PB;
-		case PT:
-			return Machine.PT;
-		case SB:
-			return SB;
-		case ST:
-			return ST;
-		case HB:
-			return HB;
-		case HT:
-			return HT;
-		case LB:
-			return LB;
-		case L1:
-			return data[LB];
-		case L2:
-			return data[data[LB]];
-		case L3:
-			return data[data[data[LB]]];
-		case L4:
-			return data[data[data[data[LB]]]];
-		case L5:
-			return data[data[data[data[data[LB]]]]];
-		case L6:
-			return data[data[data[data[data[data[LB]]]]]];
-		case CP:
-			return CP;
-		default:
-			return 0;
+	// SNAPSHOTS
+
+	// where to write a snapshot of the machine if it fails, or at a
+	// checkpoint, or null for none; a snapshot can also be asked for at any
+	// time by the checkpoint operation of the machine's MBean, which is
+	// registered whenever there is somewhere to write one
+	static String coreName;
+
+	final static String defaultCoreName = "tam.core";
+
+	// the instructions between checkpoints, or 0 for none but those asked for
+	static long checkpointInterval;
+
+	// the snapshot to resume from, or null to run the program from the start
+	static String restoreName;
+
+	// BATCHES
+
+	// the directory of inputs to run the program on, each in a machine forked
+	// from one that has run the program up to its first input, or null
+	static String batchName;
+
+	final static String batchInputSuffix = ".in", batchOutputSuffix = ".out";
+
+	// METRICS
+
+	// whether to register the machine's metrics as an MBean, as they are in
+	// any case when the machine is sampled or can write snapshots
+	static boolean jmx;
+
+	// LOADING
+
+	static DecodedProgram loadObjectProgram(String objectName) {
+		// Loads the TAM object program from the named file, or returns null
+		// if it cannot be loaded.
+
+		try {
+			return DecodedProgram.load(objectName);
+		} catch (NoSuchFileException s) {
+			System.err.println("Error opening object file: " + s);
+		} catch (IOException s) {
+			System.err.println("Error reading object file: " + s);
 		}
+		return null;
 	}
 
-	// PROGRAM STATUS
+	// RUNNING
+
+	public static void main(String[] args) {
+		System.out.println("********** TAM Interpreter (Java Version 2.1) **********");
 
-	static void dump() {
-		// Writes a summary of the machine state.
+		parseArgs(args);
 
-		System.out.println("");
-		System.out.println("State of data store and registers:");
-		System.out.println("");
-		if (HT == HB) {
-			System.out.println("            |--------|          (heap is empty)");
+		Snapshot snapshot = null;
+		DecodedProgram program;
+		if (restoreName != null) {
+			snapshot = loadSnapshot(restoreName);
+			if (snapshot == null) {
+				return;
+			}
+			program = snapshot.program;
+			dataStoreSize = snapshot.getDataStoreSize();
+			displayMode = snapshot.displayMode;
 		} else {
-			System.out.println("       HB-->");
-			System.out.println("            |--------|");
-			for (var addr = HB - 1; addr >= HT; addr--) {
-				System.out.print(addr + ":");
-				if (addr == HT) {
-					System.out.print(" HT-->");
-				} else {
-					System.out.print("      ");
-				}
-				System.out.println("|" + data[addr] + "|");
+			program = loadObjectProgram(objectName);
+		}
+		if (program != null && program.getCodeTop() != TamMachine.CB) {
+			run(program, snapshot);
+		}
+	}
+
+	static void run(DecodedProgram program, Snapshot snapshot) {
+		// Runs a program as the options given ask, from the start or from the
+		// snapshot if there is one.
+
+		if (checkpointInterval > 0 && coreName == null) {
+			coreName = defaultCoreName;
+		}
+		DataStore data;
+		try {
+			data = paged ? DataStore.paged(dataStoreSize)
+					: offHeap ? DataStore.offHeap(dataStoreSize) : DataStore.onHeap(dataStoreSize);
+		} catch (IllegalArgumentException e) {
+			System.err.println("Error creating data store: " + e);
+			return;
+		}
+		if (batchName != null) {
+			if (persistentName != null || restoreName != null) {
+				System.err.println("Error running batch: cannot persist or restore a batch");
+			} else {
+				runBatch(program, data);
 			}
-			System.out.println("            |--------|");
+			return;
 		}
-		System.out.println("            |////////|");
-		System.out.println("            |////////|");
-		if (ST == SB) {
-			System.out.println("            |--------|          (stack is empty)");
-		} else {
-			var dynamicLink = LB;
-			var staticLink = LB;
-			var localRegNum = Register.LB;
-			System.out.println("      ST--> |////////|");
-			System.out.println("            |--------|");
-			for (var addr = ST - 1; addr >= SB; addr--) {
-				System.out.print(addr + ":");
-				if (addr == SB) {
-					System.out.print(" SB-->");
-				} else if (addr == staticLink) {
-					switch (localRegNum) {
-					case LB:
-						System.out.print(" LB-->");
-						break;
-					case L1:
-						System.out.print(" L1-->");
-						break;
-					case L2:
-						System.out.print(" L2-->");
-						break;
-					case L3:
-						System.out.print(" L3-->");
-						break;
-					case L4:
-						System.out.print(" L4-->");
-						break;
-					case L5:
-						System.out.print(" L5-->");
-						break;
-					case L6:
-						System.out.print(" L6-->");
-						break;
-					default:
-						break;
-					}
-					staticLink = data[addr];
-					localRegNum = Register.values()[localRegNum.ordinal() + 1];
-				} else {
-					System.out.print("      ");
-				}
-				if (addr == dynamicLink && dynamicLink != SB) {
-					System.out.print("|SL=" + data[addr] + "|");
-				} else if (addr == dynamicLink + 1 && dynamicLink != SB) {
-					System.out.print("|DL=" + data[addr] + "|");
-				} else if (addr == dynamicLink + 2 && dynamicLink != SB) {
-					System.out.print("|RA=" + data[addr] + "|");
-				} else {
-					System.out.print("|" + data[addr] + "|");
-				}
-				System.out.println("");
-				if (addr == dynamicLink) {
-					System.out.println("            |--------|");
-					dynamicLink = data[addr + 1];
-				}
+		var persistent = persistentName != null ? openPersistentStore(program, data) : null;
+		if (persistentName != null && persistent == null) {
+			return;
+		}
+		System.out.flush();
+		try (persistent; var in = inputName != null ? FileChannel.open(Path.of(inputName)) : null;
+				var out = outputName != null ? FileChannel.open(Path.of(outputName), WRITE, CREATE, TRUNCATE_EXISTING)
+						: null) {
+			var io = new TamIO(in != null ? in : TamIO.standardInput(), out != null ? out : TamIO.standardOutput());
+			io.setPrompting(prompting);
+			runProgram(program, snapshot, persistent != null ? persistent : data, io);
+		} catch (IOException e) {
+			System.err.println("Error opening input or output file: " + e);
+		}
+	}
+
+	static Snapshot loadSnapshot(String snapshotName) {
+		// Reads the snapshot to resume from, or returns null if it cannot be
+		// read or the program in it is not running.
+
+		try {
+			var snapshot = Snapshot.read(Path.of(snapshotName));
+			if (snapshot.getStatus() != TamMachine.running) {
+				System.err.println("Error restoring snapshot: the program is not running; view it with SnapshotViewer");
+				return null;
 			}
+			return snapshot;
+		} catch (NoSuchFileException s) {
+			System.err.println("Error opening snapshot: " + s);
+		} catch (IOException s) {
+			System.err.println("Error reading snapshot: " + s);
 		}
-		System.out.println("");
+		return null;
 	}
 
-	static void showStatus() {
-		// Writes an indication of whether and why the program has terminated.
-		System.out.println("");
-		switch (status) {
-		case running:
-			System.out.println("Program is running.");
-			break;
-		case halted:
-			System.out.println("Program has halted normally.");
-			System.out.println("Total execution time (ns): " + (System.nanoTime() - startTimeNanos));
-			break;
-		case failedDataStoreFull:
-			System.out.println("Program has failed due to exhaustion of Data Store.");
-			break;
-		case failedInvalidCodeAddress:
-			System.out.println("Program has failed due to an invalid code address.");
-			break;
-		case failedInvalidInstruction:
-			System.out.println("Program has failed due to an invalid instruction.");
-			break;
-		case failedOverflow:
-			System.out.println("Program has failed due to overflow.");
-			break;
-		case failedZeroDivide:
-			System.out.println("Program has failed due to division by zero.");
-			break;
-		case failedIOError:
-			System.out.println("Program has failed due to an IO error.");
-			break;
-		}
-		if (status != halted) {
-			dump();
+	static PersistentStore openPersistentStore(DecodedProgram program, DataStore data) {
+		// Maps the program's global segment onto the persistent store file,
+		// or returns null if it cannot be.
+
+		try {
+			return PersistentStore.open(Path.of(persistentName), program, data);
+		} catch (IOException e) {
+			System.err.println("Error opening persistent data store: " + e);
+			return null;
 		}
 	}
 
-	// INTERPRETATION
+	static void runProgram(DecodedProgram program, Snapshot snapshot, DataStore data, TamIO io) {
+		// Runs the program from the start, or resumes it from the snapshot if
+		// there is one.
 
-	static void checkSpace(int spaceNeeded) {
-		// Signals failure if there is not enough space to expand the stack or
-		// heap by spaceNeeded.
+		// a profile counts the program's own instructions, so compiled code is
+		// not used; the compiler's thread is stopped once the program has run,
+		// as WatchAndRun runs many programs in one JVM
+		try (var jit = jitThreshold > 0 && !isCountingInstructions() ? new JvmCompiler(program, displayMode, jitThreshold) : null) {
+			runProgram(program, snapshot, data, io, jit);
+		}
+	}
 
-		if (HT - ST < spaceNeeded) {
-			status = failedDataStoreFull;
+	private static void runProgram(DecodedProgram program, Snapshot snapshot, DataStore data, TamIO io,
+			JvmCompiler jit) {
+		// a profile counts the program's own instructions, so superinstructions
+		// are not used
+		var fusing = fusionTable != null && !isCountingInstructions();
+		var runnable = fusing ? Superinstructions.fuse(program, fusionTable) : program;
+		var machine = snapshot != null ? snapshot.restore(runnable, data, io) : new TamMachine(runnable, data, io);
+		machine.setDisplayMode(displayMode);
+		machine.setAlwaysChecked(alwaysChecked);
+		machine.setProfiling(isCountingInstructions());
+		if (jit != null) {
+			machine.setCompiler(jit);
+		}
+		if (coreName != null) {
+			machine.setCheckpointHook(m -> saveSnapshot(m, program), checkpointInterval);
+		}
+		// a snapshot can be asked for, and the samples taken so far reported,
+		// through the metrics, by their checkpoint and reportSamples operations,
+		// so they are registered for such runs without asking
+		var metrics = jmx || sampling || coreName != null ? new TamMachineMetrics(machine) : null;
+		var metricsName = metrics != null ? registerMetrics(metrics) : null;
+		if (sampling) {
+			try (var sampler = new Sampler(machine, sampleInterval)) {
+				if (metrics != null) {
+					metrics.setSampler(sampler);
+				}
+				if (snapshot != null) {
+					machine.resume();
+				} else {
+					machine.run();
+				}
+				machine.showStatus();
+				showSamples(sampler);
+			}
+		} else {
+			if (snapshot != null) {
+				machine.resume();
+			} else {
+				machine.run();
+			}
+			machine.showStatus();
+		}
+		if (coreName != null && machine.getStatus() != TamMachine.halted) {
+			saveSnapshot(machine, program);
+		}
+		if (machine.getStatus() == TamMachine.halted && data instanceof PersistentStore persistent) {
+			persistent.sync();
+		}
+		if (metricsName != null) {
+			unregisterMetrics(metricsName);
+		}
+		if (heapStatistics) {
+			showHeapStatistics(machine.getHeap());
+		}
+		if (storeStatistics) {
+			showStoreStatistics(data);
+		}
+		if (profiling) {
+			showProfile(machine.getProfile());
+		}
+		if (fusionProfileName != null) {
+			saveFusionProfile(program, machine.getProfile());
 		}
 	}
 
-	static boolean isTrue(int datum) {
-		// Tests whether the given datum represents true.
-		return (datum == Machine.trueRep);
+	static void saveSnapshot(TamMachine machine, DecodedProgram program) {
+		try {
+			Snapshot.write(Path.of(coreName), machine, program);
+		} catch (IOException e) {
+			System.err.println("Error writing snapshot: " + e);
+		}
 	}
 
-	static boolean equal(int size, int addr1, int addr2) {
-		// Tests whether two multi-word objects are equal, given their common
-		// size and their base addresses.
+	static void runBatch(DecodedProgram program, DataStore data) {
+		// Runs the program up to its first input once, then forks a machine
+		// from there for each input in the batch directory, and runs them all
+		// at once. The output of each, with whatever the program wrote before
+		// its first input, is written beside its input.
+
+		List<Path> inputs;
+		try (var files = Files.list(Path.of(batchName))) {
+			inputs = files.filter(f -> f.getFileName().toString().endsWith(batchInputSuffix) && Files.isRegularFile(f))
+					.sorted().toList();
+		} catch (IOException e) {
+			System.err.println("Error reading batch directory: " + e);
+			return;
+		}
 
-		boolean eq;
-		int index;
+		var startTime = System.nanoTime();
+		var prefix = new ByteArrayOutputStream();
+		var fusing = fusionTable != null;
+		var machine = new TamMachine(fusing ? Superinstructions.fuse(program, fusionTable) : program, data,
+				TamIO.of(new ByteArrayInputStream(new byte[0]), prefix));
+		machine.setDisplayMode(displayMode);
+		machine.setAlwaysChecked(alwaysChecked);
+		var statuses = new int[inputs.size()];
+		long initialised, initTime;
+		// the forks share the compiler, which is stopped once they have all run
+		try (var jit = jitThreshold > 0 ? new JvmCompiler(program, displayMode, jitThreshold) : null) {
+			if (jit != null) {
+				machine.setCompiler(jit);
+			}
+			if (!machine.runToInput()) {
+				// every input gets the same output
+				machine.showStatus();
+			}
+			initialised = machine.getInstructionsExecuted();
+			initTime = System.nanoTime() - startTime;
 
-		eq = true;
-		index = 0;
-		while (eq && (index < size)) {
-			if (data[addr1 + index] == data[addr2 + index]) {
-				index = index + 1;
-			} else {
-				eq = false;
+			try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+				for (var i = 0; i < inputs.size(); i++) {
+					var index = i;
+					executor.submit(() -> statuses[index] = runForked(machine, prefix.toByteArray(), inputs.get(index)));
+				}
 			}
 		}
+		var runTime = System.nanoTime() - startTime - initTime;
 
-		return eq;
+		for (var i = 0; i < inputs.size(); i++) {
+			System.out.println(inputs.get(i).getFileName() + ": " + TamMachineMetrics.describe(statuses[i]));
+		}
+		System.out.printf("Batch: %d inputs; %d instructions run once in %.1f ms, then %.1f ms for all%n",
+				inputs.size(), initialised, initTime / 1e6, runTime / 1e6);
 	}
 
-	static int overflowChecked(long datum) {
-		// Signals failure if the datum is too large to fit into a single word,
-		// otherwise returns the datum as a single word.
-
-		if ((-Machine.maxintRep <= datum) && (datum <= Machine.maxintRep)) {
-			return (int) datum;
-		} else {
-			status = failedOverflow;
-			return 0;
+	static int runForked(TamMachine machine, byte[] prefix, Path input) {
+		// Runs one input of a batch in a fork of the machine, or writes the
+		// machine's output if it halted or failed before its first input.
+
+		var name = input.getFileName().toString();
+		var output = input.resolveSibling(name.substring(0, name.length() - batchInputSuffix.length())
+				+ batchOutputSuffix);
+		try (var in = FileChannel.open(input);
+				var out = FileChannel.open(output, WRITE, CREATE, TRUNCATE_EXISTING)) {
+			out.write(ByteBuffer.wrap(prefix));
+			if (machine.getStatus() != TamMachine.waitingForInput) {
+				return machine.getStatus();
+			}
+			var io = new TamIO(in, out);
+			io.setPrompting(prompting);
+			var fork = machine.fork(io);
+			fork.resume();
+			fork.showStatus();
+			return fork.getStatus();
+		} catch (IOException e) {
+			System.err.println("Error running batch input " + input + ": " + e);
+			return TamMachine.failedIOError;
 		}
 	}
 
-	static int toInt(boolean b) {
-		return b ? Machine.trueRep : Machine.falseRep;
+	static ObjectName registerMetrics(TamMachineMetrics metrics) {
+		try {
+			return metrics.register(objectName);
+		} catch (JMException e) {
+			System.err.println("Error registering metrics: " + e);
+			return null;
+		}
 	}
 
-	static int currentChar;
+	static void unregisterMetrics(ObjectName metricsName) {
+		try {
+			TamMachineMetrics.unregister(metricsName);
+		} catch (JMException e) {
+			System.err.println("Error unregistering metrics: " + e);
+		}
+	}
 
-	static int readInt() throws java.io.IOException {
-		int temp = 0;
-		int sign = 1;
+	static void showHeapStatistics(Heap heap) {
+		System.out.printf("Heap: %d blocks allocated (%d reusing free blocks, %.1f per second), %d disposed of%n",
+				heap.getAllocations(), heap.getReusedAllocations(), heap.getAllocationRate(), heap.getDisposals());
+		System.out.printf("Heap: %d words, %.1f%% in use (peak %d words); %d words free in %d blocks, %.1f%% fragmented%n",
+				heap.getHeapWords(), 100 * heap.getOccupancy(), heap.getPeakHeapWords(), heap.getFreeWords(),
+				heap.getFreeBlocks(), 100 * heap.getFragmentation());
+	}
 
-		do {
-			currentChar = System.in.read();
-		} while (Character.isWhitespace((char) currentChar));
+	static void showStoreStatistics(DataStore data) {
+		System.out.printf("Data store: %d words, %d resident (%d KB)%n", data.size(), data.getResidentWords(),
+				data.getResidentWords() * Integer.BYTES / 1024);
+		if (data instanceof DataStore.PagedStore pagedStore) {
+			System.out.printf("Data store: %d of %d pages of %d words allocated%n", pagedStore.getAllocatedPages(),
+					pagedStore.getPages(), DataStore.pageSize);
+		}
+	}
 
-		if ((currentChar == '-') || (currentChar == '+')) {
-			do {
-				sign = (currentChar == '-') ? -1 : 1;
-				currentChar = System.in.read();
-			} while ((currentChar == '-') || currentChar == '+');
+	static void showProfile(Profile profile) {
+		System.out.println();
+		profile.writeReport(new PrintWriter(System.out), hotSpots);
+		if (foldedStacksName != null) {
+			try (var out = new PrintWriter(new FileWriter(foldedStacksName))) {
+				profile.writeFoldedStacks(out);
+			} catch (IOException e) {
+				System.err.println("Error writing profile: " + e);
+			}
 		}
+	}
 
-		if (Character.isDigit((char) currentChar)) {
-			do {
-				temp = temp * 10 + (currentChar - '0');
-				currentChar = System.in.read();
-			} while (Character.isDigit((char) currentChar));
+	static void showSamples(Sampler sampler) {
+		System.out.println();
+		sampler.writeReport(new PrintWriter(System.out), hotSpots);
+		if (sampledStacksName != null) {
+			try (var out = new PrintWriter(new FileWriter(sampledStacksName))) {
+				sampler.writeFoldedStacks(out);
+			} catch (IOException e) {
+				System.err.println("Error writing samples: " + e);
+			}
 		}
+	}
+
+	static boolean isCountingInstructions() {
+		// Whether the run is profiled, either to report the profile or to
+		// choose superinstructions from it.
 
-		return sign * temp;
+		return profiling || fusionProfileName != null;
 	}
 
-	static void callPrimitive(int primitiveDisplacement) {
-		// Invokes the given primitive routine.
-
-		int addr, size;
-		char ch;
-
-		var primitive = Primitive.values()[primitiveDisplacement];
-		switch (primitive) {
-		case ID:
-			break; // nothing to be done
-		case NOT:
-			data[ST - 1] = toInt(!isTrue(data[ST - 1]));
-			break;
-		case AND:
-			ST = ST - 1;
-			data[ST - 1] = toInt(isTrue(data[ST - 1]) & isTrue(data[ST]));
-			break;
-		case OR:
-			ST = ST - 1;
-			data[ST - 1] = toInt(isTrue(data[ST - 1]) | isTrue(data[ST]));
-			break;
-		case SUCC:
-			data[ST - 1] = overflowChecked(data[ST - 1] + 1);
-			break;
-		case PRED:
-			data[ST - 1] = overflowChecked(data[ST - 1] - 1);
-			break;
-		case NEG:
-			data[ST - 1] = -data[ST - 1];
-			break;
-		case ADD:
-			ST = ST - 1;
-			accumulator = data[ST - 1];
-			data[ST - 1] = overflowChecked(accumulator + data[ST]);
-			break;
-		case SUB:
-			ST = ST - 1;
-			accumulator = data[ST - 1];
-			data[ST - 1] = overflowChecked(accumulator - data[ST]);
-			break;
-		case MULT:
-			ST = ST - 1;
-			accumulator = data[ST - 1];
-			data[ST - 1] = overflowChecked(accumulator * data[ST]);
-			break;
-		case DIV:
-			ST = ST - 1;
-			accumulator = data[ST - 1];
-			if (data[ST] != 0) {
-				data[ST - 1] = (int) (accumulator / data[ST]);
-			} else {
-				status = failedZeroDivide;
-			}
-			break;
-		case MOD:
-			ST = ST - 1;
-			accumulator = data[ST - 1];
-			if (data[ST] != 0) {
-				data[ST - 1] = (int) (accumulator % data[ST]);
-			} else {
-				status = failedZeroDivide;
-			}
-			break;
-		case LT:
-			ST = ST - 1;
-			data[ST - 1] = toInt(data[ST - 1] < data[ST]);
-			break;
-		case LE:
-			ST = ST - 1;
-			data[ST - 1] = toInt(data[ST - 1] <= data[ST]);
-			break;
-		case GE:
-			ST = ST - 1;
-			data[ST - 1] = toInt(data[ST - 1] >= data[ST]);
-			break;
-		case GT:
-			ST = ST - 1;
-			data[ST - 1] = toInt(data[ST - 1] > data[ST]);
-			break;
-		case EQ:
-			size = data[ST - 1]; // size of each comparand
-			ST = ST - 2 * size;
-			data[ST - 1] = toInt(equal(size, ST - 1, ST - 1 + size));
-			break;
-		case NE:
-			size = data[ST - 1]; // size of each comparand
-			ST = ST - 2 * size;
-			data[ST - 1] = toInt(!equal(size, ST - 1, ST - 1 + size));
-			break;
-		case EOL:
-			data[ST] = toInt(currentChar == '\n');
-			ST = ST + 1;
-			break;
-		case EOF:
-			data[ST] = toInt(currentChar == -1);
-			ST = ST + 1;
-			break;
-		case GET:
-			ST = ST - 1;
-			addr = data[ST];
-			try {
-				currentChar = System.in.read();
-			} catch (java.io.IOException s) {
-				status = failedIOError;
-			}
-			data[addr] = currentChar;
-			break;
-		case PUT:
-			ST = ST - 1;
-			ch = (char) data[ST];
-			System.out.print(ch);
-			break;
-		case GETEOL:
-			try {
-				while ((currentChar = System.in.read()) != '\n')
-					;
-			} catch (java.io.IOException s) {
-				status = failedIOError;
-			}
-			break;
-		case PUTEOL:
-			System.out.println("");
-			break;
-		case GETINT:
-			System.out.println("enter int: ");
-			ST = ST - 1;
-			addr = data[ST];
-			try {
-				accumulator = readInt();
-			} catch (java.io.IOException s) {
-				status = failedIOError;
-			}
-			data[addr] = (int) accumulator;
-			break;
-		case PUTINT:
-			ST = ST - 1;
-			accumulator = data[ST];
-			System.out.print(accumulator);
-			break;
-		case NEW:
-			size = data[ST - 1];
-			checkSpace(size);
-			HT = HT - size;
-			data[ST - 1] = HT;
-			break;
-		case DISPOSE:
-			ST = ST - 1; // no action taken at present
-			break;
+	static void saveFusionProfile(DecodedProgram program, Profile profile) {
+		try {
+			Superinstructions.writeProfile(fusionProfileName, program, profile);
+		} catch (IOException s) {
+			System.err.println("Error writing superinstruction profile: " + s);
 		}
 	}
 
-	static void interpretProgram() {
-		// Runs the program in code store.
-
-		Instruction currentInstr;
-
-		// Initialize registers ...
-		ST = SB;
-		HT = HB;
-		LB = SB;
-		CP = CB;
-		status = running;
-		do {
-			// Fetch instruction ...
-			currentInstr = Machine.code[CP];
-			// Decode instruction ...
-			var op = currentInstr.opCode;
-			var r = currentInstr.register;
-			var n = currentInstr.length;
-			var d = currentInstr.operand;
-			int addr;
-
-			// Execute instruction ...
-			switch (op) {
-			case LOAD:
-				addr = d + content(r);
-				checkSpace(n);
-				for (var index = 0; index < n; index++) {
-					data[ST + index] = data[addr + index];
-				}
-				ST = ST + n;
-				CP = CP + 1;
-				break;
-			case LOADA:
-				addr = d + content(r);
-				checkSpace(1);
-				data[ST] = addr;
-				ST = ST + 1;
-				CP = CP + 1;
-				break;
-			case LOADI:
-				ST = ST - 1;
-				addr = data[ST];
-				checkSpace(n);
-				for (var index = 0; index < n; index++) {
-					data[ST + index] = data[addr + index];
+	static void parseArgs(String[] args) {
+		for (String s : args) {
+			var sl = s.toLowerCase();
+			if (sl.equals("display")) {
+				displayMode = true;
+			} else if (sl.startsWith("store=")) {
+				try {
+					dataStoreSize = parseSize(sl.substring(6));
+				} catch (NumberFormatException | ArithmeticException e) {
+					System.err.println("Error in data store size: " + e);
 				}
-				ST = ST + n;
-				CP = CP + 1;
-				break;
-			case LOADL:
-				checkSpace(1);
-				data[ST] = d;
-				ST = ST + 1;
-				CP = CP + 1;
-				break;
-			case STORE:
-				addr = d + content(r);
-				ST = ST - n;
-				for (var index = 0; index < n; index++) {
-					data[addr + index] = data[ST + index];
+			} else if (sl.equals("offheap")) {
+				offHeap = true;
+			} else if (sl.equals("paged")) {
+				paged = true;
+			} else if (sl.equals("storestats")) {
+				storeStatistics = true;
+			} else if (sl.startsWith("persist=")) {
+				persistentName = s.substring(8);
+			} else if (sl.startsWith("core=")) {
+				coreName = s.substring(5);
+			} else if (sl.startsWith("checkpoint=")) {
+				try {
+					checkpointInterval = Long.parseLong(s.substring(11));
+				} catch (NumberFormatException e) {
+					System.err.println("Error in checkpoint interval: " + e);
 				}
-				CP = CP + 1;
-				break;
-			case STOREI:
-				ST = ST - 1;
-				addr = data[ST];
-				ST = ST - n;
-				for (var index = 0; index < n; index++) {
-					data[addr + index] = data[ST + index];
-				}
-				CP = CP + 1;
-				break;
-			case CALL:
-				addr = d + content(r);
-				if (addr >= Machine.PB) {
-					callPrimitive(addr - Machine.PB);
-					CP = CP + 1;
-				} else {
-					checkSpace(3);
-					if (0 <= n && n <= 15) {
-						data[ST] = content(n); // static link
-					} else {
-						status = failedInvalidInstruction;
-					}
-					data[ST + 1] = LB; // dynamic link
-					data[ST + 2] = CP + 1; // return address
-					LB = ST;
-					ST = ST + 3;
-					CP = addr;
-				}
-				break;
-			case CALLI:
-				ST = ST - 2;
-				addr = data[ST + 1];
-				if (addr >= Machine.PB) {
-					callPrimitive(addr - Machine.PB);
-					CP = CP + 1;
-				} else {
-					// data[ST] = static link already
-					data[ST + 1] = LB; // dynamic link
-					data[ST + 2] = CP + 1; // return address
-					LB = ST;
-					ST = ST + 3;
-					CP = addr;
+			} else if (sl.startsWith("restore=")) {
+				restoreName = s.substring(8);
+			} else if (sl.startsWith("batch=")) {
+				batchName = s.substring(6);
+			} else if (sl.equals("profile")) {
+				profiling = true;
+			} else if (sl.startsWith("profile=")) {
+				profiling = true;
+				foldedStacksName = s.substring(8);
+			} else if (sl.equals("sample")) {
+				sampling = true;
+			} else if (sl.startsWith("sample=")) {
+				sampling = true;
+				sampledStacksName = s.substring(7);
+			} else if (sl.startsWith("sampleinterval=")) {
+				try {
+					sampleInterval = Integer.parseInt(s.substring(15));
+				} catch (NumberFormatException e) {
+					System.err.println("Error in sample interval: " + e);
 				}
-				break;
-			case RETURN:
-				addr = LB - d;
-				CP = data[LB + 2];
-				LB = data[LB + 1];
-				ST = ST - n;
-				for (var index = 0; index < n; index++) {
-					data[addr + index] = data[ST + index];
+			} else if (sl.equals("heapstats")) {
+				heapStatistics = true;
+			} else if (sl.equals("jit")) {
+				jitThreshold = JvmCompiler.defaultThreshold;
+			} else if (sl.startsWith("jit=")) {
+				try {
+					jitThreshold = Integer.parseInt(s.substring(4));
+				} catch (NumberFormatException e) {
+					System.err.println("Error in compile threshold: " + e);
 				}
-				ST = addr + n;
-				break;
-			case PUSH:
-				checkSpace(d);
-				ST = ST + d;
-				CP = CP + 1;
-				break;
-			case POP:
-				addr = ST - n - d;
-				ST = ST - n;
-				for (var index = 0; index < n; index++) {
-					data[addr + index] = data[ST + index];
-				}
-				ST = addr + n;
-				CP = CP + 1;
-				break;
-			case JUMP:
-				CP = d + content(r);
-				break;
-			case JUMPI:
-				ST = ST - 1;
-				CP = data[ST];
-				break;
-			case JUMPIF:
-				ST = ST - 1;
-				if (data[ST] == n) {
-					CP = d + content(r);
-				} else {
-					CP = CP + 1;
-				}
-				break;
-			case HALT:
-				status = halted;
-				break;
-			}
-			if (CP < CB || CP >= CT) {
-				status = failedInvalidCodeAddress;
-			}
-		} while (status == running);
-	}
-
-	// LOADING
-
-	static void loadObjectProgram(String objectName) {
-		// Loads the TAM object program into code store from the named file.
-
-		boolean finished = false;
-
-		try (var objectFile = new FileInputStream(objectName)) {
-			var objectStream = new DataInputStream(objectFile);
-
-			var addr = Machine.CB;
-			while (!finished) {
-				Machine.code[addr] = Instruction.read(objectStream);
-				if (Machine.code[addr] == null) {
-					finished = true;
-				} else {
-					addr = addr + 1;
+			} else if (sl.equals("fuse")) {
+				fusionTable = Superinstructions.defaultTable;
+			} else if (sl.startsWith("fuse=")) {
+				try {
+					fusionTable = Superinstructions.readProfile(s.substring(5));
+				} catch (IOException e) {
+					System.err.println("Error reading superinstruction profile: " + e);
 				}
+			} else if (sl.startsWith("fuseprofile=")) {
+				fusionProfileName = s.substring(12);
+			} else if (sl.startsWith("in=")) {
+				inputName = s.substring(3);
+			} else if (sl.startsWith("out=")) {
+				outputName = s.substring(4);
+			} else if (sl.equals("noprompt")) {
+				prompting = false;
+			} else if (sl.equals("jmx")) {
+				jmx = true;
+			} else if (sl.equals("checked")) {
+				alwaysChecked = true;
+			} else if (!s.contains("=")) {
+				objectName = s;
+			} else {
+				System.err.println("Error in options: unknown option " + s);
 			}
-			CT = addr;
-		} catch (FileNotFoundException s) {
-			CT = CB;
-			System.err.println("Error opening object file: " + s);
-		} catch (IOException s) {
-			CT = CB;
-			System.err.println("Error reading object file: " + s);
 		}
 	}
 
-	// RUNNING
-
-	public static void main(String[] args) {
-		System.out.println("********** TAM Interpreter (Java Version 2.1) **********");
-
-		if (args.length == 1) {
-			objectName = args[0];
-		} else {
-			objectName = "obj.tam";
+	private static int parseSize(String size) {
+		// Parses a number of words, which may be given in units of 1024 (k),
+		// 1048576 (m) or 1073741824 (g).
+
+		var multiplier = 1;
+		if (size.endsWith("k")) {
+			multiplier = 1 << 10;
+		} else if (size.endsWith("m")) {
+			multiplier = 1 << 20;
+		} else if (size.endsWith("g")) {
+			multiplier = 1 << 30;
 		}
-
-		loadObjectProgram(objectName);
-		if (CT != CB) {
-			startTimeNanos = System.nanoTime();
-			interpretProgram();
-			showStatus();
+		if (multiplier > 1) {
+			size = size.substring(0, size.length() - 1);
+		}
+		var words = Math.multiplyExact(Integer.parseInt(size), multiplier);
+		if (words <= 0) {
+			throw new NumberFormatException("data store must have at least one word: " + words);
 		}
+		return words;
 	}
 }
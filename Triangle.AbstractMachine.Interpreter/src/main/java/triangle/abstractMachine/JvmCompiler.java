@@ -0,0 +1,789 @@
+package triangle.abstractMachine;
+
+import static triangle.abstractMachine.ClassFileWriter.*;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import triangle.abstractMachine.ClassFileWriter.Label;
+
+/**
+ * The second tier of the TAM: translates hot regions of a program into JVM
+ * bytecode, which HotSpot then optimises like any other Java code.
+ *
+ * A TamMachine counts the calls of each routine and the backward jumps to
+ * each loop header. When a count reaches the threshold, the address is queued
+ * for a background thread, which collects the region of code reachable from
+ * it, translates the region into a method of a new hidden class, and installs
+ * it at each address where a machine may enter it. Meanwhile the machine
+ * carries on interpreting. It looks for compiled code whenever it calls,
+ * returns or jumps backwards, so a loop that is already running when its code
+ * is installed is taken over at its next iteration (on-stack replacement).
+ *
+ * Compiled code works on the data store and registers of the machine running
+ * it, holding ST and LB in locals while it runs. It hands control back, by
+ * storing the registers and leaving CP at the next instruction, when it
+ * leaves its region or reaches an instruction it does not translate (CALL,
+ * CALLI, RETURN, JUMPI and HALT), and also just before any instruction that
+ * would fail. The machine then interprets that instruction itself, so a
+ * program behaves exactly as if it had been interpreted throughout.
+ *
+ * The compiled code depends only on the program, so one compiler can serve
+ * all the machines running the same program, on any number of threads, as
+ * the forks of a batch do. Arrivals are counted atomically, so that each hot
+ * address is queued exactly once whichever machines arrive at it, and
+ * compiled code is published with a release fence before any machine can
+ * find it. Everything else a region's code touches belongs to the machine
+ * running it.
+ */
+public final class JvmCompiler implements AutoCloseable {
+
+	/** The number of arrivals at a code address before it is compiled. */
+	public final static int defaultThreshold = 1000;
+
+	// the most instructions in one region, which keeps each method's code
+	// short enough for 16-bit branch offsets
+	private final static int maxRegionSize = 500;
+
+	private final static String machineClass = "triangle/abstractMachine/TamMachine",
+			storeClass = "triangle/abstractMachine/DataStore", compilerClass = "triangle/abstractMachine/JvmCompiler";
+
+	// the program as decoded, before any superinstructions are fused
+	private final DecodedProgram program;
+
+	private final boolean displayMode;
+
+	private final int threshold;
+
+	private final boolean[] entryPoints;
+
+	private final AtomicIntegerArray arrivals;
+
+	private final CompiledCode[] compiledCode;
+
+	private final LinkedBlockingQueue<Integer> requests = new LinkedBlockingQueue<>();
+
+	private volatile int regionsCompiled;
+
+	private final Thread thread;
+
+	/**
+	 * Creates a compiler for the given program, and starts its background
+	 * thread.
+	 *
+	 * @param program     the decoded program, without superinstructions
+	 * @param displayMode whether the machines keep a display of L1..L6
+	 * @param threshold   the number of arrivals at a code address before it is
+	 *                    compiled
+	 */
+	public JvmCompiler(DecodedProgram program, boolean displayMode, int threshold) {
+		this.program = program;
+		this.displayMode = displayMode;
+		this.threshold = threshold;
+		entryPoints = findEntryPoints(program);
+		arrivals = new AtomicIntegerArray(program.CT);
+		compiledCode = new CompiledCode[program.CT];
+
+		thread = new Thread(this::compileRequests, "TAM compiler");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @return the compiled code to run on arriving at the given code address,
+	 *         or null if there is none
+	 */
+	CompiledCode compiledCodeAt(int addr) {
+		return compiledCode[addr];
+	}
+
+	/**
+	 * Counts an arrival at the given code address, by a call or a backward
+	 * jump, and requests compilation once it is hot.
+	 */
+	void countArrival(int addr) {
+		if (arrivals.incrementAndGet(addr) == threshold) {
+			requests.add(addr);
+		}
+	}
+
+	boolean isDisplayMode() {
+		return displayMode;
+	}
+
+	public int getRegionsCompiled() {
+		return regionsCompiled;
+	}
+
+	/**
+	 * Stops the background thread. Code already compiled is still used.
+	 */
+	@Override
+	public void close() {
+		thread.interrupt();
+	}
+
+	/**
+	 * Compiles the regions requested so far on the calling thread, rather than
+	 * waiting for the background thread to, so that a machine started next is
+	 * sure to run their compiled code.
+	 */
+	void compilePending() {
+		for (var addr = requests.poll(); addr != null; addr = requests.poll()) {
+			compileRequest(addr);
+		}
+	}
+
+	private void compileRequests() {
+		while (true) {
+			try {
+				compileRequest(requests.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private synchronized void compileRequest(int addr) {
+		if (compiledCode[addr] != null) {
+			return;
+		}
+		try {
+			compileRegion(addr);
+		} catch (Throwable e) {
+			System.err.println("Error compiling code at " + addr + ": " + e);
+		}
+	}
+
+	private void compileRegion(int start) throws Throwable {
+		var region = collectRegion(start);
+		var entries = new ArrayList<Integer>();
+		for (var addr = 0; addr < program.CT; addr++) {
+			if (region[addr] && (addr == start || entryPoints[addr])) {
+				entries.add(addr);
+			}
+		}
+
+		var classBytes = new Translator(region, entries).translate();
+		var lookup = MethodHandles.lookup().defineHiddenClass(classBytes, true);
+		var code = (CompiledCode) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class))
+				.invoke();
+
+		VarHandle.releaseFence();
+		for (var addr : entries) {
+			if (compiledCode[addr] == null) {
+				compiledCode[addr] = code;
+			}
+		}
+		regionsCompiled++;
+	}
+
+	// REGIONS
+
+	/**
+	 * Finds the code addresses that control can reach other than by falling
+	 * through from the previous instruction: the targets of jumps and calls,
+	 * code addresses in closures, and return addresses.
+	 */
+	private static boolean[] findEntryPoints(DecodedProgram program) {
+		var entries = new boolean[program.CT + 1];
+		for (var addr = 0; addr < program.CT; addr++) {
+			var d = program.d[addr];
+			switch (program.op[addr]) {
+			case Machine.JUMPop:
+			case Machine.JUMPIFop:
+			case Machine.LOADAop:
+				if (program.r[addr] == Machine.CBr && 0 <= d && d < program.CT) {
+					entries[d] = true;
+				}
+				break;
+			case Machine.CALLop:
+				if (program.r[addr] == Machine.CBr && 0 <= d && d < program.CT) {
+					entries[d] = true;
+				}
+				entries[addr + 1] = true;
+				break;
+			case Machine.CALLIop:
+				entries[addr + 1] = true;
+				break;
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Collects the instructions reachable from the given address by falling
+	 * through, by jumps relative to CB, and by returning from calls.
+	 */
+	private boolean[] collectRegion(int start) {
+		var region = new boolean[program.CT];
+		var work = new ArrayDeque<Integer>();
+		work.push(start);
+		var size = 0;
+		while (!work.isEmpty() && size < maxRegionSize) {
+			var addr = work.pop();
+			if (addr < 0 || addr >= program.CT || region[addr]) {
+				continue;
+			}
+			region[addr] = true;
+			size++;
+			switch (program.op[addr]) {
+			case Machine.JUMPop:
+				if (program.r[addr] == Machine.CBr) {
+					work.push(program.d[addr]);
+				}
+				break;
+			case Machine.JUMPIFop:
+				if (program.r[addr] == Machine.CBr) {
+					work.push(addr + 1);
+					work.push(program.d[addr]);
+				}
+				break;
+			case Machine.RETURNop:
+			case Machine.JUMPIop:
+			case Machine.HALTop:
+				break;
+			default:
+				work.push(addr + 1);
+				break;
+			}
+		}
+		return region;
+	}
+
+	// TRANSLATION
+
+	// local variables of the compiled method
+	private final static int THIS = 0, MACHINE = 1, ENTRY = 2, DATA = 3, ST = 4, LB = 5, ADDR = 6, SIZE = 7,
+			ACC = 8, maxLocals = 10, maxStack = 16;
+
+	private final class Translator {
+
+		private final boolean[] region;
+		private final ArrayList<Integer> entries;
+		private final ClassFileWriter writer = new ClassFileWriter("triangle/abstractMachine/CompiledRegion",
+				"java/lang/Object", "triangle/abstractMachine/CompiledCode");
+		private final ClassFileWriter.Code c = writer.new Code();
+		private final Label[] labels;
+		private final Map<Integer, Label> exits = new TreeMap<>();
+
+		Translator(boolean[] region, ArrayList<Integer> entries) {
+			this.region = region;
+			this.entries = entries;
+			labels = new Label[program.CT];
+			for (var addr = 0; addr < program.CT; addr++) {
+				if (region[addr]) {
+					labels[addr] = new Label();
+				}
+			}
+		}
+
+		byte[] translate() {
+			var init = writer.new Code();
+			init.local(ALOAD, THIS);
+			init.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+			init.op(RETURN);
+			writer.addMethod(ACC_PUBLIC, "<init>", "()V", init, 1, 1);
+
+			// load the registers, then go to the entry point
+			machineField(GETFIELD, "data", "L" + storeClass + ";");
+			c.local(ASTORE, DATA);
+			machineField(GETFIELD, "ST", "I");
+			c.local(ISTORE, ST);
+			machineField(GETFIELD, "LB", "I");
+			c.local(ISTORE, LB);
+			c.local(ILOAD, ENTRY);
+			var keys = new int[entries.size()];
+			var targets = new Label[entries.size()];
+			for (var i = 0; i < keys.length; i++) {
+				keys[i] = entries.get(i);
+				targets[i] = labels[keys[i]];
+			}
+			var noEntry = new Label();
+			c.lookupSwitch(noEntry, keys, targets);
+
+			for (var addr = 0; addr < program.CT; addr++) {
+				if (region[addr]) {
+					c.bind(labels[addr]);
+					if (translateInstruction(addr)) {
+						// falls through to the next instruction
+						if (addr + 1 >= program.CT || !region[addr + 1]) {
+							c.jump(GOTO, exitTo(addr + 1));
+						}
+					}
+				}
+			}
+
+			// store the registers and return, with the next code address on
+			// the stack
+			var exit = new Label();
+			for (var e : exits.entrySet()) {
+				c.bind(e.getValue());
+				c.iconst(e.getKey());
+				c.jump(GOTO, exit);
+			}
+			c.bind(noEntry);
+			c.local(ILOAD, ENTRY);
+			c.bind(exit);
+			c.local(ALOAD, MACHINE);
+			c.op(SWAP);
+			c.field(PUTFIELD, machineClass, "CP", "I");
+			storeST();
+			c.op(RETURN);
+
+			writer.addMethod(ACC_PUBLIC, "run", "(L" + machineClass + ";I)V", c, maxStack, maxLocals);
+			return writer.toByteArray();
+		}
+
+		private Label exitTo(int addr) {
+			return exits.computeIfAbsent(addr, a -> new Label());
+		}
+
+		private void branch(int opCode, int target) {
+			if (0 <= target && target < program.CT && region[target]) {
+				c.jump(opCode, labels[target]);
+			} else {
+				c.jump(opCode, exitTo(target));
+			}
+		}
+
+		/**
+		 * Translates the instruction at the given address.
+		 *
+		 * @return whether control can fall through to the next instruction
+		 */
+		private boolean translateInstruction(int addr) {
+			var op = program.op[addr];
+			var r = program.r[addr];
+			var n = program.n[addr];
+			var d = program.d[addr];
+
+			switch (op) {
+			case Machine.LOADop:
+				checkSpace(n, addr);
+				loadAddress(r, d, addr);
+				c.local(ISTORE, ADDR);
+				move(ADDR, ST, n);
+				c.iinc(ST, n);
+				return true;
+			case Machine.LOADAop:
+				checkSpace(1, addr);
+				c.local(ALOAD, DATA);
+				c.local(ILOAD, ST);
+				loadAddress(r, d, addr);
+				setWord();
+				c.iinc(ST, 1);
+				return true;
+			case Machine.LOADIop:
+				// the machine checks for space once the address is popped
+				machineField(GETFIELD, "HT", "I");
+				c.local(ILOAD, ST);
+				c.op(ISUB);
+				c.iconst(n - 1);
+				c.jump(IF_ICMPLT, exitTo(addr));
+				c.iinc(ST, -1);
+				loadWord(ST, 0);
+				c.local(ISTORE, ADDR);
+				move(ADDR, ST, n);
+				c.iinc(ST, n);
+				return true;
+			case Machine.LOADLop:
+				checkSpace(1, addr);
+				c.local(ALOAD, DATA);
+				c.local(ILOAD, ST);
+				c.iconst(d);
+				setWord();
+				c.iinc(ST, 1);
+				return true;
+			case Machine.STOREop:
+				loadAddress(r, d, addr);
+				c.local(ISTORE, ADDR);
+				c.iinc(ST, -n);
+				move(ST, ADDR, n);
+				return true;
+			case Machine.STOREIop:
+				c.iinc(ST, -1);
+				loadWord(ST, 0);
+				c.local(ISTORE, ADDR);
+				c.iinc(ST, -n);
+				move(ST, ADDR, n);
+				return true;
+			case Machine.PUSHop:
+				checkSpace(d, addr);
+				c.iinc(ST, d);
+				return true;
+			case Machine.POPop:
+				c.local(ILOAD, ST);
+				c.iconst(n + d);
+				c.op(ISUB);
+				c.local(ISTORE, ADDR);
+				c.iinc(ST, -n);
+				move(ST, ADDR, n);
+				c.local(ILOAD, ADDR);
+				c.iconst(n);
+				c.op(IADD);
+				c.local(ISTORE, ST);
+				return true;
+			case Machine.JUMPop:
+				if (r == Machine.CBr) {
+					branch(GOTO, d);
+				} else {
+					c.jump(GOTO, exitTo(addr));
+				}
+				return false;
+			case Machine.JUMPIFop:
+				if (r == Machine.CBr) {
+					c.iinc(ST, -1);
+					loadWord(ST, 0);
+					c.iconst(n);
+					branch(IF_ICMPEQ, d);
+					return true;
+				} else {
+					c.jump(GOTO, exitTo(addr));
+					return false;
+				}
+			case Machine.CALLop:
+			case Machine.CALLIop:
+			case Machine.RETURNop:
+			case Machine.JUMPIop:
+			case Machine.HALTop:
+				c.jump(GOTO, exitTo(addr));
+				return false;
+			default:
+				if (op >= DecodedProgram.CALLPop && op < DecodedProgram.CALLPop + Machine.PT - Machine.PB) {
+					return translatePrimitive(op - DecodedProgram.CALLPop, addr);
+				}
+				c.jump(GOTO, exitTo(addr));
+				return false;
+			}
+		}
+
+		private boolean translatePrimitive(int primitiveDisplacement, int addr) {
+			switch (primitiveDisplacement) {
+			case Machine.idDisplacement:
+				return true;
+			case Machine.notDisplacement:
+				c.local(ALOAD, DATA);
+				c.local(ILOAD, ST);
+				c.iconst(1);
+				c.op(ISUB);
+				loadWord(ST, -1);
+				c.invoke(INVOKESTATIC, compilerClass, "not", "(I)I");
+				setWord();
+				return true;
+			case Machine.negDisplacement:
+				c.local(ALOAD, DATA);
+				c.local(ILOAD, ST);
+				c.iconst(1);
+				c.op(ISUB);
+				loadWord(ST, -1);
+				c.op(INEG);
+				setWord();
+				return true;
+			case Machine.succDisplacement:
+			case Machine.predDisplacement:
+				loadWord(ST, -1);
+				c.op(I2L);
+				c.lconst(1);
+				c.op(primitiveDisplacement == Machine.succDisplacement ? LADD : LSUB);
+				c.local(LSTORE, ACC);
+				storeChecked(1, addr);
+				return true;
+			case Machine.addDisplacement:
+			case Machine.subDisplacement:
+			case Machine.multDisplacement:
+				loadWord(ST, -2);
+				c.op(I2L);
+				loadWord(ST, -1);
+				c.op(I2L);
+				c.op(primitiveDisplacement == Machine.addDisplacement ? LADD
+						: primitiveDisplacement == Machine.subDisplacement ? LSUB : LMUL);
+				c.local(LSTORE, ACC);
+				storeChecked(2, addr);
+				c.iinc(ST, -1);
+				return true;
+			case Machine.divDisplacement:
+			case Machine.modDisplacement:
+				loadWord(ST, -1);
+				c.jump(IFEQ, exitTo(addr));
+				binary(primitiveDisplacement == Machine.divDisplacement ? "div" : "mod");
+				return true;
+			case Machine.andDisplacement:
+				binary("and");
+				return true;
+			case Machine.orDisplacement:
+				binary("or");
+				return true;
+			case Machine.ltDisplacement:
+				binary("lt");
+				return true;
+			case Machine.leDisplacement:
+				binary("le");
+				return true;
+			case Machine.geDisplacement:
+				binary("ge");
+				return true;
+			case Machine.gtDisplacement:
+				binary("gt");
+				return true;
+			case Machine.eqDisplacement:
+			case Machine.neDisplacement:
+				// size = data[ST - 1]; ST = ST - 2 * size;
+				// data[ST - 1] = eq(size, ST - 1, ST - 1 + size)
+				loadWord(ST, -1);
+				c.local(ISTORE, SIZE);
+				c.local(ILOAD, ST);
+				c.local(ILOAD, SIZE);
+				c.local(ILOAD, SIZE);
+				c.op(IADD);
+				c.op(ISUB);
+				c.local(ISTORE, ST);
+				c.local(ALOAD, DATA);
+				c.local(ILOAD, ST);
+				c.iconst(1);
+				c.op(ISUB);
+				c.local(ALOAD, MACHINE);
+				c.local(ILOAD, SIZE);
+				c.local(ILOAD, ST);
+				c.iconst(1);
+				c.op(ISUB);
+				c.local(ILOAD, ST);
+				c.iconst(1);
+				c.op(ISUB);
+				c.local(ILOAD, SIZE);
+				c.op(IADD);
+				c.invoke(INVOKESTATIC, compilerClass,
+						primitiveDisplacement == Machine.eqDisplacement ? "eq" : "ne", "(L" + machineClass + ";III)I");
+				setWord();
+				return true;
+			case Machine.eolDisplacement:
+			case Machine.eofDisplacement:
+				c.local(ALOAD, DATA);
+				c.local(ILOAD, ST);
+				machineField(GETFIELD, "currentChar", "I");
+				c.invoke(INVOKESTATIC, compilerClass,
+						primitiveDisplacement == Machine.eolDisplacement ? "eol" : "eof", "(I)I");
+				setWord();
+				c.iinc(ST, 1);
+				return true;
+			default:
+				// input-output and the heap: the machine does these itself,
+				// on the registers as stored
+				storeST();
+				c.local(ALOAD, MACHINE);
+				c.iconst(primitiveDisplacement);
+				c.invoke(INVOKEVIRTUAL, machineClass, "systemPrimitive", "(I)V");
+				machineField(GETFIELD, "ST", "I");
+				c.local(ISTORE, ST);
+				machineField(GETFIELD, "status", "I");
+				c.jump(IFNE, exitTo(addr + 1));
+				return true;
+			}
+		}
+
+		private void machineField(int opCode, String name, String descriptor) {
+			c.local(ALOAD, MACHINE);
+			c.field(opCode, machineClass, name, descriptor);
+		}
+
+		private void getWord() {
+			c.invoke(INVOKEVIRTUAL, storeClass, "get", "(I)I");
+		}
+
+		private void setWord() {
+			c.invoke(INVOKEVIRTUAL, storeClass, "set", "(II)V");
+		}
+
+		private void storeST() {
+			c.local(ALOAD, MACHINE);
+			c.local(ILOAD, ST);
+			c.field(PUTFIELD, machineClass, "ST", "I");
+		}
+
+		/** Pushes d + content(r), the address an instruction at addr refers to. */
+		private void loadAddress(int r, int d, int addr) {
+			switch (r) {
+			case Machine.CBr:
+			case Machine.SBr:
+				c.iconst(d);
+				return;
+			case Machine.HBr:
+				machineField(GETFIELD, "HB", "I");
+				break;
+			case Machine.HTr:
+				machineField(GETFIELD, "HT", "I");
+				break;
+			case Machine.STr:
+				c.local(ILOAD, ST);
+				break;
+			case Machine.LBr:
+				c.local(ILOAD, LB);
+				break;
+			case Machine.CPr:
+				c.iconst(addr);
+				break;
+			default:
+				var levels = r - Machine.LBr;
+				if (displayMode) {
+					machineField(GETFIELD, "display", "[I");
+					machineField(GETFIELD, "displayBase", "I");
+					c.iconst(levels);
+					c.op(IADD);
+					c.op(IALOAD);
+				} else {
+					// follow the static links from LB
+					for (var level = 0; level < levels; level++) {
+						c.local(ALOAD, DATA);
+					}
+					c.local(ILOAD, LB);
+					for (var level = 0; level < levels; level++) {
+						getWord();
+					}
+				}
+				break;
+			}
+			if (d != 0) {
+				c.iconst(d);
+				c.op(IADD);
+			}
+		}
+
+		/** Pushes data[base + offset], where base is in a local. */
+		private void loadWord(int base, int offset) {
+			c.local(ALOAD, DATA);
+			c.local(ILOAD, base);
+			if (offset != 0) {
+				c.iconst(offset);
+				c.op(IADD);
+			}
+			getWord();
+		}
+
+		/** Copies n words from data[from] to data[to], where from and to are in locals. */
+		private void move(int from, int to, int n) {
+			if (n == 1) {
+				c.local(ALOAD, DATA);
+				c.local(ILOAD, to);
+				loadWord(from, 0);
+				setWord();
+			} else if (n > 1) {
+				c.local(ALOAD, DATA);
+				c.local(ILOAD, from);
+				c.local(ILOAD, to);
+				c.iconst(n);
+				c.invoke(INVOKESTATIC, compilerClass, "move", "(L" + storeClass + ";III)V");
+			}
+		}
+
+		/** Leaves the region before the instruction at addr if the stack cannot grow by n. */
+		private void checkSpace(int n, int addr) {
+			machineField(GETFIELD, "HT", "I");
+			c.local(ILOAD, ST);
+			c.op(ISUB);
+			c.iconst(n);
+			c.jump(IF_ICMPLT, exitTo(addr));
+		}
+
+		/**
+		 * Stores the result in ACC at data[ST - depth], or leaves the region
+		 * before the instruction at addr if it overflows.
+		 */
+		private void storeChecked(int depth, int addr) {
+			c.local(LLOAD, ACC);
+			c.lconst(-Machine.maxintRep);
+			c.op(LCMP);
+			c.jump(IFLT, exitTo(addr));
+			c.local(LLOAD, ACC);
+			c.lconst(Machine.maxintRep);
+			c.op(LCMP);
+			c.jump(IFGT, exitTo(addr));
+			c.local(ALOAD, DATA);
+			c.local(ILOAD, ST);
+			c.iconst(depth);
+			c.op(ISUB);
+			c.local(LLOAD, ACC);
+			c.op(L2I);
+			setWord();
+		}
+
+		/** Replaces the two words on top of the stack with the named helper's result. */
+		private void binary(String helper) {
+			c.local(ALOAD, DATA);
+			c.local(ILOAD, ST);
+			c.iconst(2);
+			c.op(ISUB);
+			loadWord(ST, -2);
+			loadWord(ST, -1);
+			c.invoke(INVOKESTATIC, compilerClass, helper, "(II)I");
+			setWord();
+			c.iinc(ST, -1);
+		}
+	}
+
+	// HELPERS CALLED FROM COMPILED CODE
+
+	static void move(DataStore data, int from, int to, int n) {
+		for (var index = 0; index < n; index++) {
+			data.set(to + index, data.get(from + index));
+		}
+	}
+
+	static int not(int a) {
+		return TamMachine.toInt(!TamMachine.isTrue(a));
+	}
+
+	static int and(int a, int b) {
+		return TamMachine.toInt(TamMachine.isTrue(a) & TamMachine.isTrue(b));
+	}
+
+	static int or(int a, int b) {
+		return TamMachine.toInt(TamMachine.isTrue(a) | TamMachine.isTrue(b));
+	}
+
+	static int div(int a, int b) {
+		return (int) ((long) a / b);
+	}
+
+	static int mod(int a, int b) {
+		return (int) ((long) a % b);
+	}
+
+	static int lt(int a, int b) {
+		return TamMachine.toInt(a < b);
+	}
+
+	static int le(int a, int b) {
+		return TamMachine.toInt(a <= b);
+	}
+
+	static int ge(int a, int b) {
+		return TamMachine.toInt(a >= b);
+	}
+
+	static int gt(int a, int b) {
+		return TamMachine.toInt(a > b);
+	}
+
+	static int eq(TamMachine machine, int size, int addr1, int addr2) {
+		return TamMachine.toInt(machine.equal(size, addr1, addr2));
+	}
+
+	static int ne(TamMachine machine, int size, int addr1, int addr2) {
+		return TamMachine.toInt(!machine.equal(size, addr1, addr2));
+	}
+
+	static int eol(int currentChar) {
+		return TamMachine.toInt(currentChar == '\n');
+	}
+
+	static int eof(int currentChar) {
+		return TamMachine.toInt(currentChar == -1);
+	}
+}
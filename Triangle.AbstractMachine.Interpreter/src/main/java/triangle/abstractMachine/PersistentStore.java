@@ -0,0 +1,218 @@
+package triangle.abstractMachine;
+
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * A data store whose global segment, the words at SB that hold the main
+ * program's variables, is mapped onto a file, so that the values of the
+ * globals survive from one run of the program to the next. The rest of the
+ * store is kept in another store as usual.
+ *
+ * The file starts with a header:
+ *
+ * <pre>
+ *   magic         4 bytes   "TAMS"
+ *   version       2 bytes
+ *   flags         2 bytes   none yet
+ *   globals       4 bytes   the words in the global segment
+ *   reserved      4 bytes
+ *   layout        8 bytes   a hash of the layout of the global segment
+ * </pre>
+ *
+ * followed by the words of the global segment, big-endian. The layout is
+ * taken from the program's debug information if it has any, and from its
+ * code if not, so that a file is not used by a program that would read its
+ * globals at different addresses; a program compiled without debug
+ * information must be unchanged to use its file again.
+ *
+ * Stores to the globals are written to the file by the operating system in
+ * its own time; sync forces them to the disk, and is called when the
+ * program halts.
+ */
+public final class PersistentStore extends DataStore implements AutoCloseable {
+
+	public final static int magic = 0x54414D53; // "TAMS"
+
+	public final static int version = 1;
+
+	private final static int headerSize = 24;
+
+	private final FileChannel channel;
+
+	private final MappedByteBuffer mapping;
+
+	private final IntBuffer globals;
+
+	private final int globalWords;
+
+	private final DataStore rest;
+
+	private PersistentStore(FileChannel channel, MappedByteBuffer mapping, int globalWords, DataStore rest) {
+		this.channel = channel;
+		this.mapping = mapping;
+		this.globalWords = globalWords;
+		this.rest = rest;
+		globals = mapping.slice(headerSize, globalWords * Integer.BYTES).asIntBuffer();
+	}
+
+	/**
+	 * Maps the global segment of the program onto the named file, creating it
+	 * if need be.
+	 *
+	 * @param rest the store for the words above the global segment
+	 * @throws IOException if the file cannot be opened or mapped, or was
+	 *                     written for a different layout, or the size of the
+	 *                     program's global segment cannot be found
+	 */
+	public static PersistentStore open(Path path, DecodedProgram program, DataStore rest) throws IOException {
+		var globalWords = globalWords(program);
+		if (globalWords > rest.size()) {
+			throw new IOException("global segment of " + globalWords + " words does not fit in the data store");
+		}
+		var layout = layoutHash(program);
+
+		var channel = FileChannel.open(path, READ, WRITE, CREATE);
+		try {
+			var existing = channel.size() > 0;
+			if (existing) {
+				checkHeader(channel, globalWords, layout);
+			}
+			var mapping = channel.map(READ_WRITE, 0, headerSize + (long) globalWords * Integer.BYTES);
+			if (!existing) {
+				mapping.putInt(0, magic);
+				mapping.putShort(4, (short) version);
+				mapping.putShort(6, (short) 0);
+				mapping.putInt(8, globalWords);
+				mapping.putInt(12, 0);
+				mapping.putLong(16, layout);
+			}
+			return new PersistentStore(channel, mapping, globalWords, rest);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static void checkHeader(FileChannel channel, int globalWords, long layout) throws IOException {
+		var header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), headerSize));
+		if (header.limit() < headerSize || header.getInt(0) != magic) {
+			throw new IOException("not a persistent data store");
+		}
+		var fileVersion = header.getShort(4) & 0xffff;
+		if (fileVersion != version) {
+			throw new IOException("unsupported persistent data store version " + fileVersion);
+		}
+		if (header.getInt(8) != globalWords || header.getLong(16) != layout) {
+			throw new IOException("persistent data store was written by a program with a different global layout");
+		}
+		if (channel.size() < headerSize + (long) globalWords * Integer.BYTES) {
+			throw new IOException("persistent data store truncated");
+		}
+	}
+
+	private static int globalWords(DecodedProgram program) throws IOException {
+		// The global segment holds the main program's variables. Their layout
+		// is known exactly from the debug information; failing that, the
+		// Verifier's depth for the main program's frame includes them, along
+		// with the temporaries above them, which are harmless to keep.
+
+		var debugInfo = program.getDebugInfo();
+		if (debugInfo != null) {
+			var words = 0;
+			for (var variable : debugInfo.getVariables()) {
+				if (variable.level == 0) {
+					words = Math.max(words, variable.displacement + variable.size);
+				}
+			}
+			return words;
+		}
+		if (program.isVerified()) {
+			return program.frameDepth[Machine.CB];
+		}
+		throw new IOException("cannot find the size of the global segment of an unverified program"
+				+ " compiled without debug information");
+	}
+
+	private static long layoutHash(DecodedProgram program) {
+		// FNV-1a over the global variables, or over the code if there is no
+		// debug information
+
+		var hash = 0xcbf29ce484222325L;
+		var debugInfo = program.getDebugInfo();
+		if (debugInfo != null) {
+			for (var variable : debugInfo.getVariables()) {
+				if (variable.level == 0) {
+					hash = hash(hash, variable.name.hashCode());
+					hash = hash(hash, variable.kind.hashCode());
+					hash = hash(hash, variable.displacement);
+					hash = hash(hash, variable.size);
+				}
+			}
+		} else {
+			for (var addr = Machine.CB; addr < program.CT; addr++) {
+				hash = hash(hash, program.op[addr]);
+				hash = hash(hash, program.r[addr]);
+				hash = hash(hash, program.n[addr]);
+				hash = hash(hash, program.d[addr]);
+			}
+		}
+		return hash;
+	}
+
+	private static long hash(long hash, int value) {
+		for (var shift = 0; shift < 32; shift += 8) {
+			hash = (hash ^ (value >>> shift & 0xff)) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/** @return the number of words in the global segment */
+	public int getGlobalWords() {
+		return globalWords;
+	}
+
+	@Override
+	public int size() {
+		return rest.size();
+	}
+
+	@Override
+	public int get(int addr) {
+		return addr < globalWords ? globals.get(addr) : rest.get(addr);
+	}
+
+	@Override
+	public void set(int addr, int value) {
+		if (addr < globalWords) {
+			globals.put(addr, value);
+		} else {
+			rest.set(addr, value);
+		}
+	}
+
+	@Override
+	public long getResidentWords() {
+		return rest.getResidentWords();
+	}
+
+	/**
+	 * Forces the global segment out to the disk.
+	 */
+	public void sync() {
+		mapping.force();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,222 @@
+package triangle.abstractMachine;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * An execution profile of a TAM program, recorded by a TamMachine in
+ * profiling mode.
+ *
+ * The profile counts the instructions executed by operation, by primitive
+ * routine and by code address. It also keeps a tree of the calling contexts
+ * in which they were executed, followed from each CALL and RETURN, from which
+ * it works out the instructions executed in each routine itself (exclusive)
+ * and in it and everything it calls (inclusive), and writes folded stacks in
+ * the form read by flamegraph.pl and similar tools.
+ */
+public final class Profile {
+
+	// the root of the call tree: the main program
+	private final static int root = 0;
+
+	private final DecodedProgram program;
+
+	private final long[] opCounts = new long[OpCode.values().length];
+
+	private final long[] primitiveCounts = new long[Primitive.values().length];
+
+	private final long[] addressCounts;
+
+	private long instructions;
+
+	// THE CALL TREE
+
+	// for each node, the routine called, the calling node, and the
+	// instructions executed there
+	private int[] nodeRoutine = new int[64], nodeParent = new int[64];
+
+	private long[] nodeCounts = new long[64];
+
+	private int nodes = 1;
+
+	// the node for each (calling node, routine), keyed by both
+	private final HashMap<Long, Integer> children = new HashMap<>();
+
+	// the node of the routine now running
+	private int node = root;
+
+	Profile(DecodedProgram program) {
+		this.program = program;
+		addressCounts = new long[program.CT];
+	}
+
+	// RECORDING
+
+	/**
+	 * Counts the execution of the instruction at addr, whose decoded
+	 * operation is op.
+	 */
+	void count(int addr, int op) {
+		instructions++;
+		addressCounts[addr]++;
+		nodeCounts[node]++;
+		if (op < DecodedProgram.CALLPop) {
+			opCounts[op]++;
+		} else {
+			opCounts[Machine.CALLop]++;
+			primitiveCounts[op - DecodedProgram.CALLPop]++;
+		}
+	}
+
+	/**
+	 * Counts a call of a primitive routine by a CALL or CALLI whose target was
+	 * only known when it ran.
+	 */
+	void countPrimitive(int primitiveDisplacement) {
+		primitiveCounts[primitiveDisplacement]++;
+	}
+
+	/** Records a call of the routine at the given code address. */
+	void enter(int routine) {
+		if (routine < 0 || routine >= program.CT) {
+			return; // the machine is about to fail
+		}
+		var key = (long) node << 32 | routine;
+		var child = children.get(key);
+		if (child == null) {
+			if (nodes == nodeRoutine.length) {
+				nodeRoutine = Arrays.copyOf(nodeRoutine, 2 * nodes);
+				nodeParent = Arrays.copyOf(nodeParent, 2 * nodes);
+				nodeCounts = Arrays.copyOf(nodeCounts, 2 * nodes);
+			}
+			child = nodes++;
+			nodeRoutine[child] = routine;
+			nodeParent[child] = node;
+			children.put(key, child);
+		}
+		node = child;
+	}
+
+	/** Records a return from the routine now running. */
+	void leave() {
+		if (node != root) {
+			node = nodeParent[node];
+		}
+	}
+
+	// RESULTS
+
+	/** @return the number of instructions executed */
+	public long getInstructions() {
+		return instructions;
+	}
+
+	/** @return the number of times the instruction at addr was executed */
+	public long getAddressCount(int addr) {
+		return addr >= 0 && addr < addressCounts.length ? addressCounts[addr] : 0;
+	}
+
+	private String stack(int node) {
+		var frames = new ArrayDeque<String>();
+		for (; node != root; node = nodeParent[node]) {
+			frames.addFirst(program.routineName(nodeRoutine[node]));
+		}
+		frames.addFirst("main");
+		return String.join(";", frames);
+	}
+
+	private static String opName(int op) {
+		return OpCode.values()[op].name();
+	}
+
+	private static String primitiveName(int primitiveDisplacement) {
+		return Primitive.values()[primitiveDisplacement].name().toLowerCase();
+	}
+
+	/**
+	 * Writes a line for each calling context in which instructions were
+	 * executed: the routines called from the main program down, separated by
+	 * semicolons, then the number of instructions executed there.
+	 */
+	public void writeFoldedStacks(PrintWriter out) {
+		for (var n = root; n < nodes; n++) {
+			if (nodeCounts[n] > 0) {
+				out.println(stack(n) + " " + nodeCounts[n]);
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes the operations, primitive routines, code addresses and routines
+	 * that executed the most instructions, most first.
+	 *
+	 * @param limit the most code addresses to list
+	 */
+	public void writeReport(PrintWriter out, int limit) {
+		out.println("Instructions executed: " + instructions);
+
+		out.println();
+		out.println("By operation:");
+		writeCounts(out, opCounts, opCounts.length, Profile::opName);
+
+		out.println();
+		out.println("By primitive routine:");
+		writeCounts(out, primitiveCounts, primitiveCounts.length, Profile::primitiveName);
+
+		out.println();
+		out.println("Hot spots, by code address:");
+		writeCounts(out, addressCounts, limit,
+				addr -> addr + ": " + instructionName(addr) + program.sourceLines(addr));
+
+		out.println();
+		out.println("By routine (instructions executed in the routine itself, and in all it calls):");
+		var exclusive = new long[program.CT];
+		var inclusive = new long[program.CT];
+		var seen = new int[program.CT];
+		Arrays.fill(seen, -1);
+		var mainCount = 0L;
+		for (var n = root; n < nodes; n++) {
+			if (n == root) {
+				mainCount = nodeCounts[n];
+				continue;
+			}
+			exclusive[nodeRoutine[n]] += nodeCounts[n];
+			// each routine on the stack includes these, once however often
+			// it appears
+			for (var caller = n; caller != root; caller = nodeParent[caller]) {
+				var routine = nodeRoutine[caller];
+				if (seen[routine] != n) {
+					seen[routine] = n;
+					inclusive[routine] += nodeCounts[n];
+				}
+			}
+		}
+		out.printf("%14d %14d  %s%n", mainCount, instructions, "main");
+		IntStream.range(0, program.CT).filter(addr -> inclusive[addr] > 0).boxed()
+				.sorted(Comparator.comparingLong((Integer addr) -> exclusive[addr]).reversed())
+				.forEach(addr -> out.printf("%14d %14d  %s%n", exclusive[addr], inclusive[addr],
+						program.routineName(addr)));
+		out.flush();
+	}
+
+	private String instructionName(int addr) {
+		var op = program.op[addr];
+		if (op >= DecodedProgram.CALLPop) {
+			return "CALL " + primitiveName(op - DecodedProgram.CALLPop);
+		}
+		return opName(op);
+	}
+
+	private void writeCounts(PrintWriter out, long[] counts, int limit, IntFunction<String> namer) {
+		IntStream.range(0, counts.length).filter(i -> counts[i] > 0).boxed()
+				.sorted(Comparator.comparingLong((Integer i) -> counts[i]).reversed()).limit(limit)
+				.forEach(i -> out.printf("%14d %6.2f%%  %s%n", counts[i], 100.0 * counts[i] / Math.max(1, instructions),
+						namer.apply(i)));
+	}
+}
@@ -0,0 +1,57 @@
+package triangle.abstractMachine;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+
+/**
+ * A Java Flight Recorder event giving the routine that a running TAM program
+ * is in, taken at intervals, by default every 20 ms, as the Sampler does.
+ *
+ * The samples are taken by the flight recorder's own thread, from a hook that
+ * FlightRecording adds while the machine runs, and that it only calls while a
+ * recording with the event enabled is running, so the machine does no extra
+ * work for them.
+ */
+@Name("triangle.RoutineSample")
+@Label("Routine Sample")
+@Category({ "Triangle", "Interpreter" })
+@Description("The routine that a running TAM program was in")
+@Period("20 ms")
+final class RoutineSampleEvent extends Event {
+
+	@Label("Routine")
+	@Description("The code address of the routine, or -1 for the main program")
+	int routine;
+
+	@Label("Code Address")
+	int address;
+
+	@Label("Depth")
+	@Description("The number of routines called from the main program down")
+	int depth;
+
+	@Label("Stack")
+	@Description("The routines called from the main program down, separated by semicolons")
+	String stack;
+
+	static void sample(TamMachine machine) {
+		if (machine.status != TamMachine.running) {
+			return;
+		}
+		var event = new RoutineSampleEvent();
+		event.address = machine.CP;
+		var chain = Sampler.callChain(machine);
+		var stack = new StringBuilder("main");
+		for (var routine : chain) {
+			stack.append(';').append(machine.program.routineName(routine));
+		}
+		event.routine = chain.length == 0 ? -1 : chain[chain.length - 1];
+		event.depth = chain.length;
+		event.stack = stack.toString();
+		event.commit();
+	}
+}
@@ -0,0 +1,200 @@
+package triangle.abstractMachine;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * A sampling profiler for a TamMachine: a daemon thread that looks at the
+ * machine at regular intervals while its program runs, and counts where it
+ * finds it.
+ *
+ * Each sample reads CP and LB, and finds the call chain by walking the dynamic
+ * links from LB down to SB, as dump does. The routine of each frame is the
+ * target of the CALL just before its return address. The machine is not
+ * stopped, or told, so it runs at full speed, and a sample may catch it part
+ * way through a call or return; such a chain is cut short where it stops
+ * making sense. While the machine is in compiled code, its registers are only
+ * brought up to date when it leaves, so samples there are counted at the
+ * entry to the compiled region.
+ */
+public final class Sampler implements AutoCloseable {
+
+	/** The time between samples when none is given, in microseconds. */
+	public final static int defaultInterval = 10000;
+
+	// the most frames to follow in a chain
+	private final static int maxDepth = 1000;
+
+	private final TamMachine machine;
+
+	private final DecodedProgram program;
+
+	private final long intervalNanos;
+
+	private final Thread thread;
+
+	// the samples taken in each call chain, by its folded stack, and at each
+	// code address
+	private final HashMap<String, Long> stacks = new HashMap<>();
+
+	private final long[] addressSamples;
+
+	private long samples;
+
+	/**
+	 * Starts sampling a machine.
+	 *
+	 * @param machine  the machine, which may already be running
+	 * @param interval the time between samples, in microseconds
+	 */
+	public Sampler(TamMachine machine, int interval) {
+		this.machine = machine;
+		program = machine.program;
+		intervalNanos = TimeUnit.MICROSECONDS.toNanos(interval);
+		addressSamples = new long[program.CT];
+		thread = new Thread(this::sampleUntilClosed, "TAM sampler");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void sampleUntilClosed() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				TimeUnit.NANOSECONDS.sleep(intervalNanos);
+				if (machine.status == TamMachine.running) {
+					sample();
+				}
+			}
+		} catch (InterruptedException e) {
+			// closed
+		}
+	}
+
+	private void sample() {
+		var CP = machine.CP;
+		var chain = new ArrayDeque<String>();
+		for (var routine : callChain(machine)) {
+			chain.add(program.routineName(routine));
+		}
+		chain.addFirst("main");
+		var stack = String.join(";", chain);
+
+		synchronized (this) {
+			samples++;
+			stacks.merge(stack, 1L, Long::sum);
+			if (CP >= TamMachine.CB && CP < program.CT) {
+				addressSamples[CP]++;
+			}
+		}
+	}
+
+	/**
+	 * Finds the routines that a running machine is in, by walking the dynamic
+	 * links from LB down to the main program.
+	 *
+	 * @return the code addresses of the routines, from the one called by the
+	 *         main program to the one running now, with -1 for any whose
+	 *         address cannot be found
+	 */
+	static int[] callChain(TamMachine machine) {
+		var program = machine.program;
+		var data = machine.data;
+		var LB = machine.LB;
+		var ST = machine.ST;
+
+		var chain = new ArrayDeque<Integer>();
+		for (var depth = 0; LB > TamMachine.SB && depth < maxDepth; depth++) {
+			if (LB + 2 >= ST || LB + 2 >= data.size()) {
+				break; // caught part way through a call or return
+			}
+			chain.addFirst(routineCalledAt(program, data.get(LB + 2) - 1));
+			var DL = data.get(LB + 1);
+			if (DL >= LB || DL < TamMachine.SB) {
+				break;
+			}
+			LB = DL;
+		}
+		return chain.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	private static int routineCalledAt(DecodedProgram program, int callAddr) {
+		// Returns the address of the routine called by the instruction at
+		// callAddr, or -1 if it is not a CALL.
+
+		if (callAddr < TamMachine.CB || callAddr >= program.CT || program.op[callAddr] != Machine.CALLop
+				|| program.r[callAddr] != Machine.CBr) {
+			return -1;
+		}
+		return program.d[callAddr];
+	}
+
+	/** @return the number of samples taken so far */
+	public synchronized long getSamples() {
+		return samples;
+	}
+
+	/**
+	 * Writes a line for each call chain in which samples were taken: the
+	 * routines from the main program down, separated by semicolons, then the
+	 * number of samples.
+	 */
+	public synchronized void writeFoldedStacks(PrintWriter out) {
+		stacks.entrySet().stream().sorted(Map.Entry.comparingByKey())
+				.forEach(e -> out.println(e.getKey() + " " + e.getValue()));
+		out.flush();
+	}
+
+	/**
+	 * Writes the routines and code addresses at which the most samples were
+	 * taken, most first.
+	 *
+	 * @param limit the most code addresses to list
+	 */
+	public synchronized void writeReport(PrintWriter out, int limit) {
+		out.println("Samples taken: " + samples);
+
+		out.println();
+		out.println("By routine (samples in the routine itself, and in all it calls):");
+		var exclusive = new HashMap<String, Long>();
+		var inclusive = new HashMap<String, Long>();
+		stacks.forEach((stack, count) -> {
+			var frames = stack.split(";");
+			exclusive.merge(frames[frames.length - 1], count, Long::sum);
+			for (var frame : new HashSet<>(Arrays.asList(frames))) {
+				inclusive.merge(frame, count, Long::sum);
+			}
+		});
+		inclusive.keySet().stream()
+				.sorted(Comparator.comparingLong((String routine) -> exclusive.getOrDefault(routine, 0L)).reversed())
+				.forEach(routine -> out.printf("%10d %10d  %s%n", exclusive.getOrDefault(routine, 0L),
+						inclusive.get(routine), routine));
+
+		out.println();
+		out.println("Hot spots, by code address:");
+		IntStream.range(0, addressSamples.length).filter(addr -> addressSamples[addr] > 0).boxed()
+				.sorted(Comparator.comparingLong((Integer addr) -> addressSamples[addr]).reversed()).limit(limit)
+				.forEach(addr -> out.printf("%10d %6.2f%%  %d%s%n", addressSamples[addr],
+						100.0 * addressSamples[addr] / Math.max(1, samples), addr, program.sourceLines(addr)));
+		out.flush();
+	}
+
+	/**
+	 * Stops sampling.
+	 */
+	@Override
+	public void close() {
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
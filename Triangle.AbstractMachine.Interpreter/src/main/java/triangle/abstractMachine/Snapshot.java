@@ -0,0 +1,284 @@
+package triangle.abstractMachine;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A snapshot of the whole state of a TamMachine: its registers, the words in
+ * use in its data store, its heap's free blocks and counters, and the loaded
+ * program, from which it can be restored to run on, or be looked at offline
+ * by the SnapshotViewer.
+ *
+ * The file starts with a header:
+ *
+ * <pre>
+ *   magic         4 bytes   "TAMC"
+ *   version       2 bytes
+ *   flags         2 bytes   bit 0: display mode, bit 1: debug
+ * </pre>
+ *
+ * then, big-endian, the registers CT, HB, CP, ST, HT, LB and status, the
+ * character last read and the instructions executed; the program, as the
+ * decoded op, register, length and operand of each instruction; the heap's
+ * counters and free blocks; the display; the words from SB to ST and from HT
+ * to HB, which are all the words the program can use; and, if the debug flag
+ * is set, the program's DebugInfo sections.
+ *
+ * The words between ST and HT are not kept, and read as zero once restored.
+ * Nor is any input that the machine had read ahead but not yet used: a
+ * restored machine reads on from whatever input it is given.
+ */
+public final class Snapshot {
+
+	public final static int magic = 0x54414D43; // "TAMC"
+
+	public final static int version = 1;
+
+	private final static int displayFlag = 1, debugFlag = 2;
+
+	/** The program, as loaded. */
+	public final DecodedProgram program;
+
+	// the registers and other state
+	final int HB, CP, ST, HT, LB, status, currentChar, displayBase;
+
+	final long instructions;
+
+	final boolean displayMode;
+
+	final int[] display;
+
+	// the heap's counters and free blocks
+	final long allocations, disposals, wordsAllocated, reused;
+
+	final int liveWords, peakHeapWords;
+
+	final TreeMap<Integer, Integer> freeBlocks;
+
+	// the words from SB to ST, then from HT to HB
+	final int[] stack, heap;
+
+	private Snapshot(ByteBuffer buffer) throws IOException {
+		var fileVersion = buffer.getShort() & 0xffff;
+		if (fileVersion != version) {
+			throw new IOException("unsupported snapshot version " + fileVersion);
+		}
+		var flags = buffer.getShort() & 0xffff;
+		displayMode = (flags & displayFlag) != 0;
+
+		var CT = buffer.getInt();
+		HB = buffer.getInt();
+		CP = buffer.getInt();
+		ST = buffer.getInt();
+		HT = buffer.getInt();
+		LB = buffer.getInt();
+		status = buffer.getInt();
+		currentChar = buffer.getInt();
+		instructions = buffer.getLong();
+		if (CT < 0 || CT > Machine.PB || ST < TamMachine.SB || ST > HT || HT > HB || LB < TamMachine.SB
+				|| LB > ST) {
+			throw new IOException("invalid registers in snapshot");
+		}
+
+		int[] op = new int[CT], r = new int[CT], n = new int[CT], d = new int[CT];
+		for (var addr = Machine.CB; addr < CT; addr++) {
+			op[addr] = buffer.getInt();
+			r[addr] = buffer.getInt();
+			n[addr] = buffer.getInt();
+			d[addr] = buffer.getInt();
+			if (op[addr] < 0 || op[addr] >= Superinstructions.FIRSTop || r[addr] < 0
+					|| r[addr] >= Register.values().length) {
+				throw new IOException("invalid instruction in snapshot at code address " + addr);
+			}
+		}
+
+		allocations = buffer.getLong();
+		disposals = buffer.getLong();
+		wordsAllocated = buffer.getLong();
+		reused = buffer.getLong();
+		liveWords = buffer.getInt();
+		peakHeapWords = buffer.getInt();
+		freeBlocks = new TreeMap<>();
+		for (var count = buffer.getInt(); count > 0; count--) {
+			freeBlocks.put(buffer.getInt(), buffer.getInt());
+		}
+
+		displayBase = buffer.getInt();
+		var displayWords = buffer.getInt();
+		display = new int[Math.max(displayWords, 64 * TamMachine.displaySize)];
+		for (var i = 0; i < displayWords; i++) {
+			display[i] = buffer.getInt();
+		}
+		if (displayBase < 0 || displayBase + TamMachine.displaySize > display.length) {
+			throw new IOException("invalid display in snapshot");
+		}
+
+		stack = new int[ST - TamMachine.SB];
+		buffer.asIntBuffer().get(stack);
+		buffer.position(buffer.position() + stack.length * Integer.BYTES);
+		heap = new int[HB - HT];
+		buffer.asIntBuffer().get(heap);
+		buffer.position(buffer.position() + heap.length * Integer.BYTES);
+
+		var debugInfo = (flags & debugFlag) != 0 ? DebugInfo.read(buffer) : null;
+		program = DecodedProgram.restore(CT, op, r, n, d, debugInfo);
+	}
+
+	// READING
+
+	/**
+	 * Reads a snapshot.
+	 *
+	 * @throws IOException if the file cannot be read, or is not a valid
+	 *                     snapshot
+	 */
+	public static Snapshot read(Path path) throws IOException {
+		try (var channel = FileChannel.open(path)) {
+			var buffer = channel.map(READ_ONLY, 0, channel.size());
+			if (buffer.remaining() < 8 || buffer.getInt() != magic) {
+				throw new IOException("not a TAM snapshot");
+			}
+			return new Snapshot(buffer);
+		} catch (RuntimeException e) {
+			throw new IOException("invalid snapshot", e);
+		}
+	}
+
+	/** @return the size of the data store the machine had */
+	public int getDataStoreSize() {
+		return HB;
+	}
+
+	/** @return the status the machine had, as TamMachine.running etc. */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * Makes a machine in the state saved, ready to resume.
+	 *
+	 * @param data a data store of getDataStoreSize() words, which should be
+	 *             empty
+	 * @param io   the input and output of the restored machine
+	 * @throws IllegalArgumentException if the data store is the wrong size
+	 */
+	public TamMachine restore(DataStore data, TamIO io) {
+		return restore(program, data, io);
+	}
+
+	/**
+	 * Makes a machine in the state saved, ready to resume, running the given
+	 * program, which must be this program or one made from it, such as by
+	 * Superinstructions.fuse.
+	 */
+	TamMachine restore(DecodedProgram program, DataStore data, TamIO io) {
+		if (data.size() != HB) {
+			throw new IllegalArgumentException("data store must have " + HB + " words, not " + data.size());
+		}
+		var machine = new TamMachine(program, data, io);
+		machine.setDisplayMode(displayMode);
+		for (var i = 0; i < stack.length; i++) {
+			data.set(TamMachine.SB + i, stack[i]);
+		}
+		for (var i = 0; i < heap.length; i++) {
+			data.set(HT + i, heap[i]);
+		}
+		machine.restore(CP, ST, HT, LB, status, currentChar, instructions, display.clone(), displayBase);
+		machine.getHeap().restore(freeBlocks, allocations, disposals, wordsAllocated, reused, liveWords,
+				peakHeapWords);
+		return machine;
+	}
+
+	// WRITING
+
+	/**
+	 * Writes a snapshot of a machine that is stopped, or stopped between
+	 * instructions at a checkpoint. The file is written beside the named one,
+	 * then moved into its place, so that an earlier snapshot there is only
+	 * replaced by a whole one.
+	 *
+	 * @param program the program as loaded, without superinstructions, which
+	 *                the machine's program must be or have been made from
+	 */
+	public static void write(Path path, TamMachine machine, DecodedProgram program) throws IOException {
+		var temporary = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+		try {
+			try (var output = Files.newOutputStream(temporary)) {
+				write(output, machine, program);
+			}
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	private static void write(OutputStream output, TamMachine machine, DecodedProgram program) throws IOException {
+		var out = new DataOutputStream(new BufferedOutputStream(output, 1 << 16));
+		var debugInfo = program.getDebugInfo();
+		out.writeInt(magic);
+		out.writeShort(version);
+		out.writeShort((machine.displayMode ? displayFlag : 0) | (debugInfo != null ? debugFlag : 0));
+
+		out.writeInt(program.CT);
+		out.writeInt(machine.HB);
+		out.writeInt(machine.CP);
+		out.writeInt(machine.ST);
+		out.writeInt(machine.HT);
+		out.writeInt(machine.LB);
+		out.writeInt(machine.status);
+		out.writeInt(machine.currentChar);
+		out.writeLong(machine.getInstructionsExecuted());
+
+		for (var addr = Machine.CB; addr < program.CT; addr++) {
+			out.writeInt(program.op[addr]);
+			out.writeInt(program.r[addr]);
+			out.writeInt(program.n[addr]);
+			out.writeInt(program.d[addr]);
+		}
+
+		var heap = machine.getHeap();
+		out.writeLong(heap.getAllocations());
+		out.writeLong(heap.getDisposals());
+		out.writeLong(heap.getWordsAllocated());
+		out.writeLong(heap.getReusedAllocations());
+		out.writeInt(heap.getLiveWords());
+		out.writeInt(heap.getPeakHeapWords());
+		Map<Integer, Integer> free = heap.getFreeBlockMap();
+		out.writeInt(free.size());
+		for (var block : free.entrySet()) {
+			out.writeInt(block.getKey());
+			out.writeInt(block.getValue());
+		}
+
+		out.writeInt(machine.displayBase);
+		var displayWords = machine.displayMode ? machine.displayBase + TamMachine.displaySize : 0;
+		out.writeInt(displayWords);
+		for (var i = 0; i < displayWords; i++) {
+			out.writeInt(machine.display[i]);
+		}
+
+		var data = machine.data;
+		for (var addr = TamMachine.SB; addr < machine.ST; addr++) {
+			out.writeInt(data.get(addr));
+		}
+		for (var addr = machine.HT; addr < machine.HB; addr++) {
+			out.writeInt(data.get(addr));
+		}
+
+		if (debugInfo != null) {
+			debugInfo.write(out);
+		}
+		out.flush();
+	}
+}
@@ -0,0 +1,131 @@
+package triangle.abstractMachine;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * Displays a snapshot written by the Interpreter: its registers and status,
+ * the frames on the stack with the routines they belong to and, if the
+ * program was compiled with debug information, the values of their variables,
+ * and then the data store and registers as the Interpreter's dump shows them.
+ *
+ * For example:
+ *
+ * <pre>
+ *   java triangle.abstractMachine.SnapshotViewer tam.core
+ * </pre>
+ */
+public class SnapshotViewer {
+
+	static String snapshotName = Interpreter.defaultCoreName;
+
+	// the most words of a variable to show
+	final static int maxWords = 8;
+
+	static void showRegisters(Snapshot snapshot, TamMachine machine) {
+		var debugInfo = snapshot.program.getDebugInfo();
+		if (debugInfo != null) {
+			System.out.println("Source: " + debugInfo.getSourceName());
+		}
+		System.out.println("Instructions executed: " + machine.getInstructionsExecuted());
+		System.out.println("CP=" + machine.CP + snapshot.program.sourceLines(machine.CP) + "  ST=" + machine.ST
+				+ "  HT=" + machine.HT + "  LB=" + machine.LB + "  HB=" + machine.HB + "  CT=" + machine.CT
+				+ (machine.displayMode ? "  (display mode)" : ""));
+	}
+
+	static void showFrames(TamMachine machine) {
+		// Walks the dynamic links from LB down to the main program's frame,
+		// showing the routine running in each frame, the code address it is
+		// at, and its variables.
+
+		var program = machine.program;
+		var data = machine.data;
+		var debugInfo = program.getDebugInfo();
+		var CP = machine.CP;
+		var LB = machine.LB;
+
+		System.out.println();
+		System.out.println("Frames:");
+		while (LB > TamMachine.SB && LB + 2 < machine.ST) {
+			var routine = debugInfo != null ? debugInfo.getRoutineAt(CP) : null;
+			System.out.println("  " + (routine != null ? routine.name : "routine") + " at " + CP
+					+ program.sourceLines(CP) + ", LB=" + LB);
+			if (routine != null) {
+				showVariables(machine, routine.level, LB, CP);
+			}
+			var dynamicLink = data.get(LB + 1);
+			if (dynamicLink < TamMachine.SB || dynamicLink >= LB) {
+				System.out.println("  (invalid dynamic link " + dynamicLink + ")");
+				return;
+			}
+			CP = data.get(LB + 2) - 1; // the CALL
+			LB = dynamicLink;
+		}
+		System.out.println("  main at " + CP + program.sourceLines(CP) + ", SB=" + TamMachine.SB);
+		if (debugInfo != null) {
+			showVariables(machine, 0, TamMachine.SB, CP);
+		}
+	}
+
+	static void showVariables(TamMachine machine, int level, int base, int CP) {
+		// Shows the variables at the given level that are in scope at CP, with
+		// their values in the frame at base.
+
+		for (var variable : machine.program.getDebugInfo().getVariables()) {
+			if (variable.level != level || CP < variable.start || CP >= variable.getEnd()) {
+				continue;
+			}
+			var s = new StringBuilder("    " + variable.kind + " " + variable.name + " = ");
+			var first = base + variable.displacement;
+			for (var i = 0; i < Math.min(variable.size, maxWords); i++) {
+				var addr = first + i;
+				s.append(i == 0 ? "" : " ");
+				s.append(addr >= TamMachine.SB && addr < machine.ST ? machine.data.get(addr) : "?");
+			}
+			if (variable.size > maxWords) {
+				s.append(" ... (" + variable.size + " words)");
+			}
+			System.out.println(s);
+		}
+	}
+
+	// VIEWING
+
+	public static void main(String[] args) {
+		System.out.println("********** TAM Snapshot Viewer (Java Version 2.1) **********");
+
+		if (args.length == 1) {
+			snapshotName = args[0];
+		}
+
+		Snapshot snapshot;
+		try {
+			snapshot = Snapshot.read(Path.of(snapshotName));
+		} catch (NoSuchFileException s) {
+			System.err.println("Error opening snapshot: " + s);
+			return;
+		} catch (IOException s) {
+			System.err.println("Error reading snapshot: " + s);
+			return;
+		}
+
+		var io = TamIO.of(new ByteArrayInputStream(new byte[0]), System.out);
+		var machine = snapshot.restore(DataStore.onHeap(snapshot.getDataStoreSize()), io);
+		showRegisters(snapshot, machine);
+		showFrames(machine);
+		System.out.flush();
+		if (machine.getStatus() == TamMachine.running) {
+			io.println("");
+			io.println("Program was running.");
+			machine.dump();
+		} else if (machine.getStatus() == TamMachine.halted) {
+			io.println("");
+			io.println("Program had halted normally.");
+		} else {
+			machine.showStatus();
+		}
+		io.flush();
+	}
+}
@@ -0,0 +1,356 @@
+package triangle.abstractMachine;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Superinstructions: fixed sequences of instructions that the Interpreter
+ * executes in a single dispatch.
+ *
+ * Fusing is a loader pass over a DecodedProgram. It makes a copy in which
+ * the decoded operation of the first instruction in each matching sequence
+ * is replaced with the superinstruction, leaving the remaining instructions,
+ * and all operands, in place. The Interpreter reads each component's operands
+ * from its own code address, so code addresses do not change, and a sequence
+ * is only fused if no jump, call or return can arrive part way through it.
+ *
+ * The superinstructions to use come either from the default table, which
+ * tries the longest sequences first, or from a profile recorded by an
+ * earlier, unfused run of the program. The profile counts how often each
+ * candidate sequence was executed, and chooses the superinstructions, and
+ * the order in which to try them, that save the most dispatches, so a
+ * frequent sequence can take precedence over a longer one that overlaps it.
+ * A profile can only choose among the superinstructions here, as each has
+ * its own case in the Interpreter's dispatch loop; it cannot add sequences of
+ * its own.
+ */
+public final class Superinstructions {
+
+	// Kinds of component instruction
+
+	private final static int LOAD1 = 0, // LOAD (1) d[r]
+			LOADL = 1, // LOADL d
+			BINARY = 2, // CALL of a primitive that combines the two words on top of the stack
+			STORE1 = 3, // STORE (1) d[r]
+			JUMPIF = 4; // JUMPIF (n) d[CB]
+
+	// Superinstructions, numbered as decoded operations following the
+	// primitive routines
+
+	final static int FIRSTop = DecodedProgram.CALLPop + Machine.PT - Machine.PB;
+
+	final static int LOAD_LOAD_BINARY_STOREop = FIRSTop, LOAD_LOADL_BINARY_STOREop = FIRSTop + 1,
+			LOAD_LOAD_BINARY_JUMPIFop = FIRSTop + 2, LOAD_LOADL_BINARY_JUMPIFop = FIRSTop + 3,
+			LOAD_LOAD_BINARYop = FIRSTop + 4, LOAD_LOADL_BINARYop = FIRSTop + 5, LOAD_BINARYop = FIRSTop + 6,
+			LOADL_BINARYop = FIRSTop + 7, BINARY_STOREop = FIRSTop + 8, BINARY_JUMPIFop = FIRSTop + 9,
+			LOADL_STOREop = FIRSTop + 10, LOAD_STOREop = FIRSTop + 11;
+
+	final static int count = 12;
+
+	private final static String[] names = { "LOAD_LOAD_BINARY_STORE", "LOAD_LOADL_BINARY_STORE",
+			"LOAD_LOAD_BINARY_JUMPIF", "LOAD_LOADL_BINARY_JUMPIF", "LOAD_LOAD_BINARY", "LOAD_LOADL_BINARY",
+			"LOAD_BINARY", "LOADL_BINARY", "BINARY_STORE", "BINARY_JUMPIF", "LOADL_STORE", "LOAD_STORE" };
+
+	private final static int[][] sequences = { { LOAD1, LOAD1, BINARY, STORE1 }, { LOAD1, LOADL, BINARY, STORE1 },
+			{ LOAD1, LOAD1, BINARY, JUMPIF }, { LOAD1, LOADL, BINARY, JUMPIF }, { LOAD1, LOAD1, BINARY },
+			{ LOAD1, LOADL, BINARY }, { LOAD1, BINARY }, { LOADL, BINARY }, { BINARY, STORE1 }, { BINARY, JUMPIF },
+			{ LOADL, STORE1 }, { LOAD1, STORE1 } };
+
+	/**
+	 * The default table: every superinstruction, longest sequences first, so
+	 * that the shorter ones only pick up what the longer ones leave behind.
+	 */
+	public final static int[] defaultTable = { LOAD_LOAD_BINARY_STOREop, LOAD_LOADL_BINARY_STOREop,
+			LOAD_LOAD_BINARY_JUMPIFop, LOAD_LOADL_BINARY_JUMPIFop, LOAD_LOAD_BINARYop, LOAD_LOADL_BINARYop,
+			LOAD_BINARYop, LOADL_BINARYop, BINARY_STOREop, BINARY_JUMPIFop, LOADL_STOREop, LOAD_STOREop };
+
+	private Superinstructions() {
+	}
+
+	/** @return the number of instructions in a superinstruction's sequence */
+	static int length(int superOp) {
+		return sequences[superOp - FIRSTop].length;
+	}
+
+	static boolean isBinary(int op) {
+		switch (op - DecodedProgram.CALLPop) {
+		case Machine.andDisplacement:
+		case Machine.orDisplacement:
+		case Machine.addDisplacement:
+		case Machine.subDisplacement:
+		case Machine.multDisplacement:
+		case Machine.divDisplacement:
+		case Machine.modDisplacement:
+		case Machine.ltDisplacement:
+		case Machine.leDisplacement:
+		case Machine.geDisplacement:
+		case Machine.gtDisplacement:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static boolean isKind(DecodedProgram program, int addr, int kind) {
+		var op = program.op[addr];
+		switch (kind) {
+		case LOAD1:
+			return op == Machine.LOADop && program.n[addr] == 1;
+		case LOADL:
+			return op == Machine.LOADLop;
+		case BINARY:
+			return isBinary(op);
+		case STORE1:
+			return op == Machine.STOREop && program.n[addr] == 1;
+		case JUMPIF:
+			return op == Machine.JUMPIFop && program.r[addr] == Machine.CBr;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Finds the code addresses that control can reach other than by falling
+	 * through from the previous instruction.
+	 *
+	 * @return the entry points, or null if the program transfers control to
+	 *         addresses that cannot be known before it runs
+	 */
+	private static boolean[] entryPoints(DecodedProgram program) {
+		var CT = program.CT;
+		var entries = new boolean[CT + 1];
+		for (var addr = Machine.CB; addr < CT; addr++) {
+			var op = program.op[addr];
+			var r = program.r[addr];
+			var d = program.d[addr];
+			switch (op) {
+			case Machine.JUMPop:
+			case Machine.JUMPIFop:
+			case Machine.CALLop:
+				if (r != Machine.CBr) {
+					return null;
+				}
+				if (0 <= d && d < CT) {
+					entries[d] = true;
+				}
+				if (op == Machine.CALLop) {
+					entries[addr + 1] = true; // return address
+				}
+				break;
+			case Machine.CALLIop:
+				entries[addr + 1] = true; // return address
+				break;
+			case Machine.LOADAop:
+				// may be the code address in a closure
+				if (r == Machine.CBr && 0 <= d && d < CT) {
+					entries[d] = true;
+				}
+				break;
+			case Machine.JUMPIop:
+				return null;
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Makes a copy of the decoded program that uses the given superinstructions
+	 * wherever their sequences occur. At each address the superinstructions are tried in
+	 * the order given.
+	 *
+	 * @param original the program, which is left unchanged
+	 * @param table    the superinstructions to use
+	 * @return the program with superinstructions
+	 */
+	public static DecodedProgram fuse(DecodedProgram original, int[] table) {
+		var entries = entryPoints(original);
+		if (entries == null) {
+			return original;
+		}
+
+		var program = original.copyOperations();
+		var addr = Machine.CB;
+		while (addr < program.CT) {
+			var superOp = match(original, entries, addr, table);
+			if (superOp >= 0) {
+				program.op[addr] = superOp;
+				addr = addr + length(superOp);
+			} else {
+				addr = addr + 1;
+			}
+		}
+		return program;
+	}
+
+	/**
+	 * @return the first superinstruction in the table whose sequence starts at
+	 *         addr, or -1 if there is none
+	 */
+	private static int match(DecodedProgram program, boolean[] entries, int addr, int[] table) {
+		for (var superOp : table) {
+			if (matches(program, entries, addr, sequences[superOp - FIRSTop])) {
+				return superOp;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean matches(DecodedProgram program, boolean[] entries, int addr, int[] sequence) {
+		if (addr + sequence.length > program.CT) {
+			return false;
+		}
+		for (var i = 0; i < sequence.length; i++) {
+			if ((i > 0 && entries[addr + i]) || !isKind(program, addr + i, sequence[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// PROFILES
+
+	// A profile lists the superinstructions chosen for a program, one per line,
+	// in the order in which to try them, each followed by the number of
+	// dispatches it saved in the run that recorded the profile.
+
+	/**
+	 * Chooses the superinstructions to use for a program, and the order in
+	 * which to try them, from how often each of its instructions was executed
+	 * in an unfused run. They are chosen one at a time, each time taking the
+	 * one, and the place in the order to try it, that saves the most
+	 * dispatches in all, until no choice saves any more. A sequence that is
+	 * fused in place of the instructions it starts with saves a dispatch for
+	 * each instruction after the first, each time it is executed.
+	 *
+	 * @param program the program, unfused
+	 * @param profile the profile of a run of the program
+	 * @return the table of superinstructions to use, which is empty if no
+	 *         sequence was executed or the program cannot be fused
+	 */
+	static int[] chooseTable(DecodedProgram program, Profile profile) {
+		var entries = entryPoints(program);
+		var table = new int[0];
+		if (entries == null) {
+			return table;
+		}
+
+		var saved = 0L;
+		while (table.length < count) {
+			int[] best = null;
+			var bestSaved = saved;
+			for (var superOp = FIRSTop; superOp < FIRSTop + count; superOp++) {
+				if (contains(table, superOp)) {
+					continue;
+				}
+				for (var place = 0; place <= table.length; place++) {
+					var tried = new int[table.length + 1];
+					System.arraycopy(table, 0, tried, 0, place);
+					tried[place] = superOp;
+					System.arraycopy(table, place, tried, place + 1, table.length - place);
+					var triedSaved = Arrays.stream(savedDispatches(program, entries, tried, profile)).sum();
+					if (triedSaved > bestSaved) {
+						best = tried;
+						bestSaved = triedSaved;
+					}
+				}
+			}
+			if (best == null) {
+				break;
+			}
+			table = best;
+			saved = bestSaved;
+		}
+
+		// one chosen earlier may be left with nothing to fuse by those put
+		// before it later
+		var savedEach = savedDispatches(program, entries, table, profile);
+		return Arrays.stream(table).filter(superOp -> savedEach[superOp - FIRSTop] > 0).toArray();
+	}
+
+	private static boolean contains(int[] table, int superOp) {
+		return Arrays.stream(table).anyMatch(op -> op == superOp);
+	}
+
+	/**
+	 * Works out how many dispatches each superinstruction in the table would
+	 * have saved in the run the profile records, had the program been fused
+	 * with the table.
+	 *
+	 * @return the dispatches saved, indexed by superinstruction number
+	 *         (decoded operation - FIRSTop)
+	 */
+	private static long[] savedDispatches(DecodedProgram program, boolean[] entries, int[] table,
+			Profile profile) {
+		var saved = new long[count];
+		var addr = Machine.CB;
+		while (addr < program.CT) {
+			var superOp = match(program, entries, addr, table);
+			if (superOp >= 0) {
+				// no entry point inside the sequence, so each time its first
+				// instruction was executed, so was the rest of it
+				saved[superOp - FIRSTop] += profile.getAddressCount(addr) * (length(superOp) - 1);
+				addr = addr + length(superOp);
+			} else {
+				addr = addr + 1;
+			}
+		}
+		return saved;
+	}
+
+	/**
+	 * Reads a profile, giving the superinstructions it lists in the order it
+	 * lists them, leaving out any that saved no dispatches.
+	 *
+	 * @param profileName the name of the profile file
+	 * @return the table of superinstructions to use
+	 * @throws IOException if the profile cannot be read
+	 */
+	public static int[] readProfile(String profileName) throws IOException {
+		List<Integer> table = new ArrayList<>();
+		try (var reader = new BufferedReader(new FileReader(profileName))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				var fields = line.trim().split("\\s+");
+				if (fields.length != 2 || fields[0].startsWith("#")) {
+					continue;
+				}
+				var index = Arrays.asList(names).indexOf(fields[0]);
+				var saved = Long.parseLong(fields[1]);
+				if (index >= 0 && saved > 0 && !table.contains(FIRSTop + index)) {
+					table.add(FIRSTop + index);
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("badly formed profile " + profileName, e);
+		}
+		return table.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Writes a profile of the superinstructions chosen for a program from a
+	 * run of it.
+	 *
+	 * @param profileName the name of the profile file
+	 * @param program     the program, unfused
+	 * @param profile     the profile of an unfused run of the program
+	 * @throws IOException if the profile cannot be written
+	 */
+	public static void writeProfile(String profileName, DecodedProgram program, Profile profile)
+			throws IOException {
+		var table = chooseTable(program, profile);
+		var entries = entryPoints(program);
+		var saved = entries != null ? savedDispatches(program, entries, table, profile) : new long[count];
+
+		try (var writer = new PrintWriter(profileName)) {
+			writer.println("# TAM superinstruction profile: name, dispatches saved, in the order to try them");
+			for (var superOp : table) {
+				writer.println(names[superOp - FIRSTop] + " " + saved[superOp - FIRSTop]);
+			}
+		}
+	}
+}
@@ -0,0 +1,240 @@
+package triangle.abstractMachine;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * The input and output of a TAM machine: what the primitive routines get,
+ * geteol and getint read, and what put, puteol and putint, and the machine's
+ * status reports, write.
+ *
+ * Both directions are buffered over byte channels, so a program that writes
+ * one character at a time makes no system call, and takes no lock, for each
+ * one. Output is flushed when the program stops, however it stops, and before
+ * any read that has to wait for more input, so that a prompt is always seen
+ * before the program waits for the answer.
+ *
+ * As with System.out, characters are written in the console's encoding, and
+ * errors in writing output are not thrown but recorded, and can be found with
+ * checkError.
+ */
+public final class TamIO implements Flushable {
+
+	private final static int bufferSize = 8192;
+
+	private final ReadableByteChannel input;
+
+	private final WritableByteChannel output;
+
+	private final ByteBuffer inputBuffer = ByteBuffer.allocate(bufferSize).flip();
+
+	private final ByteBuffer outputBuffer = ByteBuffer.allocate(bufferSize);
+
+	private final Charset charset = consoleCharset();
+
+	private final String lineSeparator = System.lineSeparator();
+
+	private boolean prompting = true;
+
+	private boolean error;
+
+	// whether to emit flight recorder events for reads
+	private boolean recording;
+
+	// the time spent waiting to read or write, published for other threads
+	private volatile long waitNanos;
+
+	/**
+	 * Creates the input and output for a machine from the given channels,
+	 * which may be files, pipes or sockets. The channels are not closed by
+	 * TamIO.
+	 */
+	public TamIO(ReadableByteChannel input, WritableByteChannel output) {
+		this.input = input;
+		this.output = output;
+	}
+
+	/**
+	 * @return input and output on the process's standard input and output
+	 */
+	public static TamIO standard() {
+		return new TamIO(standardInput(), standardOutput());
+	}
+
+	private static Charset consoleCharset() {
+		var name = System.getProperty("stdout.encoding");
+		return name != null && Charset.isSupported(name) ? Charset.forName(name) : Charset.defaultCharset();
+	}
+
+	static ReadableByteChannel standardInput() {
+		return new FileInputStream(FileDescriptor.in).getChannel();
+	}
+
+	static WritableByteChannel standardOutput() {
+		return new FileOutputStream(FileDescriptor.out).getChannel();
+	}
+
+	/**
+	 * @return input and output on the given streams, such as a
+	 *         ByteArrayInputStream and ByteArrayOutputStream to run a program
+	 *         in memory
+	 */
+	public static TamIO of(InputStream in, OutputStream out) {
+		return new TamIO(Channels.newChannel(in), Channels.newChannel(out));
+	}
+
+	/**
+	 * Selects whether getint prompts with "enter int: " before it reads.
+	 */
+	public void setPrompting(boolean prompting) {
+		this.prompting = prompting;
+	}
+
+	public boolean isPrompting() {
+		return prompting;
+	}
+
+	void setRecording(boolean recording) {
+		this.recording = recording;
+	}
+
+	// INPUT
+
+	/**
+	 * Reads a byte of input, first flushing the output if it has to wait.
+	 *
+	 * @return the byte, or -1 at the end of the input
+	 */
+	public int read() throws IOException {
+		if (!inputBuffer.hasRemaining()) {
+			flush();
+			inputBuffer.clear();
+			var count = recording ? fillRecorded() : fill();
+			inputBuffer.flip();
+			if (count < 0) {
+				return -1;
+			}
+		}
+		return inputBuffer.get() & 0xff;
+	}
+
+	private int fill() throws IOException {
+		var start = System.nanoTime();
+		int count;
+		try {
+			do {
+				count = input.read(inputBuffer);
+			} while (count == 0);
+		} finally {
+			waitNanos = waitNanos + System.nanoTime() - start;
+		}
+		return count;
+	}
+
+	private int fillRecorded() throws IOException {
+		var event = new InputWaitEvent();
+		event.begin();
+		var count = fill();
+		event.bytes = count;
+		event.commit();
+		return count;
+	}
+
+	// OUTPUT
+
+	private void write(int b) {
+		if (!outputBuffer.hasRemaining()) {
+			flush();
+		}
+		outputBuffer.put((byte) b);
+	}
+
+	public void print(char c) {
+		if (c < 0x80) {
+			write(c);
+		} else {
+			print(String.valueOf(c));
+		}
+	}
+
+	public void print(String s) {
+		for (var i = 0; i < s.length(); i++) {
+			var c = s.charAt(i);
+			if (c >= 0x80) {
+				for (var b : s.substring(i).getBytes(charset)) {
+					write(b);
+				}
+				return;
+			}
+			write(c);
+		}
+	}
+
+	public void print(long l) {
+		print(Long.toString(l));
+	}
+
+	public void println() {
+		print(lineSeparator);
+	}
+
+	public void println(String s) {
+		print(s);
+		println();
+	}
+
+	/**
+	 * Writes out any buffered output. An error is recorded rather than thrown.
+	 */
+	@Override
+	public void flush() {
+		outputBuffer.flip();
+		if (outputBuffer.hasRemaining()) {
+			var start = System.nanoTime();
+			try {
+				while (outputBuffer.hasRemaining()) {
+					output.write(outputBuffer);
+				}
+			} catch (IOException e) {
+				error = true;
+			}
+			waitNanos = waitNanos + System.nanoTime() - start;
+		}
+		outputBuffer.clear();
+	}
+
+	/**
+	 * @return whether writing output has failed, without flushing
+	 */
+	boolean hasError() {
+		return error;
+	}
+
+	/**
+	 * @return the time spent waiting for input to be read, and for output to
+	 *         be written, in nanoseconds
+	 */
+	public long getWaitNanos() {
+		return waitNanos;
+	}
+
+	/**
+	 * Flushes the output.
+	 *
+	 * @return whether writing output has ever failed
+	 */
+	public boolean checkError() {
+		flush();
+		return error;
+	}
+}
@@ -0,0 +1,1950 @@
+/*
+ * @(#)TamMachine.java
+ * 
+ * Revisions and updates (c) 2022-2025 Sandy Brownlee. alexander.brownlee@stir.ac.uk
+ * 
+ * Original release:
+ *
+ * Copyright (C) 1999, 2003 D.A. Watt and D.F. Brown
+ * Dept. of Computing Science, University of Glasgow, Glasgow G12 8QQ Scotland
+ * and School of Computer and Math Sciences, The Robert Gordon University,
+ * St. Andrew Street, Aberdeen AB25 1HG, Scotland.
+ * All rights reserved.
+ *
+ * This software is provided free for educational use only. It may
+ * not be used for commercial purposes without the prior written permission
+ * of the authors.
+ */
+
+package triangle.abstractMachine;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A TAM machine: a data store and registers, with its own input and output,
+ * running a loaded program.
+ *
+ * A DecodedProgram is never changed once it is loaded, so any number of
+ * machines can run the same program at the same time, each on its own
+ * thread. For example, to run a program against many inputs in one JVM:
+ *
+ * <pre>
+ * var program = DecodedProgram.load("obj.tam");
+ * try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+ * 	for (var input : inputs) {
+ * 		executor.submit(() -&gt; new TamMachine(program, TamIO.of(input.in(), input.out())).run());
+ * 	}
+ * }
+ * </pre>
+ */
+public final class TamMachine {
+
+	// DATA STORE
+
+	final DataStore data;
+
+	// DATA STORE REGISTERS AND OTHER REGISTERS
+
+	final static int CB = 0, SB = 0;
+
+	final int HB; // = size of data store
+
+	final int CT;
+
+	int CP, ST, HT, LB, status;
+
+	// HEAP
+
+	private final Heap heap = new Heap(this);
+
+	// CODE STORE, AS DECODED AT LOAD TIME
+
+	final DecodedProgram program;
+
+	// whether to run a verified program by the checked loop all the same
+	private boolean alwaysChecked;
+
+	// INPUT AND OUTPUT
+
+	private final TamIO io;
+
+	// status values
+	public final static int running = 0, halted = 1, failedDataStoreFull = 2, failedInvalidCodeAddress = 3,
+			failedInvalidInstruction = 4, failedOverflow = 5, failedZeroDivide = 6, failedIOError = 7,
+			waitingForInput = 8;
+
+	long accumulator;
+
+	long startTimeNanos;
+
+	// whether a flight recording was running when the machine was last
+	// started, and so whether to emit its events
+	boolean recording;
+
+	// TIERED COMPILATION
+
+	// the compiler for the second tier, or null to interpret only
+	private JvmCompiler jvmCompiler;
+
+	// PROFILING
+
+	private boolean profiling;
+
+	// the profile of the latest run, or null if not profiling
+	private Profile profile;
+
+	// METRICS
+
+	// the instructions interpreted between publications of the counters
+	final static int metricsBatch = 1 << 14;
+
+	// the instructions left to interpret before the counters are next
+	// published
+	private int metricsCountdown;
+
+	// the highest ST found at a call
+	private int peakST;
+
+	// the counters as last published, for other threads to read
+	private volatile long instructionsExecuted;
+
+	private volatile int peakStackDepth;
+
+	// CHECKPOINTS
+
+	// called between instructions when a checkpoint is due, or null
+	private Consumer<TamMachine> checkpointHook;
+
+	// the instructions between checkpoints, or 0 for none but those asked for
+	private long checkpointInterval;
+
+	private long nextCheckpoint;
+
+	private volatile boolean checkpointRequested;
+
+	// FORKING
+
+	// whether to stop before the first primitive that reads input
+	private boolean stoppingForInput;
+
+	/**
+	 * Creates a machine with a data store of the default size.
+	 *
+	 * @param program the program, which may be shared with other machines
+	 * @param io      the input and output of the primitives, also written by
+	 *                showStatus and dump
+	 */
+	public TamMachine(DecodedProgram program, TamIO io) {
+		this(program, DataStore.onHeap(DataStore.defaultSize), io);
+	}
+
+	/**
+	 * Creates a machine to run the given program.
+	 *
+	 * @param program the program, which may be shared with other machines
+	 * @param data    the data store, whose size sets HB
+	 * @param io      the input and output of the primitives, also written by
+	 *                showStatus and dump
+	 */
+	public TamMachine(DecodedProgram program, DataStore data, TamIO io) {
+		this.program = program;
+		this.data = data;
+		this.io = io;
+		CT = program.CT;
+		HB = data.size();
+	}
+
+	/**
+	 * Selects whether the pseudo-registers L1..L6 are held in a display rather
+	 * than found by following static links.
+	 */
+	public void setDisplayMode(boolean displayMode) {
+		this.displayMode = displayMode;
+	}
+
+	/**
+	 * Selects whether to run the program by the checked loop even if it has
+	 * been verified, checking the stack space before every push and CP after
+	 * every instruction.
+	 */
+	public void setAlwaysChecked(boolean alwaysChecked) {
+		this.alwaysChecked = alwaysChecked;
+	}
+
+	/**
+	 * Sets the compiler that compiles hot code in the program. The compiler
+	 * may be shared with other machines running the same program in the same
+	 * display mode.
+	 */
+	public void setCompiler(JvmCompiler jvmCompiler) {
+		if (jvmCompiler != null && jvmCompiler.isDisplayMode() != displayMode) {
+			throw new IllegalArgumentException("compiler is for a different display mode");
+		}
+		this.jvmCompiler = jvmCompiler;
+	}
+
+	/**
+	 * Selects whether to profile the program. A profiled program is run by a
+	 * loop of its own, which counts every instruction, so compiled code is
+	 * not used.
+	 *
+	 * @throws IllegalArgumentException if the program has superinstructions
+	 */
+	public void setProfiling(boolean profiling) {
+		if (profiling) {
+			for (var addr = CB; addr < CT; addr++) {
+				if (program.op[addr] >= Superinstructions.FIRSTop) {
+					throw new IllegalArgumentException("cannot profile a program with superinstructions");
+				}
+			}
+		}
+		this.profiling = profiling;
+	}
+
+	/**
+	 * @return the profile of the latest run, or null if it was not profiled
+	 */
+	public Profile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * @return the heap, whose counters show how the program has used it
+	 */
+	public Heap getHeap() {
+		return heap;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the number of instructions interpreted in the latest run, as
+	 *         last published, which the machine does every few thousand
+	 *         instructions while it runs, and when it stops. A superinstruction
+	 *         counts as one, and instructions run as compiled code are not
+	 *         counted.
+	 */
+	public long getInstructionsExecuted() {
+		return instructionsExecuted;
+	}
+
+	/**
+	 * @return the greatest number of words on the stack at a call, or when the
+	 *         counters were published, in the latest run
+	 */
+	public int getPeakStackDepth() {
+		return peakStackDepth;
+	}
+
+	TamIO getIO() {
+		return io;
+	}
+
+	/**
+	 * Sets what to do to take a checkpoint, such as writing a Snapshot, which
+	 * the machine does between instructions, on its own thread, whenever one
+	 * is asked for by requestCheckpoint, and every so many instructions.
+	 * Checkpoints are taken when the machine publishes its counters, so they
+	 * may come up to a few thousand instructions late, and not at all while it
+	 * runs compiled code.
+	 *
+	 * @param hook     what to do, or null to take no checkpoints
+	 * @param interval the instructions between checkpoints, or 0 for none but
+	 *                 those asked for
+	 */
+	public void setCheckpointHook(Consumer<TamMachine> hook, long interval) {
+		checkpointHook = hook;
+		checkpointInterval = interval;
+	}
+
+	/** @return whether a checkpoint hook has been set */
+	public boolean hasCheckpointHook() {
+		return checkpointHook != null;
+	}
+
+	/**
+	 * Asks for a checkpoint to be taken as soon as the machine can. May be
+	 * called from any thread.
+	 */
+	public void requestCheckpoint() {
+		checkpointRequested = true;
+	}
+
+	/**
+	 * Runs the program from the start, on a fresh stack and heap. The output is
+	 * flushed once the program stops, whether it halts or fails.
+	 *
+	 * @return the status once the program has stopped
+	 */
+	public int run() {
+		return execute(this::interpretProgram);
+	}
+
+	/**
+	 * Runs the program on from where it was stopped, as restored from a
+	 * Snapshot, by the checked loop. The output is flushed once the program
+	 * stops.
+	 *
+	 * @return the status once the program has stopped
+	 */
+	public int resume() {
+		return execute(this::resumeProgram);
+	}
+
+	/**
+	 * Runs the program from the start until it is about to read input, by
+	 * GET, GETEOL or GETINT, and stops it there, waiting for input, so that
+	 * it can be forked. Output written before then is flushed.
+	 *
+	 * @return whether the program is waiting for input, rather than having
+	 *         halted or failed first
+	 */
+	public boolean runToInput() {
+		stoppingForInput = true;
+		try {
+			run();
+		} finally {
+			stoppingForInput = false;
+		}
+		if (status != waitingForInput) {
+			return false;
+		}
+		CP = CP - 1; // the loops and compiled code step past the CALL
+		return true;
+	}
+
+	/**
+	 * Makes a copy of a machine left waiting for input by runToInput, ready to
+	 * resume from there with the given input and output. The copy shares this
+	 * machine's program and compiler, and its data store copy-on-write, so a
+	 * fork costs little more than the pages it writes. A machine may be
+	 * forked many times, and its forks run on different threads, but it must
+	 * not itself be run again while they are in use.
+	 *
+	 * @throws IllegalStateException if the machine is not waiting for input
+	 */
+	public TamMachine fork(TamIO io) {
+		if (status != waitingForInput) {
+			throw new IllegalStateException("machine is not waiting for input");
+		}
+		var copy = new TamMachine(program, DataStore.copyOnWrite(data), io);
+		copy.displayMode = displayMode;
+		copy.alwaysChecked = alwaysChecked;
+		copy.jvmCompiler = jvmCompiler;
+		copy.restore(CP, ST, HT, LB, running, currentChar, instructionsExecuted, display.clone(), displayBase);
+		copy.heap.restore(heap.getFreeBlockMap(), heap.getAllocations(), heap.getDisposals(),
+				heap.getWordsAllocated(), heap.getReusedAllocations(), heap.getLiveWords(), heap.getPeakHeapWords());
+		return copy;
+	}
+
+	private int execute(Runnable interpreter) {
+		startTimeNanos = System.nanoTime();
+		recording = FlightRecording.isActive();
+		io.setRecording(recording);
+		var sampling = recording ? FlightRecording.watch(this) : null;
+		try {
+			interpreter.run();
+		} finally {
+			FlightRecording.unwatch(sampling);
+			io.flush();
+		}
+		if (status == halted && io.hasError()) {
+			status = failedIOError;
+		}
+		return status;
+	}
+
+	void enterCompiledCode(boolean count) {
+		// Runs the compiled code for the instruction at CP, if there is any.
+		// Otherwise, if count is set, counts another arrival at CP towards
+		// compiling it.
+
+		if (CP < CB || CP >= CT) {
+			return; // left for the interpreter loop to fail
+		}
+		var code = jvmCompiler.compiledCodeAt(CP);
+		if (code != null) {
+			code.run(this, CP);
+		} else if (count) {
+			jvmCompiler.countArrival(CP);
+		}
+	}
+
+	int content(int r) {
+		// Returns the current content of register r,
+		// even if r is one of the pseudo-registers L1..L6.
+
+		switch (r) {
+		case Machine.CBr:
+			return CB;
+		case Machine.CTr:
+			return CT;
+		case Machine.PBr:
+			return Machine.PB;
+		case Machine.PTr:
+			return Machine.PT;
+		case Machine.SBr:
+			return SB;
+		case Machine.STr:
+			return ST;
+		case Machine.HBr:
+			return HB;
+		case Machine.HTr:
+			return HT;
+		case Machine.LBr:
+			return LB;
+		case Machine.CPr:
+			return CP;
+		default:
+			return nonLocalBase(r - Machine.LBr);
+		}
+	}
+
+	int nonLocalBase(int levels) {
+		// Returns the content of the pseudo-register L1..L6 the given number
+		// of static levels out from LB.
+
+		if (displayMode) {
+			return display[displayBase + levels];
+		}
+		var base = LB;
+		for (var level = 0; level < levels; level++) {
+			base = data.get(base);
+		}
+		return base;
+	}
+
+	// DISPLAY REGISTERS
+
+	// In display mode the pseudo-registers L1..L6 are not found by following
+	// static links on every access. Instead the display of each active frame
+	// (its LB, then L1..L6) is held in display[displayBase .. displayBase + 6].
+	// A frame's display is worked out once, when it is entered by CALL or
+	// CALLI, mostly by reusing the caller's display, and dropped by RETURN.
+	// Beyond the end of the static chain the pseudo-registers read as SB.
+
+	final static int displaySize = 7;
+
+	boolean displayMode;
+
+	int[] display = new int[64 * displaySize];
+
+	int displayBase;
+
+	void enterDisplay(int staticLinkRegister) {
+		// Works out the display of the frame just entered at LB, whose static
+		// link was taken from the given register, or from a closure if
+		// staticLinkRegister is not one of LB, L1..L6.
+
+		var callerBase = displayBase;
+		var base = callerBase + displaySize;
+		if (base + displaySize > display.length) {
+			display = Arrays.copyOf(display, 2 * display.length);
+		}
+
+		display[base] = LB;
+		var level = 1;
+		if (Machine.LBr <= staticLinkRegister && staticLinkRegister <= Machine.L6r) {
+			// the new frame's static chain continues the caller's from that register
+			for (var i = staticLinkRegister - Machine.LBr; i < displaySize && level < displaySize; i++) {
+				display[base + level++] = display[callerBase + i];
+			}
+		} else {
+			display[base + level++] = data.get(LB);
+		}
+		for (; level < displaySize; level++) {
+			var staticLink = display[base + level - 1];
+			display[base + level] = (SB < staticLink && staticLink < HB) ? data.get(staticLink) : SB;
+		}
+		displayBase = base;
+	}
+
+	void leaveDisplay() {
+		if (displayBase > 0) {
+			displayBase = displayBase - displaySize;
+		}
+	}
+
+	// PROGRAM STATUS
+
+	public void dump() {
+		// Writes a summary of the machine state.
+
+		io.println("");
+		io.println("State of data store and registers:");
+		io.println("");
+		if (HT == HB) {
+			io.println("            |--------|          (heap is empty)");
+		} else {
+			io.println("       HB-->");
+			io.println("            |--------|");
+			for (var addr = HB - 1; addr >= HT; addr--) {
+				io.print(addr + ":");
+				if (addr == HT) {
+					io.print(" HT-->");
+				} else {
+					io.print("      ");
+				}
+				io.println("|" + data.get(addr) + "|");
+			}
+			io.println("            |--------|");
+		}
+		io.println("            |////////|");
+		io.println("            |////////|");
+		if (ST == SB) {
+			io.println("            |--------|          (stack is empty)");
+		} else {
+			var dynamicLink = LB;
+			var staticLink = LB;
+			var localRegNum = Register.LB;
+			io.println("      ST--> |////////|");
+			io.println("            |--------|");
+			for (var addr = ST - 1; addr >= SB; addr--) {
+				io.print(addr + ":");
+				if (addr == SB) {
+					io.print(" SB-->");
+				} else if (addr == staticLink) {
+					switch (localRegNum) {
+					case LB:
+						io.print(" LB-->");
+						break;
+					case L1:
+						io.print(" L1-->");
+						break;
+					case L2:
+						io.print(" L2-->");
+						break;
+					case L3:
+						io.print(" L3-->");
+						break;
+					case L4:
+						io.print(" L4-->");
+						break;
+					case L5:
+						io.print(" L5-->");
+						break;
+					case L6:
+						io.print(" L6-->");
+						break;
+					default:
+						break;
+					}
+					staticLink = data.get(addr);
+					localRegNum = Register.values()[localRegNum.ordinal() + 1];
+				} else {
+					io.print("      ");
+				}
+				if (addr == dynamicLink && dynamicLink != SB) {
+					io.print("|SL=" + data.get(addr) + "|");
+				} else if (addr == dynamicLink + 1 && dynamicLink != SB) {
+					io.print("|DL=" + data.get(addr) + "|");
+				} else if (addr == dynamicLink + 2 && dynamicLink != SB) {
+					io.print("|RA=" + data.get(addr) + "|");
+				} else {
+					io.print("|" + data.get(addr) + "|");
+				}
+				io.println("");
+				if (addr == dynamicLink) {
+					io.println("            |--------|");
+					dynamicLink = data.get(addr + 1);
+				}
+			}
+		}
+		io.println("");
+	}
+
+	public void showStatus() {
+		// Writes an indication of whether and why the program has terminated.
+		io.println("");
+		switch (status) {
+		case running:
+			io.println("Program is running.");
+			break;
+		case halted:
+			io.println("Program has halted normally.");
+			io.println("Total execution time (ns): " + (System.nanoTime() - startTimeNanos));
+			break;
+		case failedDataStoreFull:
+			io.println("Program has failed due to exhaustion of Data Store.");
+			break;
+		case failedInvalidCodeAddress:
+			io.println("Program has failed due to an invalid code address.");
+			break;
+		case failedInvalidInstruction:
+			io.println("Program has failed due to an invalid instruction.");
+			break;
+		case failedOverflow:
+			io.println("Program has failed due to overflow.");
+			break;
+		case failedZeroDivide:
+			io.println("Program has failed due to division by zero.");
+			break;
+		case failedIOError:
+			io.println("Program has failed due to an IO error.");
+			break;
+		case waitingForInput:
+			io.println("Program is waiting for input.");
+			break;
+		}
+		if (status != halted) {
+			dump();
+		}
+		io.flush();
+	}
+
+	// INTERPRETATION
+
+	boolean checkSpace(int spaceNeeded) {
+		// Signals failure, and returns false, if there is not enough space to
+		// expand the stack or heap by spaceNeeded.
+
+		if (HT - ST < spaceNeeded) {
+			status = failedDataStoreFull;
+			return false;
+		}
+		return true;
+	}
+
+	static boolean isTrue(int datum) {
+		// Tests whether the given datum represents true.
+		return (datum == Machine.trueRep);
+	}
+
+	boolean equal(int size, int addr1, int addr2) {
+		// Tests whether two multi-word objects are equal, given their common
+		// size and their base addresses.
+
+		boolean eq;
+		int index;
+
+		eq = true;
+		index = 0;
+		while (eq && (index < size)) {
+			if (data.get(addr1 + index) == data.get(addr2 + index)) {
+				index = index + 1;
+			} else {
+				eq = false;
+			}
+		}
+
+		return eq;
+	}
+
+	int overflowChecked(long datum) {
+		// Signals failure if the datum is too large to fit into a single word,
+		// otherwise returns the datum as a single word.
+
+		if ((-Machine.maxintRep <= datum) && (datum <= Machine.maxintRep)) {
+			return (int) datum;
+		} else {
+			status = failedOverflow;
+			return 0;
+		}
+	}
+
+	static int toInt(boolean b) {
+		return b ? Machine.trueRep : Machine.falseRep;
+	}
+
+	int currentChar;
+
+	int readInt() throws java.io.IOException {
+		int temp = 0;
+		int sign = 1;
+
+		do {
+			currentChar = io.read();
+		} while (Character.isWhitespace((char) currentChar));
+
+		if ((currentChar == '-') || (currentChar == '+')) {
+			do {
+				sign = (currentChar == '-') ? -1 : 1;
+				currentChar = io.read();
+			} while ((currentChar == '-') || currentChar == '+');
+		}
+
+		if (Character.isDigit((char) currentChar)) {
+			do {
+				temp = temp * 10 + (currentChar - '0');
+				currentChar = io.read();
+			} while (Character.isDigit((char) currentChar));
+		}
+
+		return sign * temp;
+	}
+
+	int binaryPrimitive(int primitiveDisplacement, int left, int right) {
+		// Returns the result of one of the primitive routines that combine two
+		// words into one. If the routine fails, sets status and returns the
+		// left operand unchanged.
+
+		switch (primitiveDisplacement) {
+		case Machine.andDisplacement:
+			return toInt(isTrue(left) & isTrue(right));
+		case Machine.orDisplacement:
+			return toInt(isTrue(left) | isTrue(right));
+		case Machine.addDisplacement:
+			accumulator = left;
+			return overflowChecked(accumulator + right);
+		case Machine.subDisplacement:
+			accumulator = left;
+			return overflowChecked(accumulator - right);
+		case Machine.multDisplacement:
+			accumulator = left;
+			return overflowChecked(accumulator * right);
+		case Machine.divDisplacement:
+			accumulator = left;
+			if (right != 0) {
+				return (int) (accumulator / right);
+			}
+			status = failedZeroDivide;
+			return left;
+		case Machine.modDisplacement:
+			accumulator = left;
+			if (right != 0) {
+				return (int) (accumulator % right);
+			}
+			status = failedZeroDivide;
+			return left;
+		case Machine.ltDisplacement:
+			return toInt(left < right);
+		case Machine.leDisplacement:
+			return toInt(left <= right);
+		case Machine.geDisplacement:
+			return toInt(left >= right);
+		case Machine.gtDisplacement:
+			return toInt(left > right);
+		default:
+			return left;
+		}
+	}
+
+	void systemPrimitive(int primitiveDisplacement) {
+		// Invokes one of the primitive routines that do input-output or use
+		// the heap. Compiled code calls this too, having stored ST.
+
+		int addr, size;
+		char ch;
+
+		if (stoppingForInput && (primitiveDisplacement == Machine.getDisplacement
+				|| primitiveDisplacement == Machine.geteolDisplacement
+				|| primitiveDisplacement == Machine.getintDisplacement)) {
+			status = waitingForInput; // before anything is changed, to be run again
+			return;
+		}
+
+		switch (primitiveDisplacement) {
+		case Machine.getDisplacement:
+			ST = ST - 1;
+			addr = data.get(ST);
+			try {
+				currentChar = io.read();
+			} catch (java.io.IOException s) {
+				status = failedIOError;
+			}
+			data.set(addr, currentChar);
+			break;
+		case Machine.putDisplacement:
+			ST = ST - 1;
+			ch = (char) data.get(ST);
+			io.print(ch);
+			if (io.hasError()) {
+				status = failedIOError;
+			}
+			break;
+		case Machine.geteolDisplacement:
+			try {
+				while ((currentChar = io.read()) != '\n' && currentChar != -1)
+					;
+			} catch (java.io.IOException s) {
+				status = failedIOError;
+			}
+			break;
+		case Machine.puteolDisplacement:
+			io.println();
+			if (io.hasError()) {
+				status = failedIOError;
+			}
+			break;
+		case Machine.getintDisplacement:
+			if (io.isPrompting()) {
+				io.println("enter int: ");
+			}
+			ST = ST - 1;
+			addr = data.get(ST);
+			try {
+				accumulator = readInt();
+			} catch (java.io.IOException s) {
+				status = failedIOError;
+			}
+			data.set(addr, (int) accumulator);
+			break;
+		case Machine.putintDisplacement:
+			ST = ST - 1;
+			accumulator = data.get(ST);
+			io.print(accumulator);
+			if (io.hasError()) {
+				status = failedIOError;
+			}
+			break;
+		case Machine.newDisplacement:
+			size = data.get(ST - 1);
+			addr = heap.allocate(size);
+			if (addr < 0) {
+				break;
+			}
+			data.set(ST - 1, addr);
+			break;
+		case Machine.disposeDisplacement:
+			ST = ST - 2;
+			heap.dispose(data.get(ST + 1), data.get(ST));
+			break;
+		}
+	}
+
+	void interpretProgram() {
+		// Runs the program in code store: by the profiling loop if profiling,
+		// or else by the unchecked loop for as long as it can, if the program
+		// has been verified, then by the checked loop.
+
+		// Initialize registers ...
+		ST = SB;
+		HT = HB;
+		heap.reset();
+		LB = SB;
+		CP = CB;
+		status = running;
+		displayBase = 0;
+		Arrays.fill(display, 0, displaySize, SB);
+
+		metricsCountdown = metricsBatch;
+		peakST = SB;
+		instructionsExecuted = 0;
+		peakStackDepth = 0;
+		nextCheckpoint = checkpointInterval;
+
+		if (profiling) {
+			profile = new Profile(program);
+			interpretProfiled();
+		} else {
+			if (program.frameDepth != null && !alwaysChecked && HT - ST >= program.frameDepth[CB]) {
+				interpretVerified();
+			}
+			if (status == running) {
+				interpretChecked();
+			}
+		}
+		publishMetrics();
+	}
+
+	void resumeProgram() {
+		// Runs the program on from the restored registers. The Verifier's
+		// guarantees only hold for a run from the start, so the checked loop
+		// is used throughout.
+
+		metricsCountdown = metricsBatch;
+		peakST = ST;
+		nextCheckpoint = instructionsExecuted + checkpointInterval;
+
+		if (profiling) {
+			profile = new Profile(program);
+			interpretProfiled();
+		} else if (status == running) {
+			interpretChecked();
+		}
+		publishMetrics();
+	}
+
+	/**
+	 * Sets the registers, as restored from a Snapshot, before resume.
+	 */
+	void restore(int CP, int ST, int HT, int LB, int status, int currentChar, long instructions, int[] display,
+			int displayBase) {
+		this.CP = CP;
+		this.ST = ST;
+		this.HT = HT;
+		this.LB = LB;
+		this.status = status;
+		this.currentChar = currentChar;
+		this.instructionsExecuted = instructions;
+		this.display = display;
+		this.displayBase = displayBase;
+	}
+
+	private void publishMetrics() {
+		// Adds the instructions interpreted since the counters were last
+		// published, which the loops count down in a plain field, to the
+		// published count. Only this thread writes the published counters, so
+		// a volatile write every metricsBatch instructions is all it takes for
+		// other threads to see them.
+
+		instructionsExecuted = instructionsExecuted + metricsBatch - metricsCountdown;
+		metricsCountdown = metricsBatch;
+		peakST = Math.max(peakST, ST);
+		peakStackDepth = peakST - SB;
+
+		if (checkpointHook != null && status == running
+				&& (checkpointRequested || checkpointInterval > 0 && instructionsExecuted >= nextCheckpoint)) {
+			checkpointRequested = false;
+			nextCheckpoint = instructionsExecuted + checkpointInterval;
+			io.flush();
+			checkpointHook.accept(this);
+		}
+	}
+
+	void interpretVerified() {
+		// Runs a verified program without checking the stack space before each
+		// push, or CP after each instruction. The Verifier has checked every
+		// code address except the return addresses, and the space for a
+		// routine's whole frame is checked as it is called. Allocating on the
+		// heap keeps enough space for the deepest frame of any routine above
+		// ST, so that no frame already entered can reach the heap.
+		//
+		// Returns while the program is still running if a check fails, leaving
+		// the instruction at CP to the checked loop, which fails only when the
+		// stack or heap is really full.
+
+		final var op = program.op;
+		final var reg = program.r;
+		final var len = program.n;
+		final var opd = program.d;
+		final var frameDepth = program.frameDepth;
+		final var reserve = program.maxFrameDepth;
+		final var data = this.data;
+
+		do {
+			if (--metricsCountdown == 0) {
+				publishMetrics();
+			}
+
+			// Fetch and decode instruction ...
+			var o = op[CP];
+			var r = reg[CP];
+			var n = len[CP];
+			var d = opd[CP];
+			int addr, size;
+
+			// Execute instruction ...
+			switch (o) {
+			case Machine.LOADop:
+				addr = d + content(r);
+				for (var index = 0; index < n; index++) {
+					data.set(ST + index, data.get(addr + index));
+				}
+				ST = ST + n;
+				CP = CP + 1;
+				break;
+			case Machine.LOADAop:
+				data.set(ST, d + content(r));
+				ST = ST + 1;
+				CP = CP + 1;
+				break;
+			case Machine.LOADIop:
+				ST = ST - 1;
+				addr = data.get(ST);
+				for (var index = 0; index < n; index++) {
+					data.set(ST + index, data.get(addr + index));
+				}
+				ST = ST + n;
+				CP = CP + 1;
+				break;
+			case Machine.LOADLop:
+				data.set(ST, d);
+				ST = ST + 1;
+				CP = CP + 1;
+				break;
+			case Machine.STOREop:
+				addr = d + content(r);
+				ST = ST - n;
+				for (var index = 0; index < n; index++) {
+					data.set(addr + index, data.get(ST + index));
+				}
+				CP = CP + 1;
+				break;
+			case Machine.STOREIop:
+				ST = ST - 1;
+				addr = data.get(ST);
+				ST = ST - n;
+				for (var index = 0; index < n; index++) {
+					data.set(addr + index, data.get(ST + index));
+				}
+				CP = CP + 1;
+				break;
+			case Machine.CALLop:
+				// the Verifier has checked that d is a routine in code store
+				if (HT - ST < 3 + frameDepth[d]) {
+					return;
+				}
+				data.set(ST, content(n)); // static link
+				data.set(ST + 1, LB); // dynamic link
+				data.set(ST + 2, CP + 1); // return address
+				LB = ST;
+				ST = ST + 3;
+				if (ST > peakST) {
+					peakST = ST;
+				}
+				CP = d;
+				if (displayMode) {
+					enterDisplay(n);
+				}
+				if (jvmCompiler != null) {
+					enterCompiledCode(true);
+					if (HT - ST < reserve) {
+						return;
+					}
+				}
+				break;
+			case Machine.RETURNop:
+				addr = LB - d;
+				CP = data.get(LB + 2);
+				LB = data.get(LB + 1);
+				if (displayMode) {
+					leaveDisplay();
+				}
+				ST = ST - n;
+				for (var index = 0; index < n; index++) {
+					data.set(addr + index, data.get(ST + index));
+				}
+				ST = addr + n;
+				if (CP < CB || CP >= CT) {
+					status = failedInvalidCodeAddress;
+					break;
+				}
+				if (jvmCompiler != null) {
+					enterCompiledCode(false);
+					if (HT - ST < reserve) {
+						return;
+					}
+				}
+				break;
+			case Machine.PUSHop:
+				ST = ST + d;
+				CP = CP + 1;
+				break;
+			case Machine.POPop:
+				addr = ST - n - d;
+				ST = ST - n;
+				for (var index = 0; index < n; index++) {
+					data.set(addr + index, data.get(ST + index));
+				}
+				ST = addr + n;
+				CP = CP + 1;
+				break;
+			case Machine.JUMPop:
+				addr = CP;
+				CP = d;
+				if (jvmCompiler != null && CP <= addr) {
+					enterCompiledCode(true);
+					if (HT - ST < reserve) {
+						return;
+					}
+				}
+				break;
+			case Machine.JUMPIFop:
+				ST = ST - 1;
+				if (data.get(ST) == n) {
+					addr = CP;
+					CP = d;
+					if (jvmCompiler != null && CP <= addr) {
+						enterCompiledCode(true);
+						if (HT - ST < reserve) {
+							return;
+						}
+					}
+				} else {
+					CP = CP + 1;
+				}
+				break;
+			case Machine.HALTop:
+				status = halted;
+				break;
+			case DecodedProgram.CALLPop + Machine.idDisplacement:
+				CP = CP + 1; // nothing else to be done
+				break;
+			case DecodedProgram.CALLPop + Machine.notDisplacement:
+				data.set(ST - 1, toInt(!isTrue(data.get(ST - 1))));
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.andDisplacement:
+				ST = ST - 1;
+				data.set(ST - 1, binaryPrimitive(Machine.andDisplacement, data.get(ST - 1), data.get(ST)));
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.orDisplacement:
+				ST = ST - 1;
+				data.set(ST - 1, binaryPrimitive(Machine.orDisplacement, data.get(ST - 1), data.get(ST)));
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.succDisplacement:
+				data.set(ST - 1, overflowChecked(data.get(ST - 1) + 1));
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.predDisplacement:
+				data.set(ST - 1, overflowChecked(data.get(ST - 1) - 1));
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.negDisplacement:
+				data.set(ST - 1, -data.get(ST - 1));
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.addDisplacement:
+				ST = ST - 1;
+				data.set(ST - 1, binaryPrimitive(Machine.addDisplacement, data.get(ST - 1), data.get(ST)));
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.subDisplacement:
+				ST = ST - 1;
+				data.set(ST - 1, binaryPrimitive(Machine.subDisplacement, data.get(ST - 1), data.get(ST)));
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.multDisplacement:
+				ST = ST - 1;
+				data.set(ST - 1, binaryPrimitive(Machine.multDisplacement, data.get(ST - 1), data.get(ST)));
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.divDisplacement:
+				ST = ST - 1;
+				data.set(ST - 1, binaryPrimitive(Machine.divDisplacement, data.get(ST - 1), data.get(ST)));
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.modDisplacement:
+				ST = ST - 1;
+				data.set(ST - 1, binaryPrimitive(Machine.modDisplacement, data.get(ST - 1), data.get(ST)));
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.ltDisplacement:
+				ST = ST - 1;
+				data.set(ST - 1, binaryPrimitive(Machine.ltDisplacement, data.get(ST - 1), data.get(ST)));
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.leDisplacement:
+				ST = ST - 1;
+				data.set(ST - 1, binaryPrimitive(Machine.leDisplacement, data.get(ST - 1), data.get(ST)));
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.geDisplacement:
+				ST = ST - 1;
+				data.set(ST - 1, binaryPrimitive(Machine.geDisplacement, data.get(ST - 1), data.get(ST)));
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.gtDisplacement:
+				ST = ST - 1;
+				data.set(ST - 1, binaryPrimitive(Machine.gtDisplacement, data.get(ST - 1), data.get(ST)));
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.eqDisplacement:
+				size = data.get(ST - 1); // size of each comparand
+				ST = ST - 2 * size;
+				data.set(ST - 1, toInt(equal(size, ST - 1, ST - 1 + size)));
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.neDisplacement:
+				size = data.get(ST - 1); // size of each comparand
+				ST = ST - 2 * size;
+				data.set(ST - 1, toInt(!equal(size, ST - 1, ST - 1 + size)));
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.eolDisplacement:
+				data.set(ST, toInt(currentChar == '\n'));
+				ST = ST + 1;
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.eofDisplacement:
+				data.set(ST, toInt(currentChar == -1));
+				ST = ST + 1;
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.newDisplacement:
+				if (HT - ST < data.get(ST - 1) + reserve) {
+					return; // the heap would reach into the space kept for frames
+				}
+				systemPrimitive(o - DecodedProgram.CALLPop);
+				CP = CP + 1;
+				break;
+			case DecodedProgram.CALLPop + Machine.getDisplacement:
+			case DecodedProgram.CALLPop + Machine.putDisplacement:
+			case DecodedProgram.CALLPop + Machine.geteolDisplacement:
+			case DecodedProgram.CALLPop + Machine.puteolDisplacement:
+			case DecodedProgram.CALLPop + Machine.getintDisplacement:
+			case DecodedProgram.CALLPop + Machine.putintDisplacement:
+			case DecodedProgram.CALLPop + Machine.disposeDisplacement:
+				systemPrimitive(o - DecodedProgram.CALLPop);
+				CP = CP + 1;
+				break;
+			default:
+				status = failedInvalidInstruction;
+				break;
+			}
+		} while (status == running);
+	}
+
+	void interpretProfiled() {
+		// Runs the program from CP, as the checked loop does, counting each
+		// instruction and following each call and return in the profile.
+		// Compiled code is not entered, so that every instruction is counted.
+
+		final var op = program.op;
+		final var reg = program.r;
+		final var len = program.n;
+		final var opd = program.d;
+		final var data = this.data;
+		final var profile = this.profile;
+
+		do {
+			if (--metricsCountdown == 0) {
+				publishMetrics();
+			}
+
+			// Fetch and decode instruction ...
+			var o = op[CP];
+			var r = reg[CP];
+			var n = len[CP];
+			var d = opd[CP];
+			int addr;
+			profile.count(CP, o);
+
+			// Execute instruction ...
+			execute: while (true) {
+				switch (o) {
+				case Machine.LOADop:
+					addr = d + content(r);
+					if (!checkSpace(n)) {
+						break;
+					}
+					for (var index = 0; index < n; index++) {
+						data.set(ST + index, data.get(addr + index));
+					}
+					ST = ST + n;
+					CP = CP + 1;
+					break;
+				case Machine.LOADAop:
+					addr = d + content(r);
+					if (!checkSpace(1)) {
+						break;
+					}
+					data.set(ST, addr);
+					ST = ST + 1;
+					CP = CP + 1;
+					break;
+				case Machine.LOADIop:
+					ST = ST - 1;
+					addr = data.get(ST);
+					if (!checkSpace(n)) {
+						break;
+					}
+					for (var index = 0; index < n; index++) {
+						data.set(ST + index, data.get(addr + index));
+					}
+					ST = ST + n;
+					CP = CP + 1;
+					break;
+				case Machine.LOADLop:
+					if (!checkSpace(1)) {
+						break;
+					}
+					data.set(ST, d);
+					ST = ST + 1;
+					CP = CP + 1;
+					break;
+				case Machine.STOREop:
+					addr = d + content(r);
+					ST = ST - n;
+					for (var index = 0; index < n; index++) {
+						data.set(addr + index, data.get(ST + index));
+					}
+					CP = CP + 1;
+					break;
+				case Machine.STOREIop:
+					ST = ST - 1;
+					addr = data.get(ST);
+					ST = ST - n;
+					for (var index = 0; index < n; index++) {
+						data.set(addr + index, data.get(ST + index));
+					}
+					CP = CP + 1;
+					break;
+				case Machine.CALLop:
+					addr = d + content(r);
+					if (addr >= Machine.PB) {
+						o = DecodedProgram.CALLPop + addr - Machine.PB;
+						profile.countPrimitive(addr - Machine.PB);
+						continue execute;
+					} else {
+						if (!checkSpace(3)) {
+							break;
+						}
+						if (0 <= n && n <= 15) {
+							data.set(ST, content(n)); // static link
+						} else {
+							status = failedInvalidInstruction;
+						}
+						data.set(ST + 1, LB); // dynamic link
+						data.set(ST + 2, CP + 1); // return address
+						LB = ST;
+						ST = ST + 3;
+						if (ST > peakST) {
+							peakST = ST;
+						}
+						CP = addr;
+						if (displayMode) {
+							enterDisplay(n);
+						}
+						profile.enter(CP);
+					}
+					break;
+				case Machine.CALLIop:
+					ST = ST - 2;
+					addr = data.get(ST + 1);
+					if (addr >= Machine.PB) {
+						o = DecodedProgram.CALLPop + addr - Machine.PB;
+						profile.countPrimitive(addr - Machine.PB);
+						continue execute;
+					} else {
+						// data[ST] = static link already
+						data.set(ST + 1, LB); // dynamic link
+						data.set(ST + 2, CP + 1); // return address
+						LB = ST;
+						ST = ST + 3;
+						if (ST > peakST) {
+							peakST = ST;
+						}
+						CP = addr;
+						if (displayMode) {
+							enterDisplay(-1);
+						}
+						profile.enter(CP);
+					}
+					break;
+				case Machine.RETURNop:
+					addr = LB - d;
+					CP = data.get(LB + 2);
+					LB = data.get(LB + 1);
+					if (displayMode) {
+						leaveDisplay();
+					}
+					ST = ST - n;
+					for (var index = 0; index < n; index++) {
+						data.set(addr + index, data.get(ST + index));
+					}
+					ST = addr + n;
+					profile.leave();
+					break;
+				case Machine.PUSHop:
+					if (!checkSpace(d)) {
+						break;
+					}
+					ST = ST + d;
+					CP = CP + 1;
+					break;
+				case Machine.POPop:
+					addr = ST - n - d;
+					ST = ST - n;
+					for (var index = 0; index < n; index++) {
+						data.set(addr + index, data.get(ST + index));
+					}
+					ST = addr + n;
+					CP = CP + 1;
+					break;
+				case Machine.JUMPop:
+					CP = d + content(r);
+					break;
+				case Machine.JUMPIop:
+					ST = ST - 1;
+					CP = data.get(ST);
+					break;
+				case Machine.JUMPIFop:
+					ST = ST - 1;
+					if (data.get(ST) == n) {
+						CP = d + content(r);
+					} else {
+						CP = CP + 1;
+					}
+					break;
+				case Machine.HALTop:
+					status = halted;
+					break;
+				default:
+					if (o >= DecodedProgram.CALLPop && o < Superinstructions.FIRSTop) {
+						callPrimitive(o - DecodedProgram.CALLPop);
+						CP = CP + 1;
+					} else {
+						status = failedInvalidInstruction;
+					}
+					break;
+				}
+				break;
+			}
+			if (CP < CB || CP >= CT) {
+				status = failedInvalidCodeAddress;
+			}
+		} while (status == running);
+	}
+
+	void callPrimitive(int primitiveDisplacement) {
+		// Invokes any primitive routine, for the profiling loop.
+
+		int size;
+
+		switch (primitiveDisplacement) {
+		case Machine.idDisplacement:
+			break;
+		case Machine.notDisplacement:
+			data.set(ST - 1, toInt(!isTrue(data.get(ST - 1))));
+			break;
+		case Machine.succDisplacement:
+			data.set(ST - 1, overflowChecked(data.get(ST - 1) + 1));
+			break;
+		case Machine.predDisplacement:
+			data.set(ST - 1, overflowChecked(data.get(ST - 1) - 1));
+			break;
+		case Machine.negDisplacement:
+			data.set(ST - 1, -data.get(ST - 1));
+			break;
+		case Machine.andDisplacement:
+		case Machine.orDisplacement:
+		case Machine.addDisplacement:
+		case Machine.subDisplacement:
+		case Machine.multDisplacement:
+		case Machine.divDisplacement:
+		case Machine.modDisplacement:
+		case Machine.ltDisplacement:
+		case Machine.leDisplacement:
+		case Machine.geDisplacement:
+		case Machine.gtDisplacement:
+			ST = ST - 1;
+			data.set(ST - 1, binaryPrimitive(primitiveDisplacement, data.get(ST - 1), data.get(ST)));
+			break;
+		case Machine.eqDisplacement:
+			size = data.get(ST - 1); // size of each comparand
+			ST = ST - 2 * size;
+			data.set(ST - 1, toInt(equal(size, ST - 1, ST - 1 + size)));
+			break;
+		case Machine.neDisplacement:
+			size = data.get(ST - 1); // size of each comparand
+			ST = ST - 2 * size;
+			data.set(ST - 1, toInt(!equal(size, ST - 1, ST - 1 + size)));
+			break;
+		case Machine.eolDisplacement:
+			data.set(ST, toInt(currentChar == '\n'));
+			ST = ST + 1;
+			break;
+		case Machine.eofDisplacement:
+			data.set(ST, toInt(currentChar == -1));
+			ST = ST + 1;
+			break;
+		default:
+			systemPrimitive(primitiveDisplacement);
+			break;
+		}
+	}
+
+	void interpretChecked() {
+		// Runs the program from CP, checking the stack space before each push
+		// and CP after each instruction.
+
+		final var op = program.op;
+		final var reg = program.r;
+		final var len = program.n;
+		final var opd = program.d;
+		final var data = this.data;
+
+		do {
+			if (--metricsCountdown == 0) {
+				publishMetrics();
+			}
+
+			// Fetch and decode instruction ...
+			var o = op[CP];
+			var r = reg[CP];
+			var n = len[CP];
+			var d = opd[CP];
+			int addr, size;
+
+			// Execute instruction ...
+			execute: while (true) {
+				switch (o) {
+				case Machine.LOADop:
+					addr = d + content(r);
+					if (!checkSpace(n)) {
+						break;
+					}
+					for (var index = 0; index < n; index++) {
+						data.set(ST + index, data.get(addr + index));
+					}
+					ST = ST + n;
+					CP = CP + 1;
+					break;
+				case Machine.LOADAop:
+					addr = d + content(r);
+					if (!checkSpace(1)) {
+						break;
+					}
+					data.set(ST, addr);
+					ST = ST + 1;
+					CP = CP + 1;
+					break;
+				case Machine.LOADIop:
+					ST = ST - 1;
+					addr = data.get(ST);
+					if (!checkSpace(n)) {
+						break;
+					}
+					for (var index = 0; index < n; index++) {
+						data.set(ST + index, data.get(addr + index));
+					}
+					ST = ST + n;
+					CP = CP + 1;
+					break;
+				case Machine.LOADLop:
+					if (!checkSpace(1)) {
+						break;
+					}
+					data.set(ST, d);
+					ST = ST + 1;
+					CP = CP + 1;
+					break;
+				case Machine.STOREop:
+					addr = d + content(r);
+					ST = ST - n;
+					for (var index = 0; index < n; index++) {
+						data.set(addr + index, data.get(ST + index));
+					}
+					CP = CP + 1;
+					break;
+				case Machine.STOREIop:
+					ST = ST - 1;
+					addr = data.get(ST);
+					ST = ST - n;
+					for (var index = 0; index < n; index++) {
+						data.set(addr + index, data.get(ST + index));
+					}
+					CP = CP + 1;
+					break;
+				case Machine.CALLop:
+					addr = d + content(r);
+					if (addr >= Machine.PB) {
+						o = DecodedProgram.CALLPop + addr - Machine.PB;
+						continue execute;
+					} else {
+						if (!checkSpace(3)) {
+							break;
+						}
+						if (0 <= n && n <= 15) {
+							data.set(ST, content(n)); // static link
+						} else {
+							status = failedInvalidInstruction;
+						}
+						data.set(ST + 1, LB); // dynamic link
+						data.set(ST + 2, CP + 1); // return address
+						LB = ST;
+						ST = ST + 3;
+						if (ST > peakST) {
+							peakST = ST;
+						}
+						CP = addr;
+						if (displayMode) {
+							enterDisplay(n);
+						}
+						if (jvmCompiler != null) {
+							enterCompiledCode(true);
+						}
+					}
+					break;
+				case Machine.CALLIop:
+					ST = ST - 2;
+					addr = data.get(ST + 1);
+					if (addr >= Machine.PB) {
+						o = DecodedProgram.CALLPop + addr - Machine.PB;
+						continue execute;
+					} else {
+						// data[ST] = static link already
+						data.set(ST + 1, LB); // dynamic link
+						data.set(ST + 2, CP + 1); // return address
+						LB = ST;
+						ST = ST + 3;
+						if (ST > peakST) {
+							peakST = ST;
+						}
+						CP = addr;
+						if (displayMode) {
+							enterDisplay(-1);
+						}
+						if (jvmCompiler != null) {
+							enterCompiledCode(true);
+						}
+					}
+					break;
+				case Machine.RETURNop:
+					addr = LB - d;
+					CP = data.get(LB + 2);
+					LB = data.get(LB + 1);
+					if (displayMode) {
+						leaveDisplay();
+					}
+					ST = ST - n;
+					for (var index = 0; index < n; index++) {
+						data.set(addr + index, data.get(ST + index));
+					}
+					ST = addr + n;
+					if (jvmCompiler != null) {
+						enterCompiledCode(false);
+					}
+					break;
+				case Machine.PUSHop:
+					if (!checkSpace(d)) {
+						break;
+					}
+					ST = ST + d;
+					CP = CP + 1;
+					break;
+				case Machine.POPop:
+					addr = ST - n - d;
+					ST = ST - n;
+					for (var index = 0; index < n; index++) {
+						data.set(addr + index, data.get(ST + index));
+					}
+					ST = addr + n;
+					CP = CP + 1;
+					break;
+				case Machine.JUMPop:
+					addr = CP;
+					CP = d + content(r);
+					if (jvmCompiler != null && CP <= addr) {
+						enterCompiledCode(true);
+					}
+					break;
+				case Machine.JUMPIop:
+					ST = ST - 1;
+					CP = data.get(ST);
+					break;
+				case Machine.JUMPIFop:
+					ST = ST - 1;
+					if (data.get(ST) == n) {
+						addr = CP;
+						CP = d + content(r);
+						if (jvmCompiler != null && CP <= addr) {
+							enterCompiledCode(true);
+						}
+					} else {
+						CP = CP + 1;
+					}
+					break;
+				case Machine.HALTop:
+					status = halted;
+					break;
+				case DecodedProgram.CALLPop + Machine.idDisplacement:
+					CP = CP + 1; // nothing else to be done
+					break;
+				case DecodedProgram.CALLPop + Machine.notDisplacement:
+					data.set(ST - 1, toInt(!isTrue(data.get(ST - 1))));
+					CP = CP + 1;
+					break;
+				case DecodedProgram.CALLPop + Machine.andDisplacement:
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(Machine.andDisplacement, data.get(ST - 1), data.get(ST)));
+					CP = CP + 1;
+					break;
+				case DecodedProgram.CALLPop + Machine.orDisplacement:
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(Machine.orDisplacement, data.get(ST - 1), data.get(ST)));
+					CP = CP + 1;
+					break;
+				case DecodedProgram.CALLPop + Machine.succDisplacement:
+					data.set(ST - 1, overflowChecked(data.get(ST - 1) + 1));
+					CP = CP + 1;
+					break;
+				case DecodedProgram.CALLPop + Machine.predDisplacement:
+					data.set(ST - 1, overflowChecked(data.get(ST - 1) - 1));
+					CP = CP + 1;
+					break;
+				case DecodedProgram.CALLPop + Machine.negDisplacement:
+					data.set(ST - 1, -data.get(ST - 1));
+					CP = CP + 1;
+					break;
+				case DecodedProgram.CALLPop + Machine.addDisplacement:
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(Machine.addDisplacement, data.get(ST - 1), data.get(ST)));
+					CP = CP + 1;
+					break;
+				case DecodedProgram.CALLPop + Machine.subDisplacement:
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(Machine.subDisplacement, data.get(ST - 1), data.get(ST)));
+					CP = CP + 1;
+					break;
+				case DecodedProgram.CALLPop + Machine.multDisplacement:
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(Machine.multDisplacement, data.get(ST - 1), data.get(ST)));
+					CP = CP + 1;
+					break;
+				case DecodedProgram.CALLPop + Machine.divDisplacement:
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(Machine.divDisplacement, data.get(ST - 1), data.get(ST)));
+					CP = CP + 1;
+					break;
+				case DecodedProgram.CALLPop + Machine.modDisplacement:
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(Machine.modDisplacement, data.get(ST - 1), data.get(ST)));
+					CP = CP + 1;
+					break;
+				case DecodedProgram.CALLPop + Machine.ltDisplacement:
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(Machine.ltDisplacement, data.get(ST - 1), data.get(ST)));
+					CP = CP + 1;
+					break;
+				case DecodedProgram.CALLPop + Machine.leDisplacement:
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(Machine.leDisplacement, data.get(ST - 1), data.get(ST)));
+					CP = CP + 1;
+					break;
+				case DecodedProgram.CALLPop + Machine.geDisplacement:
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(Machine.geDisplacement, data.get(ST - 1), data.get(ST)));
+					CP = CP + 1;
+					break;
+				case DecodedProgram.CALLPop + Machine.gtDisplacement:
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(Machine.gtDisplacement, data.get(ST - 1), data.get(ST)));
+					CP = CP + 1;
+					break;
+				case DecodedProgram.CALLPop + Machine.eqDisplacement:
+					size = data.get(ST - 1); // size of each comparand
+					ST = ST - 2 * size;
+					data.set(ST - 1, toInt(equal(size, ST - 1, ST - 1 + size)));
+					CP = CP + 1;
+					break;
+				case DecodedProgram.CALLPop + Machine.neDisplacement:
+					size = data.get(ST - 1); // size of each comparand
+					ST = ST - 2 * size;
+					data.set(ST - 1, toInt(!equal(size, ST - 1, ST - 1 + size)));
+					CP = CP + 1;
+					break;
+				case DecodedProgram.CALLPop + Machine.eolDisplacement:
+					data.set(ST, toInt(currentChar == '\n'));
+					ST = ST + 1;
+					CP = CP + 1;
+					break;
+				case DecodedProgram.CALLPop + Machine.eofDisplacement:
+					data.set(ST, toInt(currentChar == -1));
+					ST = ST + 1;
+					CP = CP + 1;
+					break;
+				case DecodedProgram.CALLPop + Machine.getDisplacement:
+				case DecodedProgram.CALLPop + Machine.putDisplacement:
+				case DecodedProgram.CALLPop + Machine.geteolDisplacement:
+				case DecodedProgram.CALLPop + Machine.puteolDisplacement:
+				case DecodedProgram.CALLPop + Machine.getintDisplacement:
+				case DecodedProgram.CALLPop + Machine.putintDisplacement:
+				case DecodedProgram.CALLPop + Machine.newDisplacement:
+				case DecodedProgram.CALLPop + Machine.disposeDisplacement:
+					systemPrimitive(o - DecodedProgram.CALLPop);
+					CP = CP + 1;
+					break;
+				case Superinstructions.LOAD_LOAD_BINARY_STOREop: // LOAD (1); LOAD (1); CALL binary primitive; STORE (1)
+					if (HT - ST < 2) {
+						o = Machine.LOADop;
+						continue execute;
+					}
+					data.set(ST, data.get(d + content(r)));
+					ST = ST + 1;
+					data.set(ST, data.get(opd[CP + 1] + content(reg[CP + 1])));
+					ST = ST + 1;
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(opd[CP + 2] - Machine.PB, data.get(ST - 1), data.get(ST)));
+					if (status != running) {
+						CP = CP + 3;
+						break;
+					}
+					addr = opd[CP + 3] + content(reg[CP + 3]);
+					ST = ST - 1;
+					data.set(addr, data.get(ST));
+					CP = CP + 4;
+					break;
+				case Superinstructions.LOAD_LOADL_BINARY_STOREop: // LOAD (1); LOADL; CALL binary primitive; STORE (1)
+					if (HT - ST < 2) {
+						o = Machine.LOADop;
+						continue execute;
+					}
+					data.set(ST, data.get(d + content(r)));
+					ST = ST + 1;
+					data.set(ST, opd[CP + 1]);
+					ST = ST + 1;
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(opd[CP + 2] - Machine.PB, data.get(ST - 1), data.get(ST)));
+					if (status != running) {
+						CP = CP + 3;
+						break;
+					}
+					addr = opd[CP + 3] + content(reg[CP + 3]);
+					ST = ST - 1;
+					data.set(addr, data.get(ST));
+					CP = CP + 4;
+					break;
+				case Superinstructions.LOAD_LOAD_BINARY_JUMPIFop: // LOAD (1); LOAD (1); CALL binary primitive; JUMPIF
+					if (HT - ST < 2) {
+						o = Machine.LOADop;
+						continue execute;
+					}
+					data.set(ST, data.get(d + content(r)));
+					ST = ST + 1;
+					data.set(ST, data.get(opd[CP + 1] + content(reg[CP + 1])));
+					ST = ST + 1;
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(opd[CP + 2] - Machine.PB, data.get(ST - 1), data.get(ST)));
+					if (status != running) {
+						CP = CP + 3;
+						break;
+					}
+					ST = ST - 1;
+					if (data.get(ST) == len[CP + 3]) {
+						addr = CP;
+						CP = opd[CP + 3];
+						if (jvmCompiler != null && CP <= addr) {
+							enterCompiledCode(true);
+						}
+					} else {
+						CP = CP + 4;
+					}
+					break;
+				case Superinstructions.LOAD_LOADL_BINARY_JUMPIFop: // LOAD (1); LOADL; CALL binary primitive; JUMPIF
+					if (HT - ST < 2) {
+						o = Machine.LOADop;
+						continue execute;
+					}
+					data.set(ST, data.get(d + content(r)));
+					ST = ST + 1;
+					data.set(ST, opd[CP + 1]);
+					ST = ST + 1;
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(opd[CP + 2] - Machine.PB, data.get(ST - 1), data.get(ST)));
+					if (status != running) {
+						CP = CP + 3;
+						break;
+					}
+					ST = ST - 1;
+					if (data.get(ST) == len[CP + 3]) {
+						addr = CP;
+						CP = opd[CP + 3];
+						if (jvmCompiler != null && CP <= addr) {
+							enterCompiledCode(true);
+						}
+					} else {
+						CP = CP + 4;
+					}
+					break;
+				case Superinstructions.LOAD_LOAD_BINARYop: // LOAD (1); LOAD (1); CALL binary primitive
+					if (HT - ST < 2) {
+						o = Machine.LOADop;
+						continue execute;
+					}
+					data.set(ST, data.get(d + content(r)));
+					ST = ST + 1;
+					data.set(ST, data.get(opd[CP + 1] + content(reg[CP + 1])));
+					ST = ST + 1;
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(opd[CP + 2] - Machine.PB, data.get(ST - 1), data.get(ST)));
+					CP = CP + 3;
+					break;
+				case Superinstructions.LOAD_LOADL_BINARYop: // LOAD (1); LOADL; CALL binary primitive
+					if (HT - ST < 2) {
+						o = Machine.LOADop;
+						continue execute;
+					}
+					data.set(ST, data.get(d + content(r)));
+					ST = ST + 1;
+					data.set(ST, opd[CP + 1]);
+					ST = ST + 1;
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(opd[CP + 2] - Machine.PB, data.get(ST - 1), data.get(ST)));
+					CP = CP + 3;
+					break;
+				case Superinstructions.LOAD_BINARYop: // LOAD (1); CALL binary primitive
+					if (HT - ST < 1) {
+						o = Machine.LOADop;
+						continue execute;
+					}
+					data.set(ST, data.get(d + content(r)));
+					ST = ST + 1;
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(opd[CP + 1] - Machine.PB, data.get(ST - 1), data.get(ST)));
+					CP = CP + 2;
+					break;
+				case Superinstructions.LOADL_BINARYop: // LOADL; CALL binary primitive
+					if (HT - ST < 1) {
+						o = Machine.LOADLop;
+						continue execute;
+					}
+					data.set(ST, d);
+					ST = ST + 1;
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(opd[CP + 1] - Machine.PB, data.get(ST - 1), data.get(ST)));
+					CP = CP + 2;
+					break;
+				case Superinstructions.BINARY_STOREop: // CALL binary primitive; STORE (1)
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(d - Machine.PB, data.get(ST - 1), data.get(ST)));
+					if (status != running) {
+						CP = CP + 1;
+						break;
+					}
+					addr = opd[CP + 1] + content(reg[CP + 1]);
+					ST = ST - 1;
+					data.set(addr, data.get(ST));
+					CP = CP + 2;
+					break;
+				case Superinstructions.BINARY_JUMPIFop: // CALL binary primitive; JUMPIF
+					ST = ST - 1;
+					data.set(ST - 1, binaryPrimitive(d - Machine.PB, data.get(ST - 1), data.get(ST)));
+					if (status != running) {
+						CP = CP + 1;
+						break;
+					}
+					ST = ST - 1;
+					if (data.get(ST) == len[CP + 1]) {
+						addr = CP;
+						CP = opd[CP + 1];
+						if (jvmCompiler != null && CP <= addr) {
+							enterCompiledCode(true);
+						}
+					} else {
+						CP = CP + 2;
+					}
+					break;
+				case Superinstructions.LOADL_STOREop: // LOADL; STORE (1)
+					if (HT - ST < 1) {
+						o = Machine.LOADLop;
+						continue execute;
+					}
+					data.set(ST, d);
+					ST = ST + 1;
+					addr = opd[CP + 1] + content(reg[CP + 1]);
+					ST = ST - 1;
+					data.set(addr, data.get(ST));
+					CP = CP + 2;
+					break;
+				case Superinstructions.LOAD_STOREop: // LOAD (1); STORE (1)
+					if (HT - ST < 1) {
+						o = Machine.LOADop;
+						continue execute;
+					}
+					data.set(ST, data.get(d + content(r)));
+					ST = ST + 1;
+					addr = opd[CP + 1] + content(reg[CP + 1]);
+					ST = ST - 1;
+					data.set(addr, data.get(ST));
+					CP = CP + 2;
+					break;
+				default:
+					status = failedInvalidInstruction;
+					break;
+				}
+				break;
+			}
+			if (CP < CB || CP >= CT) {
+				status = failedInvalidCodeAddress;
+			}
+		} while (status == running);
+	}
+}
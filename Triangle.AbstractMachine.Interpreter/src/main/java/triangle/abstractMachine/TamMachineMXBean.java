@@ -0,0 +1,60 @@
+package triangle.abstractMachine;
+
+/**
+ * The live metrics of a running TAM machine, as seen through JMX, for
+ * instance in JConsole or VisualVM.
+ *
+ * @see TamMachineMetrics
+ */
+public interface TamMachineMXBean {
+
+	/** @return running, halted, or the reason the program failed */
+	String getStatus();
+
+	/**
+	 * @return the instructions interpreted so far, as last published by the
+	 *         machine
+	 */
+	long getInstructionsExecuted();
+
+	/**
+	 * @return the instructions interpreted per second since this was last
+	 *         read, or since the program started
+	 */
+	double getInstructionsPerSecond();
+
+	/** @return the words on the stack, ST - SB */
+	int getStackDepth();
+
+	/** @return the most words there have been on the stack */
+	int getPeakStackDepth();
+
+	/** @return the words in the heap, HB - HT */
+	int getHeapWords();
+
+	/** @return the most words there have been in the heap */
+	int getPeakHeapWords();
+
+	/** @return the words of the data store for which memory has been allocated */
+	long getResidentWords();
+
+	/** @return the routines called from the main program down */
+	int getCallDepth();
+
+	/** @return the time spent waiting to read input or write output, in milliseconds */
+	long getIOWaitMillis();
+
+	/**
+	 * @return the report on the samples taken so far, as written when the
+	 *         program stops, or a note that the machine is not being sampled
+	 */
+	String reportSamples();
+
+	/**
+	 * Asks the machine to write a snapshot at its next checkpoint, if it was
+	 * run with a core file to write snapshots to.
+	 *
+	 * @return whether a snapshot will be written
+	 */
+	boolean checkpoint();
+}
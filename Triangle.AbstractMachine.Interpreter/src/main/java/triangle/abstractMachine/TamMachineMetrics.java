@@ -0,0 +1,162 @@
+package triangle.abstractMachine;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The live metrics of a TAM machine, for registering as an MBean.
+ *
+ * Nothing here is kept up to date by the machine as it runs. The
+ * instruction count and peak stack depth are the counters that the machine
+ * publishes every few thousand instructions, and the rest are read from its
+ * registers, heap and I/O when asked for, as the Sampler does, so they may
+ * catch the machine part way through an instruction.
+ */
+public final class TamMachineMetrics implements TamMachineMXBean {
+
+	private final TamMachine machine;
+
+	// the sampler of the machine, or null if it is not being sampled
+	private volatile Sampler sampler;
+
+	// when the instructions per second were last worked out, and the
+	// instructions executed then
+	private long lastTimeNanos, lastInstructions;
+
+	public TamMachineMetrics(TamMachine machine) {
+		this.machine = machine;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server, under the type
+	 * TamMachine and the given name.
+	 *
+	 * @return the name under which they were registered
+	 */
+	public ObjectName register(String name) throws JMException {
+		var objectName = new ObjectName("triangle.abstractMachine:type=TamMachine,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	/** Sets the sampler whose samples reportSamples reports, or null for none. */
+	public void setSampler(Sampler sampler) {
+		this.sampler = sampler;
+	}
+
+	public static void unregister(ObjectName objectName) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+	}
+
+	@Override
+	public String getStatus() {
+		return describe(machine.status);
+	}
+
+	/** @return a few words on the given status, as TamMachine.running etc. */
+	static String describe(int status) {
+		switch (status) {
+		case TamMachine.running:
+			return "running";
+		case TamMachine.halted:
+			return "halted";
+		case TamMachine.failedDataStoreFull:
+			return "failed: data store full";
+		case TamMachine.failedInvalidCodeAddress:
+			return "failed: invalid code address";
+		case TamMachine.failedInvalidInstruction:
+			return "failed: invalid instruction";
+		case TamMachine.failedOverflow:
+			return "failed: overflow";
+		case TamMachine.failedZeroDivide:
+			return "failed: division by zero";
+		case TamMachine.failedIOError:
+			return "failed: I/O error";
+		case TamMachine.waitingForInput:
+			return "waiting for input";
+		default:
+			return "unknown";
+		}
+	}
+
+	@Override
+	public long getInstructionsExecuted() {
+		return machine.getInstructionsExecuted();
+	}
+
+	@Override
+	public synchronized double getInstructionsPerSecond() {
+		var now = System.nanoTime();
+		var instructions = machine.getInstructionsExecuted();
+		if (lastTimeNanos == 0 || instructions < lastInstructions) {
+			// first asked, or the machine has been run again
+			lastTimeNanos = machine.startTimeNanos;
+			lastInstructions = 0;
+		}
+		var seconds = (now - lastTimeNanos) / 1e9;
+		var rate = seconds > 0 ? (instructions - lastInstructions) / seconds : 0;
+		lastTimeNanos = now;
+		lastInstructions = instructions;
+		return rate;
+	}
+
+	@Override
+	public int getStackDepth() {
+		return machine.ST - TamMachine.SB;
+	}
+
+	@Override
+	public int getPeakStackDepth() {
+		return Math.max(machine.getPeakStackDepth(), getStackDepth());
+	}
+
+	@Override
+	public int getHeapWords() {
+		return machine.HB - machine.HT;
+	}
+
+	@Override
+	public int getPeakHeapWords() {
+		return machine.getHeap().getPeakHeapWords();
+	}
+
+	@Override
+	public long getResidentWords() {
+		return machine.data.getResidentWords();
+	}
+
+	@Override
+	public int getCallDepth() {
+		return Sampler.callChain(machine).length;
+	}
+
+	@Override
+	public long getIOWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(machine.getIO().getWaitNanos());
+	}
+
+	@Override
+	public String reportSamples() {
+		var sampler = this.sampler;
+		if (sampler == null) {
+			return "not sampling: run with the sample option";
+		}
+		var report = new StringWriter();
+		sampler.writeReport(new PrintWriter(report), Interpreter.hotSpots);
+		return report.toString();
+	}
+
+	@Override
+	public boolean checkpoint() {
+		if (!machine.hasCheckpointHook()) {
+			return false;
+		}
+		machine.requestCheckpoint();
+		return true;
+	}
+}
@@ -0,0 +1,335 @@
+package triangle.abstractMachine;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * A load-time verifier for decoded TAM programs.
+ *
+ * The verifier splits the program into routines, starting from CB and from the
+ * target of each CALL, follows the control-flow graph of each one, and works
+ * out the depth of the stack in the routine's frame before every instruction.
+ * A program is verified if:
+ * <ul>
+ * <li>every jump and call goes to a known code address in the program, and no
+ * path runs off the end of the code;</li>
+ * <li>every instruction finds the words it pops within its own frame;</li>
+ * <li>wherever paths meet, they agree on the depth of the stack;</li>
+ * <li>all the RETURNs of a routine pop the same arguments and leave the same
+ * result.</li>
+ * </ul>
+ * A program that uses JUMPI or CALLI, whose targets are only known when it
+ * runs, cannot be verified.
+ *
+ * The result is the greatest depth that each routine's frame can reach. A
+ * verified program can then be run by checking the space for a whole frame
+ * once, when the routine is entered, rather than before every push, and
+ * without checking CP after every instruction.
+ */
+final class Verifier {
+
+	/** The frame depth of a code address at which no routine starts. */
+	final static int notEntry = -1;
+
+	// the depth after an instruction that cannot be verified
+	private final static int invalid = -1;
+
+	// arguments of a routine that never returns
+	private final static int noReturn = -1;
+
+	private final DecodedProgram program;
+
+	private final int CT;
+
+	// the addresses that control can reach other than by falling through
+	private final boolean[] target;
+
+	// for each routine entry, the words its RETURNs pop and push
+	private final int[] args, results;
+
+	// for each routine entry, the greatest depth of its frame
+	private final int[] frameDepth;
+
+	// the routine whose depths are held in depth, for each address
+	private final int[] routineAt;
+
+	private final int[] depth;
+
+	private final ArrayDeque<Integer> work = new ArrayDeque<>();
+
+	private Verifier(DecodedProgram program) {
+		this.program = program;
+		CT = program.CT;
+		target = new boolean[CT];
+		args = new int[CT];
+		results = new int[CT];
+		frameDepth = new int[CT];
+		routineAt = new int[CT];
+		depth = new int[CT];
+		Arrays.fill(args, noReturn);
+		Arrays.fill(frameDepth, notEntry);
+		Arrays.fill(routineAt, notEntry);
+	}
+
+	/**
+	 * Verifies a program.
+	 *
+	 * @param program the decoded program, before any superinstructions are
+	 *                fused
+	 * @return the greatest depth that the frame of the routine starting at
+	 *         each code address can reach, not counting its link data, or
+	 *         notEntry if no routine starts there; or null if the program
+	 *         cannot be verified
+	 */
+	static int[] verify(DecodedProgram program) {
+		if (program.CT == Machine.CB) {
+			return null;
+		}
+		var verifier = new Verifier(program);
+		return verifier.findRoutines() && verifier.findFrameDepths() ? verifier.frameDepth : null;
+	}
+
+	private boolean isCodeAddress(int r, int d) {
+		return r == Machine.CBr && d >= Machine.CB && d < CT;
+	}
+
+	// ROUTINES
+
+	private boolean findRoutines() {
+		// Finds every routine, and the arguments and result of each, by
+		// following the flow of control from CB.
+
+		for (var addr = Machine.CB; addr < CT; addr++) {
+			switch (program.op[addr]) {
+			case Machine.CALLop:
+			case Machine.JUMPop:
+			case Machine.JUMPIFop:
+				if (!isCodeAddress(program.r[addr], program.d[addr])) {
+					return false;
+				}
+				target[program.d[addr]] = true;
+				break;
+			case Machine.CALLIop:
+			case Machine.JUMPIop:
+				return false;
+			}
+		}
+
+		var routines = new ArrayDeque<Integer>();
+		routines.add(Machine.CB);
+		frameDepth[Machine.CB] = 0;
+		while (!routines.isEmpty()) {
+			int entry = routines.remove();
+			work.add(entry);
+			routineAt[entry] = entry;
+			while (!work.isEmpty()) {
+				int addr = work.remove();
+				var op = program.op[addr];
+				var n = program.n[addr];
+				var d = program.d[addr];
+				switch (op) {
+				case Machine.CALLop:
+					if (frameDepth[d] == notEntry) {
+						frameDepth[d] = 0;
+						routines.add(d);
+					}
+					break;
+				case Machine.RETURNop:
+					if (entry == Machine.CB || n < 0 || d < 0) {
+						return false;
+					}
+					if (args[entry] == noReturn) {
+						args[entry] = d;
+						results[entry] = n;
+					} else if (args[entry] != d || results[entry] != n) {
+						return false;
+					}
+					continue;
+				case Machine.HALTop:
+					continue;
+				case Machine.JUMPop:
+					reach(entry, d);
+					continue;
+				case Machine.JUMPIFop:
+					reach(entry, d);
+					break;
+				}
+				if (addr + 1 == CT) {
+					return false;
+				}
+				reach(entry, addr + 1);
+			}
+		}
+		return true;
+	}
+
+	private void reach(int entry, int addr) {
+		if (routineAt[addr] != entry) {
+			routineAt[addr] = entry;
+			work.add(addr);
+		}
+	}
+
+	// FRAME DEPTHS
+
+	private boolean findFrameDepths() {
+		Arrays.fill(routineAt, notEntry);
+		for (var entry = Machine.CB; entry < CT; entry++) {
+			if (frameDepth[entry] != notEntry && !findFrameDepth(entry)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean findFrameDepth(int entry) {
+		// Works out the depth of the stack before each instruction of the
+		// routine, and the greatest depth that its frame can reach.
+
+		var maxDepth = 0;
+		flow(entry, entry, 0);
+		while (!work.isEmpty()) {
+			int addr = work.remove();
+			var op = program.op[addr];
+			var n = program.n[addr];
+			var d = program.d[addr];
+			var before = depth[addr];
+			int after;
+
+			switch (op) {
+			case Machine.LOADop:
+				after = n >= 0 ? before + n : invalid;
+				break;
+			case Machine.LOADAop:
+			case Machine.LOADLop:
+				after = before + 1;
+				break;
+			case Machine.LOADIop:
+				after = before >= 1 && n >= 0 ? before - 1 + n : invalid;
+				break;
+			case Machine.STOREop:
+				after = n >= 0 && before >= n ? before - n : invalid;
+				break;
+			case Machine.STOREIop:
+				after = n >= 0 && before >= 1 + n ? before - 1 - n : invalid;
+				break;
+			case Machine.CALLop:
+				if (n < 0 || n > 15) {
+					return false;
+				}
+				if (args[d] == noReturn) {
+					continue; // the routine never returns here
+				}
+				if (before < args[d]) {
+					return false;
+				}
+				after = before - args[d] + results[d];
+				break;
+			case Machine.RETURNop:
+				if (before < n) {
+					return false;
+				}
+				continue;
+			case Machine.PUSHop:
+				after = d >= 0 ? before + d : invalid;
+				break;
+			case Machine.POPop:
+				after = n >= 0 && d >= 0 && before >= n + d ? before - d : invalid;
+				break;
+			case Machine.JUMPop:
+				if (!flow(entry, d, before)) {
+					return false;
+				}
+				continue;
+			case Machine.JUMPIFop:
+				if (before < 1 || !flow(entry, d, before - 1)) {
+					return false;
+				}
+				after = before - 1;
+				break;
+			case Machine.HALTop:
+				continue;
+			default:
+				after = primitiveDepth(addr, op - DecodedProgram.CALLPop, before);
+				break;
+			}
+
+			if (after == invalid) {
+				return false;
+			}
+			maxDepth = Math.max(maxDepth, after);
+			if (!flow(entry, addr + 1, after)) {
+				return false;
+			}
+		}
+		frameDepth[entry] = maxDepth;
+		return true;
+	}
+
+	private int primitiveDepth(int addr, int primitiveDisplacement, int before) {
+		// Returns the depth of the stack after a call of a primitive routine,
+		// or invalid if the call cannot be verified.
+
+		switch (primitiveDisplacement) {
+		case Machine.idDisplacement:
+		case Machine.geteolDisplacement:
+		case Machine.puteolDisplacement:
+			return before;
+		case Machine.notDisplacement:
+		case Machine.succDisplacement:
+		case Machine.predDisplacement:
+		case Machine.negDisplacement:
+		case Machine.newDisplacement:
+			return before >= 1 ? before : invalid;
+		case Machine.andDisplacement:
+		case Machine.orDisplacement:
+		case Machine.addDisplacement:
+		case Machine.subDisplacement:
+		case Machine.multDisplacement:
+		case Machine.divDisplacement:
+		case Machine.modDisplacement:
+		case Machine.ltDisplacement:
+		case Machine.leDisplacement:
+		case Machine.geDisplacement:
+		case Machine.gtDisplacement:
+			return before >= 2 ? before - 1 : invalid;
+		case Machine.eqDisplacement:
+		case Machine.neDisplacement:
+			// the size of the comparands is on top of the stack, so it must
+			// have been pushed by a LOADL just before the call
+			if (target[addr] || addr == Machine.CB || program.op[addr - 1] != Machine.LOADLop) {
+				return invalid;
+			}
+			var size = program.d[addr - 1];
+			return size >= 0 && before >= 1 + 2 * size ? before - 2 * size : invalid;
+		case Machine.eolDisplacement:
+		case Machine.eofDisplacement:
+			return before + 1;
+		case Machine.getDisplacement:
+		case Machine.putDisplacement:
+		case Machine.getintDisplacement:
+		case Machine.putintDisplacement:
+			return before >= 1 ? before - 1 : invalid;
+		case Machine.disposeDisplacement:
+			return before >= 2 ? before - 2 : invalid;
+		default:
+			return invalid;
+		}
+	}
+
+	private boolean flow(int entry, int addr, int depthHere) {
+		// Records that control reaches addr with the stack at the given depth,
+		// which must agree with any other path there.
+
+		if (addr >= CT) {
+			return false;
+		}
+		if (routineAt[addr] != entry) {
+			routineAt[addr] = entry;
+			depth[addr] = depthHere;
+			work.add(addr);
+			return true;
+		}
+		return depth[addr] == depthHere;
+	}
+}
@@ -0,0 +1,141 @@
+package triangle.abstractMachine;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchService;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Watches a Triangle program, or a directory of them, and whenever one is
+ * saved compiles it and runs it again, in this JVM, which stays warm between
+ * runs. Only the programs that changed are compiled and run; the compiler's
+ * errors, the program's output and the time taken are written to standard
+ * output as they come.
+ *
+ * For example:
+ *
+ * <pre>
+ *   java triangle.abstractMachine.WatchAndRun prog.tri|directory [folding] [debug] [interpreter options]
+ * </pre>
+ *
+ * A program is run on the watching thread, so one that does not halt must be
+ * stopped with the JVM. A program that reads input reads standard input
+ * unless given in=.
+ */
+public class WatchAndRun {
+
+	final static String sourceSuffix = ".tri";
+
+	// how long to wait after a change for more, since an editor may save a
+	// file in several writes, or several files at once
+	final static long settleMillis = 50;
+
+	// the program watched, or null if every program in the directory is
+	static Path watchedFile;
+
+	static Path directory;
+
+	final static DateTimeFormatter timeFormat = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+	static boolean isWatched(Path path) {
+		return watchedFile != null ? path.equals(watchedFile)
+				: path.getFileName().toString().endsWith(sourceSuffix) && Files.isRegularFile(path);
+	}
+
+	static Set<Path> watchedPrograms() {
+		var programs = new TreeSet<Path>();
+		if (watchedFile != null) {
+			programs.add(watchedFile);
+		} else {
+			try (Stream<Path> files = Files.list(directory)) {
+				files.filter(WatchAndRun::isWatched).forEach(programs::add);
+			} catch (IOException e) {
+				System.err.println("Error reading source directory: " + e);
+			}
+		}
+		return programs;
+	}
+
+	static void compileAndRun(Set<Path> programs) {
+		for (var program : programs) {
+			System.out.println();
+			System.out.println("========== " + program + " at " + LocalTime.now().format(timeFormat) + " ==========");
+			CompileAndRun.compileAndRun(program.toString());
+			System.out.flush();
+		}
+	}
+
+	// WATCHING
+
+	static void watch(WatchService watcher) throws IOException, InterruptedException {
+		directory.register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+		compileAndRun(watchedPrograms());
+		System.out.println();
+		System.out.println("Watching " + (watchedFile != null ? watchedFile : directory) + " ...");
+
+		while (true) {
+			var changed = new TreeSet<Path>();
+			var key = watcher.take();
+			while (key != null) {
+				for (var event : key.pollEvents()) {
+					if (event.kind() == OVERFLOW) {
+						// events were lost, so any program may have changed
+						changed.addAll(watchedPrograms());
+					} else if (isWatched(directory.resolve((Path) event.context()))) {
+						changed.add(directory.resolve((Path) event.context()));
+					}
+				}
+				if (!key.reset()) {
+					System.err.println("Error watching " + directory + ": it is no longer accessible");
+					return;
+				}
+				key = watcher.poll(settleMillis, TimeUnit.MILLISECONDS);
+			}
+			if (!changed.isEmpty()) {
+				compileAndRun(changed);
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		System.out.println("********** Triangle Watch and Run (Java Version 2.1) **********");
+
+		var interpreterArgs = CompileAndRun.parseArgs(args);
+		if (CompileAndRun.sourceName == null) {
+			System.out.println("Usage: tcw filename|directory [folding] [debug] [interpreter options]");
+			System.exit(1);
+		}
+		if (!CompileAndRun.parseInterpreterArgs(interpreterArgs)) {
+			System.exit(1);
+		}
+
+		var path = Path.of(CompileAndRun.sourceName).toAbsolutePath().normalize();
+		if (Files.isDirectory(path)) {
+			directory = path;
+		} else {
+			watchedFile = path;
+			directory = path.getParent();
+		}
+
+		try (var watcher = FileSystems.getDefault().newWatchService()) {
+			watch(watcher);
+		} catch (ClosedWatchServiceException | InterruptedException e) {
+			// stopped
+		} catch (IOException e) {
+			System.err.println("Error watching " + directory + ": " + e);
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package triangle.abstractMachine;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestHeap {
+
+	private final static int storeSize = 1000;
+
+	private TamMachine machine;
+
+	private Heap heap;
+
+	private int HB;
+
+	@Before
+	public void setUp() {
+		machine = machine(new Instruction[] { new Instruction(OpCode.HALT, Register.CB, 0, 0) }, storeSize);
+		machine.ST = TamMachine.SB;
+		machine.HT = machine.HB;
+		heap = machine.getHeap();
+		heap.reset();
+		HB = machine.HB;
+	}
+
+	/* allocation and disposal, straight on the heap */
+
+	@Test
+	public void testAllocateBelowHT() {
+		assertEquals(HB - 10, heap.allocate(10));
+		assertEquals(HB - 15, heap.allocate(5));
+		assertEquals(HB - 15, machine.HT);
+		assertEquals(15, heap.getHeapWords());
+		assertEquals(15, heap.getLiveWords());
+		assertEquals(2, heap.getAllocations());
+		assertEquals(0, heap.getReusedAllocations());
+	}
+
+	@Test
+	public void testAllocateNothing() {
+		assertEquals(HB, heap.allocate(0));
+		assertEquals(HB, machine.HT);
+	}
+
+	@Test
+	public void testReuseFreeBlock() {
+		heap.allocate(10);
+		var b = heap.allocate(5);
+		heap.allocate(4);
+		heap.dispose(b, 5);
+		assertEquals(1, heap.getFreeBlocks());
+		assertEquals(5, heap.getFreeWords());
+
+		assertEquals(b, heap.allocate(5));
+		assertEquals(1, heap.getReusedAllocations());
+		assertEquals(0, heap.getFreeBlocks());
+		assertEquals(HB - 19, machine.HT);
+	}
+
+	@Test
+	public void testSplitFreeBlock() {
+		heap.allocate(10);
+		var b = heap.allocate(20);
+		heap.allocate(3);
+		heap.dispose(b, 20);
+
+		// the top of the block is taken, and the rest left free
+		assertEquals(b + 12, heap.allocate(8));
+		assertEquals(12, heap.getFreeWords());
+		assertEquals(Integer.valueOf(12), heap.getFreeBlockMap().get(b));
+	}
+
+	@Test
+	public void testSegregatedLists() {
+		// sizes from 32 to 63 share a list, and 64 to 127 the next, so a
+		// request for 50 passes over a free block of 40 to split one of 100
+		heap.allocate(1);
+		var small = heap.allocate(40);
+		heap.allocate(1);
+		var large = heap.allocate(100);
+		heap.allocate(1);
+		heap.dispose(small, 40);
+		heap.dispose(large, 100);
+
+		assertEquals(large + 50, heap.allocate(50));
+		assertEquals(Integer.valueOf(40), heap.getFreeBlockMap().get(small));
+		assertEquals(Integer.valueOf(50), heap.getFreeBlockMap().get(large));
+
+		// an exact size is found on its own list
+		heap.allocate(1);
+		var exact = heap.allocate(7);
+		heap.allocate(1);
+		heap.dispose(exact, 7);
+		assertEquals(exact, heap.allocate(7));
+	}
+
+	@Test
+	public void testCoalesce() {
+		var a = heap.allocate(10);
+		var b = heap.allocate(10);
+		var c = heap.allocate(10);
+		heap.allocate(2);
+		heap.dispose(a, 10);
+		heap.dispose(c, 10);
+		assertEquals(2, heap.getFreeBlocks());
+
+		// merged with the free blocks both above and below it
+		heap.dispose(b, 10);
+		assertEquals(1, heap.getFreeBlocks());
+		assertEquals(30, heap.getFreeWords());
+		assertEquals(Integer.valueOf(30), heap.getFreeBlockMap().get(c));
+		assertEquals(3, heap.getDisposals());
+		assertEquals(2, heap.getLiveWords());
+	}
+
+	@Test
+	public void testGiveBackToStack() {
+		var a = heap.allocate(10);
+		var b = heap.allocate(5);
+		var c = heap.allocate(5);
+		heap.dispose(b, 5);
+		assertEquals(c, machine.HT);
+
+		// the block at HT, merged with the free block above it, goes back to
+		// the stack
+		heap.dispose(c, 5);
+		assertEquals(a, machine.HT);
+		assertEquals(0, heap.getFreeBlocks());
+		assertEquals(0, heap.getFreeWords());
+
+		heap.dispose(a, 10);
+		assertEquals(HB, machine.HT);
+		assertEquals(0, heap.getHeapWords());
+		assertEquals(20, heap.getPeakHeapWords());
+	}
+
+	@Test
+	public void testInvalidDisposeIgnored() {
+		var a = heap.allocate(10);
+		var b = heap.allocate(10);
+		heap.dispose(a, 4);
+
+		heap.dispose(b, 0);
+		heap.dispose(b - 5, 5); // below HT
+		heap.dispose(HB - 2, 5); // past HB
+		heap.dispose(a + 2, 2); // already free
+		heap.dispose(b + 8, 4); // overlapping the free block
+		assertEquals(1, heap.getDisposals());
+		assertEquals(4, heap.getFreeWords());
+		assertEquals(b, machine.HT);
+	}
+
+	@Test
+	public void testDataStoreFull() {
+		machine.ST = HB - 8;
+		assertEquals(-1, heap.allocate(10));
+		assertEquals(TamMachine.failedDataStoreFull, machine.getStatus());
+		assertEquals(HB, machine.HT);
+		assertEquals(0, heap.getAllocations());
+	}
+
+	/* the primitive routines new and dispose, in a running program */
+
+	@Test
+	public void testNewAndDisposePrimitives() {
+		// new takes the size on the stack and leaves the address; dispose
+		// takes the size, then the address above it
+		var code = new Instruction[] { new Instruction(OpCode.LOADL, Register.CB, 0, 3),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.NEW.ordinal()),
+				new Instruction(OpCode.LOADL, Register.CB, 0, 2),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.NEW.ordinal()),
+				new Instruction(OpCode.LOADL, Register.CB, 0, 3), new Instruction(OpCode.LOAD, Register.SB, 1, 0),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.DISPOSE.ordinal()),
+				new Instruction(OpCode.HALT, Register.CB, 0, 0) };
+		var machine = machine(code, storeSize);
+		machine.run();
+		assertEquals(TamMachine.halted, machine.getStatus());
+
+		var heap = machine.getHeap();
+		assertEquals(2, heap.getAllocations());
+		assertEquals(1, heap.getDisposals());
+		assertEquals(Integer.valueOf(3), heap.getFreeBlockMap().get(storeSize - 3));
+		assertEquals(2, heap.getLiveWords());
+		assertEquals(storeSize - 5, machine.HT);
+	}
+
+	private static TamMachine machine(Instruction[] code, int storeSize) {
+		var program = DecodedProgram.decode(code, code.length);
+		return new TamMachine(program, DataStore.onHeap(storeSize),
+				TamIO.of(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream()));
+	}
+}
@@ -0,0 +1,75 @@
+package triangle.abstractMachine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import triangle.CompilerSession;
+import triangle.syntacticAnalyzer.SourceFile;
+
+public class TestJvmCompiler {
+
+	/* a routine whose frame is more than 32767 words, so that PUSH and POP have operands too wide for iinc */
+	private final static String largeFrame = """
+			let
+			  proc p(k : Integer) ~
+			    let
+			      var a : array 40000 of Integer;
+			      var i : Integer
+			    in begin
+			      i := 0;
+			      while i < 20 do begin a[i * 1000] := i + k; i := i + 1 end;
+			      a[39999] := a[19000]
+			    end;
+			  var j : Integer;
+			  var b : array 100 of Integer
+			in begin
+			  j := 0;
+			  while j < 100 do begin
+			    p(j);
+			    let var c : array 35000 of Integer in begin c[34999] := j; b[j] := c[34999] end;
+			    j := j + 1
+			  end;
+			  putint(b[99]); puteol()
+			end
+			""";
+
+	@Test
+	public void testLargeFrame() {
+		var program = compile(largeFrame);
+		var expected = run(program, null);
+		assertEquals("99\n", expected);
+
+		try (var jit = new JvmCompiler(program, false, 10)) {
+			// the first run finds the hot regions, and the second runs them
+			// compiled
+			run(program, jit);
+			jit.compilePending();
+			assertTrue("no regions were compiled", jit.getRegionsCompiled() > 0);
+			assertEquals(expected, run(program, jit));
+		}
+	}
+
+	private static DecodedProgram compile(String source) {
+		var session = new CompilerSession(SourceFile.ofBytes(source.getBytes(StandardCharsets.UTF_8)), "test.tri");
+		assertTrue("program did not compile", session.compile());
+		return DecodedProgram.decode(session.getCode(), session.getCodeTop());
+	}
+
+	private static String run(DecodedProgram program, JvmCompiler jit) {
+		var out = new ByteArrayOutputStream();
+		var machine = new TamMachine(program, DataStore.onHeap(1 << 20),
+				TamIO.of(new ByteArrayInputStream(new byte[0]), out));
+		if (jit != null) {
+			machine.setCompiler(jit);
+		}
+		machine.run();
+		assertEquals("program did not halt normally", TamMachine.halted, machine.getStatus());
+		return out.toString(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,288 @@
+package triangle.abstractMachine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import triangle.CompilerSession;
+import triangle.syntacticAnalyzer.SourceFile;
+
+public class TestSuperinstructions {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final static int storeSize = 1 << 20;
+
+	/* arithmetic and comparisons in loops, with a short loop that runs once */
+	private final static String loops = """
+			let
+			  var i : Integer;
+			  var s : Integer;
+			  var b : array 10 of Integer
+			in begin
+			  i := 0; s := 0;
+			  while i < 1000 do begin
+			    s := s + (i * 2);
+			    if s > 5000 then s := s - 4999 else s := s + 1;
+			    i := i + 1
+			  end;
+			  i := 0;
+			  while i < 10 do begin b[i] := i * i; i := i + 1 end;
+			  putint(s); puteol();
+			  putint(b[9] - b[3]); puteol()
+			end
+			""";
+
+	/* functions and procedures */
+	private final static String routines = """
+			let
+			  func gcd(a : Integer, b : Integer) : Integer ~
+			    if b = 0 then a else gcd(b, a // b);
+			  func next(n : Integer) : Integer ~
+			    if (n // 2) = 0 then n / 2 else (3 * n) + 1;
+			  proc show(a : Integer, b : Integer) ~
+			    begin putint(a); put(' '); putint(b); puteol() end;
+			  var n : Integer;
+			  var steps : Integer;
+			  var k : Integer
+			in begin
+			  k := 1;
+			  while k < 30 do begin
+			    n := k; steps := 0;
+			    while n > 1 do begin n := next(n); steps := steps + 1 end;
+			    show(steps, gcd(k * 12, 90));
+			    k := k + 1
+			  end
+			end
+			""";
+
+	/* a division by zero part way through a superinstruction */
+	private final static String zeroDivide = """
+			let
+			  var i : Integer
+			in begin
+			  i := 0;
+			  while i < 10 do begin
+			    putint(100 / (5 - i)); puteol();
+			    i := i + 1
+			  end
+			end
+			""";
+
+	/* a recursion that runs out of stack in a small data store */
+	private final static String recursion = """
+			let
+			  func sum(n : Integer) : Integer ~
+			    if n = 0 then 0 else n + sum(n - 1)
+			in begin
+			  putint(sum(20)); puteol();
+			  putint(sum(10000)); puteol()
+			end
+			""";
+
+	/* fused programs, run as against unfused */
+
+	@Test
+	public void testLoops() throws IOException {
+		var result = compareFused(loops, storeSize);
+		assertEquals(TamMachine.halted, result.status);
+	}
+
+	@Test
+	public void testRoutines() throws IOException {
+		var result = compareFused(routines, storeSize);
+		assertEquals(TamMachine.halted, result.status);
+	}
+
+	@Test
+	public void testZeroDivide() throws IOException {
+		var result = compareFused(zeroDivide, storeSize);
+		assertEquals(TamMachine.failedZeroDivide, result.status);
+	}
+
+	@Test
+	public void testStackFull() throws IOException {
+		for (var size : new int[] { 300, 1001, 4096 }) {
+			var result = compareFused(recursion, size);
+			assertEquals(TamMachine.failedDataStoreFull, result.status);
+		}
+	}
+
+	private Result compareFused(String source, int size) throws IOException {
+		var program = compile(source);
+		var expected = run(program, size);
+
+		var fused = Superinstructions.fuse(program, Superinstructions.defaultTable);
+		assertTrue("no superinstructions were used", usesSuperinstructions(fused));
+		assertEquals(expected, run(fused, size));
+
+		var table = profileTable(program);
+		assertTrue("the profile chose no superinstructions", table.length > 0);
+		assertEquals(expected, run(Superinstructions.fuse(program, table), size));
+		return expected;
+	}
+
+	/* choosing superinstructions from a profile */
+
+	@Test
+	public void testProfileOrder() throws IOException {
+		var program = compile(loops);
+		var profile = profile(program);
+		var table = profileTable(program);
+		assertFalse(Arrays.equals(Superinstructions.defaultTable, table));
+
+		// every superinstruction chosen was executed
+		var fused = Superinstructions.fuse(program, table);
+		var saved = new long[table.length];
+		for (var addr = Machine.CB; addr < fused.CT; addr++) {
+			var index = indexOf(table, fused.op[addr]);
+			if (index >= 0) {
+				saved[index] += profile.getAddressCount(addr) * (Superinstructions.length(fused.op[addr]) - 1);
+			}
+		}
+		for (var i = 0; i < table.length; i++) {
+			assertTrue("superinstruction never executed", saved[i] > 0);
+		}
+
+		// the profile's table saves at least as many dispatches as the
+		// default table
+		assertTrue(dispatches(fused, profile) <= dispatches(
+				Superinstructions.fuse(program, Superinstructions.defaultTable), profile));
+	}
+
+	@Test
+	public void testProfileWithoutSequences() throws IOException {
+		// a program with no candidate sequences gives an empty profile, and
+		// so an unchanged program
+		var code = new Instruction[] { new Instruction(OpCode.LOADL, Register.CB, 0, 3),
+				new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PUTINT.ordinal()),
+				new Instruction(OpCode.HALT, Register.CB, 0, 0) };
+		var program = DecodedProgram.decode(code, code.length);
+		var table = profileTable(program);
+		assertEquals(0, table.length);
+		assertArrayEquals(program.op, Superinstructions.fuse(program, table).op);
+	}
+
+	/* the fallback when there is not enough stack space for a superinstruction */
+
+	@Test
+	public void testFallback() {
+		var load = new Instruction(OpCode.LOAD, Register.SB, 1, 0);
+		var loadl = new Instruction(OpCode.LOADL, Register.CB, 0, 5);
+		var add = new Instruction(OpCode.CALL, Register.PB, 0, Primitive.ADD.ordinal());
+		var lt = new Instruction(OpCode.CALL, Register.PB, 0, Primitive.LT.ordinal());
+		var store = new Instruction(OpCode.STORE, Register.SB, 1, 1);
+		// the JUMPIF jumps to the HALT after its sequence, at address 5
+		var jumpif = new Instruction(OpCode.JUMPIF, Register.CB, 1, 5);
+		var sequences = new Instruction[][] { { load, load, add, store }, { load, loadl, add, store },
+				{ load, load, lt, jumpif }, { load, loadl, lt, jumpif }, { load, load, add }, { load, loadl, add },
+				{ load, add }, { loadl, add }, { loadl, store }, { load, store } };
+
+		for (var s = 0; s < sequences.length; s++) {
+			var sequence = sequences[s];
+			// the two words of stack that the LOADs in the sequence need are
+			// left free, then fewer
+			for (var free = 0; free <= 3; free++) {
+				var code = new Instruction[sequence.length + 2];
+				code[0] = new Instruction(OpCode.PUSH, Register.CB, 0, storeSize(sequence) - free);
+				System.arraycopy(sequence, 0, code, 1, sequence.length);
+				code[sequence.length + 1] = new Instruction(OpCode.HALT, Register.CB, 0, 0);
+				var program = DecodedProgram.decode(code, code.length);
+
+				var unfused = machine(program, storeSize(sequence));
+				unfused.setAlwaysChecked(true);
+				unfused.run();
+
+				var fused = Superinstructions.fuse(program, Superinstructions.defaultTable);
+				assertTrue(fused.op[1] >= Superinstructions.FIRSTop);
+				var machine = machine(fused, storeSize(sequence));
+				machine.run();
+
+				var name = "sequence " + s + ", " + free + " words free";
+				assertEquals(name, unfused.getStatus(), machine.getStatus());
+				assertEquals(name, unfused.CP, machine.CP);
+				assertEquals(name, unfused.ST, machine.ST);
+				assertEquals(name, unfused.data.get(1), machine.data.get(1));
+			}
+		}
+	}
+
+	private static int storeSize(Instruction[] sequence) {
+		// room for the words pushed first, which the sequence loads from and
+		// stores to, and as much as the sequence pushes
+		return 64 + sequence.length;
+	}
+
+	private record Result(String output, int status) {
+	}
+
+	private int[] profileTable(DecodedProgram program) throws IOException {
+		// writes a profile from an unfused run, and reads it back
+		var profileName = folder.newFile().getPath();
+		Superinstructions.writeProfile(profileName, program, profile(program));
+		return Superinstructions.readProfile(profileName);
+	}
+
+	private static Profile profile(DecodedProgram program) {
+		var machine = machine(program, storeSize);
+		machine.setProfiling(true);
+		machine.run();
+		return machine.getProfile();
+	}
+
+	private static long dispatches(DecodedProgram fused, Profile profile) {
+		// the instructions executed, less those a superinstruction covered
+		var dispatches = 0L;
+		for (var addr = Machine.CB; addr < fused.CT; addr++) {
+			dispatches += profile.getAddressCount(addr);
+			if (fused.op[addr] >= Superinstructions.FIRSTop) {
+				addr = addr + Superinstructions.length(fused.op[addr]) - 1;
+			}
+		}
+		return dispatches;
+	}
+
+	private static int indexOf(int[] table, int op) {
+		for (var i = 0; i < table.length; i++) {
+			if (table[i] == op) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean usesSuperinstructions(DecodedProgram program) {
+		return Arrays.stream(program.op).anyMatch(op -> op >= Superinstructions.FIRSTop);
+	}
+
+	private static DecodedProgram compile(String source) {
+		var session = new CompilerSession(SourceFile.ofBytes(source.getBytes(StandardCharsets.UTF_8)), "test.tri");
+		assertTrue("program did not compile", session.compile());
+		return DecodedProgram.decode(session.getCode(), session.getCodeTop());
+	}
+
+	private static Result run(DecodedProgram program, int size) {
+		var out = new ByteArrayOutputStream();
+		var machine = new TamMachine(program, DataStore.onHeap(size),
+				TamIO.of(new ByteArrayInputStream(new byte[0]), out));
+		machine.run();
+		return new Result(out.toString(StandardCharsets.UTF_8), machine.getStatus());
+	}
+
+	private static TamMachine machine(DecodedProgram program, int size) {
+		return new TamMachine(program, DataStore.onHeap(size),
+				TamIO.of(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream()));
+	}
+}
@@ -0,0 +1,319 @@
+package triangle.abstractMachine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The debug information that the compiler can write beside the code in an
+ * object file: the source file's name, a table of routines, a line table
+ * mapping code addresses back to the source, and the layout of the variables,
+ * constants and parameters in each frame.
+ *
+ * Each table is written as a section of its own, tagged and sized, so that a
+ * reader can skip any section it does not know.
+ */
+public final class DebugInfo {
+
+	/** A routine: its name, the addresses of its first and last instructions, and its static level. */
+	public final static class Routine {
+
+		public final String name;
+
+		public final int entry, exit, level;
+
+		public Routine(String name, int entry, int exit, int level) {
+			this.name = name;
+			this.entry = entry;
+			this.exit = exit;
+			this.level = level;
+		}
+	}
+
+	/** The first and last source lines of the phrase whose code starts at an address. */
+	public final static class Line {
+
+		public final int address, start, finish;
+
+		public Line(int address, int start, int finish) {
+			this.address = address;
+			this.start = start;
+			this.finish = finish;
+		}
+	}
+
+	/**
+	 * A variable, constant or parameter held in a frame: its displacement from
+	 * the base of the frame at its static level (SB at level 0, LB otherwise)
+	 * and its size, and the code addresses over which it is in scope.
+	 */
+	public final static class Variable {
+
+		public final String name, kind;
+
+		public final int level, displacement, size, start;
+
+		int end;
+
+		public Variable(String name, String kind, int level, int displacement, int size, int start, int end) {
+			this.name = name;
+			this.kind = kind;
+			this.level = level;
+			this.displacement = displacement;
+			this.size = size;
+			this.start = start;
+			this.end = end;
+		}
+
+		/** @return the address one beyond the last instruction in its scope */
+		public int getEnd() {
+			return end;
+		}
+	}
+
+	// section tags
+	private final static int sourceTag = 0x53524345, // "SRCE"
+			routinesTag = 0x52544E53, // "RTNS"
+			linesTag = 0x4C494E45, // "LINE"
+			variablesTag = 0x56415253; // "VARS"
+
+	private String sourceName;
+
+	private final ArrayList<Routine> routines = new ArrayList<>();
+
+	// in order of address
+	private final ArrayList<Line> lines = new ArrayList<>();
+
+	private final ArrayList<Variable> variables = new ArrayList<>();
+
+	public DebugInfo(String sourceName) {
+		this.sourceName = sourceName;
+	}
+
+	// RECORDING
+
+	public void addRoutine(String name, int entry, int exit, int level) {
+		routines.add(new Routine(name, entry, exit, level));
+	}
+
+	/**
+	 * Records that the code from the given address on comes from the given
+	 * lines, until the next address recorded. Addresses must be recorded in
+	 * order; a later entry for the same address replaces the earlier, so that
+	 * an address is mapped to the innermost phrase whose code starts there.
+	 */
+	public void addLine(int address, int start, int finish) {
+		var last = lines.size() - 1;
+		if (last >= 0 && lines.get(last).address == address) {
+			lines.set(last, new Line(address, start, finish));
+		} else if (last < 0 || lines.get(last).address < address) {
+			lines.add(new Line(address, start, finish));
+		}
+	}
+
+	/**
+	 * Records a variable whose scope runs from the given address until it is
+	 * closed by closeScopes.
+	 */
+	public void addVariable(String name, String kind, int level, int displacement, int size, int start) {
+		variables.add(new Variable(name, kind, level, displacement, size, start, -1));
+	}
+
+	/**
+	 * @return the number of variables recorded so far, to give to closeScopes
+	 */
+	public int getVariableCount() {
+		return variables.size();
+	}
+
+	/**
+	 * Ends the scopes, at the given address, of the variables recorded since
+	 * the first given that are still open.
+	 */
+	public void closeScopes(int first, int end) {
+		for (var index = first; index < variables.size(); index++) {
+			if (variables.get(index).end < 0) {
+				variables.get(index).end = end;
+			}
+		}
+	}
+
+	// LOOKING UP
+
+	public String getSourceName() {
+		return sourceName;
+	}
+
+	public List<Routine> getRoutines() {
+		return Collections.unmodifiableList(routines);
+	}
+
+	public List<Line> getLines() {
+		return Collections.unmodifiableList(lines);
+	}
+
+	public List<Variable> getVariables() {
+		return Collections.unmodifiableList(variables);
+	}
+
+	/**
+	 * @return the routine whose first instruction is at the given address, or
+	 *         null
+	 */
+	public Routine getRoutine(int entry) {
+		for (var routine : routines) {
+			if (routine.entry == entry) {
+				return routine;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the innermost routine whose code includes the given address, or
+	 *         null if it is in the main program
+	 */
+	public Routine getRoutineAt(int address) {
+		Routine innermost = null;
+		for (var routine : routines) {
+			if (routine.entry <= address && address <= routine.exit
+					&& (innermost == null || routine.level > innermost.level)) {
+				innermost = routine;
+			}
+		}
+		return innermost;
+	}
+
+	/**
+	 * @return the line table entry for the code at the given address, or null
+	 */
+	public Line getLineAt(int address) {
+		var low = 0;
+		var high = lines.size() - 1;
+		Line found = null;
+		while (low <= high) {
+			var middle = (low + high) >>> 1;
+			if (lines.get(middle).address <= address) {
+				found = lines.get(middle);
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return found;
+	}
+
+	// READING AND WRITING
+
+	void write(DataOutputStream out) throws IOException {
+		var section = new ByteArrayOutputStream();
+		var data = new DataOutputStream(section);
+
+		writeString(data, sourceName);
+		writeSection(out, sourceTag, section);
+
+		data.writeInt(routines.size());
+		for (var routine : routines) {
+			data.writeInt(routine.entry);
+			data.writeInt(routine.exit);
+			data.writeInt(routine.level);
+			writeString(data, routine.name);
+		}
+		writeSection(out, routinesTag, section);
+
+		data.writeInt(lines.size());
+		for (var line : lines) {
+			data.writeInt(line.address);
+			data.writeInt(line.start);
+			data.writeInt(line.finish);
+		}
+		writeSection(out, linesTag, section);
+
+		data.writeInt(variables.size());
+		for (var variable : variables) {
+			data.writeInt(variable.level);
+			data.writeInt(variable.displacement);
+			data.writeInt(variable.size);
+			data.writeInt(variable.start);
+			data.writeInt(variable.end);
+			writeString(data, variable.kind);
+			writeString(data, variable.name);
+		}
+		writeSection(out, variablesTag, section);
+	}
+
+	private static void writeSection(DataOutputStream out, int tag, ByteArrayOutputStream section) throws IOException {
+		out.writeInt(tag);
+		out.writeInt(section.size());
+		section.writeTo(out);
+		section.reset();
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		var bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads the sections from the buffer's position to its limit, skipping
+	 * any it does not know.
+	 */
+	static DebugInfo read(ByteBuffer buffer) throws IOException {
+		var info = new DebugInfo(null);
+		try {
+			while (buffer.hasRemaining()) {
+				var tag = buffer.getInt();
+				var length = buffer.getInt();
+				if (length < 0 || length > buffer.remaining()) {
+					throw new IOException("debug section truncated");
+				}
+				var section = buffer.slice(buffer.position(), length);
+				buffer.position(buffer.position() + length);
+				switch (tag) {
+				case sourceTag:
+					info.sourceName = readString(section);
+					break;
+				case routinesTag:
+					for (var count = section.getInt(); count > 0; count--) {
+						var entry = section.getInt();
+						var exit = section.getInt();
+						var level = section.getInt();
+						info.addRoutine(readString(section), entry, exit, level);
+					}
+					break;
+				case linesTag:
+					for (var count = section.getInt(); count > 0; count--) {
+						info.lines.add(new Line(section.getInt(), section.getInt(), section.getInt()));
+					}
+					break;
+				case variablesTag:
+					for (var count = section.getInt(); count > 0; count--) {
+						var level = section.getInt();
+						var displacement = section.getInt();
+						var size = section.getInt();
+						var start = section.getInt();
+						var end = section.getInt();
+						var kind = readString(section);
+						info.variables.add(new Variable(readString(section), kind, level, displacement, size, start, end));
+					}
+					break;
+				}
+			}
+		} catch (RuntimeException e) {
+			throw new IOException("invalid debug section", e);
+		}
+		return info;
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		var bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -30,8 +30,8 @@ public class Instruction {
 	//
 	// type
 	// OpCode = 0..15; {4 bits unsigned}
-	// Length = 0..255; {8 bits unsigned}
-	// Operand = -32767..+32767; {16 bits signed}
+	// Length = 0..+2147483647; {31 bits unsigned}
+	// Operand = -2147483648..+2147483647; {32 bits signed}
 
 	// Represents TAM instructions.
 	final OpCode opCode;
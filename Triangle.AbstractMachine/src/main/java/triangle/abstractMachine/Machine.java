@@ -28,24 +28,44 @@ public final class Machine {
 	// assumed:
 	//
 	// type
-	// Word = -32767..+32767; {16 bits signed}
-	// DoubleWord = -2147483648..+2147483647; {32 bits signed}
-	// CodeAddress = 0..+32767; {15 bits unsigned}
-	// DataAddress = 0..+32767; {15 bits unsigned}
+	// Word = -2147483648..+2147483647; {32 bits signed}
+	// CodeAddress = 0..PB-1 for code, PB..PT-1 for primitives
+	// DataAddress = 0..+2147483647; {31 bits unsigned}
+	//
+	// Integers are still restricted to -maxint..+maxint by the language, so
+	// that programs behave as on the 16-bit machine.
 
 	// INSTRUCTIONS
 
-	// CODE STORE
-
-	public static Instruction[] code = new Instruction[1024];
+	// Operation codes, numbered as the ordinals of OpCode
+	public final static int LOADop = 0, LOADAop = 1, LOADIop = 2, LOADLop = 3, STOREop = 4, STOREIop = 5, CALLop = 6,
+			CALLIop = 7, RETURNop = 8, NOPop = 9, PUSHop = 10, POPop = 11, JUMPop = 12, JUMPIop = 13, JUMPIFop = 14,
+			HALTop = 15;
 
 	// CODE STORE REGISTERS
 
-	public final static int CB = 0, PB = 1024, // = upper bound of code array + 1
-			PT = 1052; // = PB + 28
+	// The primitive routines are at fixed addresses well above any code, so
+	// that their addresses do not depend on the size of the code store.
+	public final static int CB = 0, PB = 1 << 30, // = the greatest code top
+			PT = PB + 28;
 
 	// REGISTER NUMBERS
 
+	// numbered as the ordinals of Register
+	public final static int CBr = 0, CTr = 1, PBr = 2, PTr = 3, SBr = 4, STr = 5, HBr = 6, HTr = 7, LBr = 8, L1r = 9,
+			L2r = 10, L3r = 11, L4r = 12, L5r = 13, L6r = 14, CPr = 15;
+
+	// PRIMITIVE ROUTINES
+
+	// displacements from PB, numbered as the ordinals of Primitive
+	public final static int idDisplacement = 0, notDisplacement = 1, andDisplacement = 2, orDisplacement = 3,
+			succDisplacement = 4, predDisplacement = 5, negDisplacement = 6, addDisplacement = 7, subDisplacement = 8,
+			multDisplacement = 9, divDisplacement = 10, modDisplacement = 11, ltDisplacement = 12, leDisplacement = 13,
+			geDisplacement = 14, gtDisplacement = 15, eqDisplacement = 16, neDisplacement = 17, eolDisplacement = 18,
+			eofDisplacement = 19, getDisplacement = 20, putDisplacement = 21, geteolDisplacement = 22,
+			puteolDisplacement = 23, getintDisplacement = 24, putintDisplacement = 25, newDisplacement = 26,
+			disposeDisplacement = 27;
+
 	// DATA REPRESENTATION
 
 	public final static int booleanSize = 1, characterSize = 1, integerSize = 1, addressSize = 1,
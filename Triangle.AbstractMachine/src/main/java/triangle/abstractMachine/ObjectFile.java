@@ -0,0 +1,211 @@
+package triangle.abstractMachine;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * A TAM object file, read into flat arrays of the operation, register,
+ * length and operand fields of each instruction.
+ *
+ * The packed format starts with a header:
+ *
+ * <pre>
+ *   magic         4 bytes   "TAMP"
+ *   version       2 bytes
+ *   flags         2 bytes   bit 0: wide, bit 1: debug
+ *   instructions  4 bytes
+ * </pre>
+ *
+ * followed by the instructions, big-endian. Each normally takes one word:
+ * op in the top 4 bits, then register in 4 bits, length in 8 bits unsigned
+ * and operand in 16 bits signed. If any instruction's length or operand does
+ * not fit, the file is wide, and every instruction takes three words: op and
+ * register in the top 8 bits of the first, then the length, then the
+ * operand. (In version 1 files, wide instructions took two words, with a
+ * 24-bit length in the first; they are still read.)
+ *
+ * If the debug flag is set, the instructions are followed by the sections of
+ * a DebugInfo, each a 4-byte tag, a 4-byte length and that many bytes.
+ *
+ * The legacy format, in which each instruction is four ints (op, register,
+ * length, operand) with no header, is still read. Its first word is an
+ * operation code, 0 .. 15, so it is never taken for the magic number.
+ *
+ * Files are read by mapping them into memory, and decoded in one pass over
+ * the mapped words, without an Instruction for each.
+ */
+public final class ObjectFile {
+
+	public final static int magic = 0x54414D50; // "TAMP"
+
+	public final static int version = 2;
+
+	private final static int wideFlag = 1, debugFlag = 2;
+
+	private final static int headerSize = 12;
+
+	// the bytes in each legacy instruction
+	private final static int legacySize = 16;
+
+	/** The fields of each instruction, by code address. */
+	public final int[] op, r, n, d;
+
+	/** The code top: the address one beyond the last instruction. */
+	public final int CT;
+
+	/** The debug information written with the code, or null if there is none. */
+	public DebugInfo debugInfo;
+
+	private ObjectFile(int CT) {
+		this.CT = CT;
+		op = new int[CT];
+		r = new int[CT];
+		n = new int[CT];
+		d = new int[CT];
+	}
+
+	/**
+	 * @return the instruction at the given code address
+	 */
+	public Instruction getInstruction(int addr) {
+		return new Instruction(OpCode.values()[op[addr]], Register.values()[r[addr]], n[addr], d[addr]);
+	}
+
+	// READING
+
+	/**
+	 * Reads an object file in either format.
+	 *
+	 * @throws IOException if the file cannot be read, or is not a valid
+	 *                     object file
+	 */
+	public static ObjectFile read(Path path) throws IOException {
+		try (var channel = FileChannel.open(path)) {
+			var size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("object file too large: " + size + " bytes");
+			}
+			return read(channel.map(READ_ONLY, 0, size));
+		}
+	}
+
+	/**
+	 * Reads an object program, in either format, from the buffer's position
+	 * to its limit.
+	 *
+	 * @throws IOException if the buffer does not hold a valid object program
+	 */
+	public static ObjectFile read(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() >= headerSize && buffer.getInt(buffer.position()) == magic) {
+			return readPacked(buffer);
+		}
+		return readLegacy(buffer);
+	}
+
+	private static ObjectFile readPacked(ByteBuffer buffer) throws IOException {
+		buffer.getInt(); // magic
+		var fileVersion = buffer.getShort() & 0xffff;
+		var flags = buffer.getShort() & 0xffff;
+		var CT = buffer.getInt();
+		if (fileVersion < 1 || fileVersion > version) {
+			throw new IOException("unsupported object file version " + fileVersion);
+		}
+		var wide = (flags & wideFlag) != 0;
+		var wordsPerInstruction = !wide ? 1 : fileVersion == 1 ? 2 : 3;
+		if (CT < 0 || (long) CT * 4 * wordsPerInstruction > buffer.remaining()) {
+			throw new IOException("object file truncated: " + CT + " instructions expected");
+		}
+
+		var file = new ObjectFile(CT);
+		var words = buffer.asIntBuffer();
+		for (var addr = 0; addr < CT; addr++) {
+			var word = words.get();
+			file.op[addr] = word >>> 28;
+			file.r[addr] = (word >>> 24) & 0xf;
+			if (wide) {
+				file.n[addr] = fileVersion == 1 ? word << 8 >> 8 : words.get();
+				file.d[addr] = words.get();
+			} else {
+				file.n[addr] = (word >>> 16) & 0xff;
+				file.d[addr] = (short) word;
+			}
+		}
+		if ((flags & debugFlag) != 0) {
+			buffer.position(buffer.position() + 4 * words.position());
+			file.debugInfo = DebugInfo.read(buffer);
+		}
+		return file;
+	}
+
+	private static ObjectFile readLegacy(ByteBuffer buffer) throws IOException {
+		// as Instruction.read, a partial instruction at the end is ignored
+		var file = new ObjectFile(buffer.remaining() / legacySize);
+		var words = buffer.asIntBuffer();
+		for (var addr = 0; addr < file.CT; addr++) {
+			file.op[addr] = words.get();
+			file.r[addr] = words.get();
+			file.n[addr] = words.get();
+			file.d[addr] = words.get();
+			if (file.op[addr] < 0 || file.op[addr] >= OpCode.values().length || file.r[addr] < 0
+					|| file.r[addr] >= Register.values().length) {
+				throw new IOException("invalid instruction at code address " + addr);
+			}
+		}
+		return file;
+	}
+
+	// WRITING
+
+	/**
+	 * Writes code[CB] .. code[CT - 1] in the packed format, without debug
+	 * information.
+	 *
+	 * @throws IOException if the output cannot be written
+	 */
+	public static void write(Instruction[] code, int CT, OutputStream output) throws IOException {
+		write(code, CT, null, output);
+	}
+
+	/**
+	 * Writes code[CB] .. code[CT - 1] in the packed format, wide only if it
+	 * has to be, followed by the debug information if there is any.
+	 *
+	 * @throws IOException if the output cannot be written
+	 */
+	public static void write(Instruction[] code, int CT, DebugInfo debugInfo, OutputStream output)
+			throws IOException {
+		var wide = false;
+		for (var addr = Machine.CB; addr < CT; addr++) {
+			var instr = code[addr];
+			wide = wide || instr.length < 0 || instr.length > 0xff || instr.operand != (short) instr.operand;
+		}
+
+		var out = new DataOutputStream(new BufferedOutputStream(output));
+		out.writeInt(magic);
+		out.writeShort(version);
+		out.writeShort((wide ? wideFlag : 0) | (debugInfo != null ? debugFlag : 0));
+		out.writeInt(CT - Machine.CB);
+		for (var addr = Machine.CB; addr < CT; addr++) {
+			var instr = code[addr];
+			var fields = instr.opCode.ordinal() << 28 | instr.register.ordinal() << 24;
+			if (wide) {
+				out.writeInt(fields);
+				out.writeInt(instr.length);
+				out.writeInt(instr.operand);
+			} else {
+				out.writeInt(fields | instr.length << 16 | instr.operand & 0xffff);
+			}
+		}
+		if (debugInfo != null) {
+			debugInfo.write(out);
+		}
+		out.flush();
+	}
+}
@@ -0,0 +1,224 @@
+package triangle.abstractMachine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestObjectFile {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final static Instruction[] narrowCode = { new Instruction(OpCode.PUSH, Register.CB, 0, 2),
+			new Instruction(OpCode.LOADL, Register.CB, 0, -5), new Instruction(OpCode.STORE, Register.SB, 1, 0),
+			new Instruction(OpCode.LOAD, Register.LB, 255, 32767),
+			new Instruction(OpCode.CALL, Register.PB, 0, Primitive.PUTINT.ordinal()),
+			new Instruction(OpCode.HALT, Register.CB, 0, 0) };
+
+	/* the packed format, narrow and wide */
+
+	@Test
+	public void testNarrowRoundTrip() throws IOException {
+		var bytes = write(narrowCode, null);
+		var buffer = ByteBuffer.wrap(bytes);
+		assertEquals(ObjectFile.magic, buffer.getInt(0));
+		assertEquals(ObjectFile.version, buffer.getShort(4));
+		assertEquals(0, buffer.getShort(6)); // neither wide nor debug
+		assertEquals(12 + 4 * narrowCode.length, bytes.length);
+
+		var file = ObjectFile.read(ByteBuffer.wrap(bytes));
+		assertSameCode(narrowCode, file);
+		assertNull(file.debugInfo);
+	}
+
+	@Test
+	public void testWideRoundTrip() throws IOException {
+		// one operand too wide for 16 bits, and one length too long for 8,
+		// make every instruction wide
+		var code = Arrays.copyOf(narrowCode, narrowCode.length + 2);
+		code[narrowCode.length] = new Instruction(OpCode.LOADL, Register.CB, 0, -40000);
+		code[narrowCode.length + 1] = new Instruction(OpCode.LOAD, Register.SB, 300, 1 << 20);
+		var bytes = write(code, null);
+		assertEquals(1, ByteBuffer.wrap(bytes).getShort(6)); // wide
+		assertEquals(12 + 12 * code.length, bytes.length);
+
+		assertSameCode(code, ObjectFile.read(ByteBuffer.wrap(bytes)));
+	}
+
+	@Test
+	public void testVersion1Wide() throws IOException {
+		// wide instructions in version 1 took two words, with the length in
+		// the low 24 bits of the first
+		var bytes = new ByteArrayOutputStream();
+		var out = new DataOutputStream(bytes);
+		out.writeInt(ObjectFile.magic);
+		out.writeShort(1);
+		out.writeShort(1); // wide
+		out.writeInt(2);
+		out.writeInt(OpCode.LOAD.ordinal() << 28 | Register.SB.ordinal() << 24 | 70000);
+		out.writeInt(-100000);
+		out.writeInt(OpCode.HALT.ordinal() << 28);
+		out.writeInt(0);
+
+		var file = ObjectFile.read(ByteBuffer.wrap(bytes.toByteArray()));
+		assertEquals(2, file.CT);
+		assertEquals(OpCode.LOAD.ordinal(), file.op[0]);
+		assertEquals(Register.SB.ordinal(), file.r[0]);
+		assertEquals(70000, file.n[0]);
+		assertEquals(-100000, file.d[0]);
+		assertEquals(OpCode.HALT.ordinal(), file.op[1]);
+	}
+
+	@Test
+	public void testUnsupportedVersion() {
+		var bytes = write(narrowCode, null);
+		ByteBuffer.wrap(bytes).putShort(4, (short) (ObjectFile.version + 1));
+		assertThrows(IOException.class, () -> ObjectFile.read(ByteBuffer.wrap(bytes)));
+	}
+
+	@Test
+	public void testTruncatedCode() {
+		var bytes = write(narrowCode, null);
+		var truncated = Arrays.copyOf(bytes, bytes.length - 2);
+		assertThrows(IOException.class, () -> ObjectFile.read(ByteBuffer.wrap(truncated)));
+	}
+
+	@Test
+	public void testReadFile() throws IOException {
+		var path = folder.newFile("test.tam").toPath();
+		Files.write(path, write(narrowCode, null));
+		assertSameCode(narrowCode, ObjectFile.read(path));
+	}
+
+	/* the debug section */
+
+	@Test
+	public void testDebugRoundTrip() throws IOException {
+		var info = debugInfo();
+		var file = ObjectFile.read(ByteBuffer.wrap(write(narrowCode, info)));
+		assertSameCode(narrowCode, file);
+
+		var read = file.debugInfo;
+		assertNotNull(read);
+		assertEquals("test.tri", read.getSourceName());
+
+		assertEquals(1, read.getRoutines().size());
+		var routine = read.getRoutine(3);
+		assertEquals("p", routine.name);
+		assertEquals(4, routine.exit);
+		assertEquals(1, routine.level);
+		assertEquals(routine, read.getRoutineAt(4));
+		assertNull(read.getRoutineAt(0));
+
+		assertEquals(3, read.getLines().size());
+		assertEquals(2, read.getLineAt(2).start);
+		assertEquals(5, read.getLineAt(4).finish);
+
+		assertEquals(2, read.getVariables().size());
+		var variable = read.getVariables().get(1);
+		assertEquals("x", variable.name);
+		assertEquals("var", variable.kind);
+		assertEquals(1, variable.level);
+		assertEquals(3, variable.displacement);
+		assertEquals(1, variable.size);
+		assertEquals(3, variable.start);
+		assertEquals(5, variable.getEnd());
+	}
+
+	@Test
+	public void testUnknownDebugSectionSkipped() throws IOException {
+		var bytes = new ByteArrayOutputStream();
+		bytes.write(write(narrowCode, debugInfo()));
+		var out = new DataOutputStream(bytes);
+		out.writeInt(0x58545241); // "XTRA"
+		out.writeInt(4);
+		out.writeInt(42);
+
+		var file = ObjectFile.read(ByteBuffer.wrap(bytes.toByteArray()));
+		assertEquals("test.tri", file.debugInfo.getSourceName());
+		assertEquals(2, file.debugInfo.getVariables().size());
+	}
+
+	@Test
+	public void testTruncatedDebugSection() {
+		var bytes = write(narrowCode, debugInfo());
+		for (var cut : new int[] { 1, 4, 10 }) {
+			var truncated = Arrays.copyOf(bytes, bytes.length - cut);
+			assertThrows(IOException.class, () -> ObjectFile.read(ByteBuffer.wrap(truncated)));
+		}
+	}
+
+	/* the legacy format */
+
+	@Test
+	public void testLegacy() throws IOException {
+		var bytes = new ByteArrayOutputStream();
+		var out = new DataOutputStream(bytes);
+		for (var instr : narrowCode) {
+			instr.write(out);
+		}
+		out.writeInt(0); // a partial instruction, which is ignored
+
+		assertSameCode(narrowCode, ObjectFile.read(ByteBuffer.wrap(bytes.toByteArray())));
+	}
+
+	@Test
+	public void testLegacyInvalidInstruction() throws IOException {
+		var bytes = new ByteArrayOutputStream();
+		var out = new DataOutputStream(bytes);
+		new Instruction(OpCode.HALT, Register.CB, 0, 0).write(out);
+		out.writeInt(OpCode.values().length);
+		out.writeInt(0);
+		out.writeInt(0);
+		out.writeInt(0);
+
+		assertThrows(IOException.class, () -> ObjectFile.read(ByteBuffer.wrap(bytes.toByteArray())));
+	}
+
+	private static DebugInfo debugInfo() {
+		var info = new DebugInfo("test.tri");
+		info.addLine(0, 1, 1);
+		info.addLine(2, 2, 3);
+		info.addLine(2, 2, 2); // replaces the entry before
+		info.addLine(3, 4, 5);
+		info.addRoutine("p", 3, 4, 1);
+		info.addVariable("n", "var", 0, 0, 2, 1);
+		var first = info.getVariableCount();
+		info.addVariable("x", "var", 1, 3, 1, 3);
+		info.closeScopes(first, 5);
+		info.closeScopes(0, 6);
+		return info;
+	}
+
+	private static byte[] write(Instruction[] code, DebugInfo debugInfo) {
+		var bytes = new ByteArrayOutputStream();
+		try {
+			ObjectFile.write(code, code.length, debugInfo, bytes);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void assertSameCode(Instruction[] code, ObjectFile file) {
+		assertEquals(code.length, file.CT);
+		for (var addr = 0; addr < code.length; addr++) {
+			assertEquals("op at " + addr, code[addr].opCode.ordinal(), file.op[addr]);
+			assertEquals("r at " + addr, code[addr].register.ordinal(), file.r[addr]);
+			assertEquals("n at " + addr, code[addr].length, file.n[addr]);
+			assertEquals("d at " + addr, code[addr].operand, file.d[addr]);
+		}
+	}
+}
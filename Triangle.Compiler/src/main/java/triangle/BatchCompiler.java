@@ -0,0 +1,144 @@
+package triangle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import triangle.syntacticAnalyzer.SourceFile;
+
+/**
+ * Compiles many Triangle programs at once, each in a CompilerSession of its
+ * own, on as many threads as there are processors. Each object program is
+ * written beside its source, as x.tam for x.tri.
+ *
+ * For example, to compile the given programs and every program under the
+ * given directory:
+ *
+ * <pre>
+ *   java triangle.BatchCompiler a.tri b.tri programs [folding] [debug] [threads=n]
+ * </pre>
+ */
+public class BatchCompiler {
+
+	final static String sourceSuffix = ".tri", objectSuffix = ".tam";
+
+	static boolean folding = false;
+	static boolean debugging = false;
+
+	static int threads = Runtime.getRuntime().availableProcessors();
+
+	// the source files and directories named
+	static List<Path> sourcePaths = new ArrayList<>();
+
+	/** The outcome of compiling one program: whether it compiled, and the errors reported. */
+	record Result(Path source, boolean successful, String messages) {
+	}
+
+	static Result compile(Path source) {
+		var messages = new ByteArrayOutputStream();
+		var out = new PrintStream(messages, true);
+		var sourceFile = SourceFile.ofPath(source.toString());
+		if (sourceFile == null) {
+			return new Result(source, false, "Can't access source file " + source + System.lineSeparator());
+		}
+
+		var session = new CompilerSession(sourceFile, source.toString(), new ErrorReporter(out));
+		session.setFolding(folding);
+		session.setDebugging(debugging);
+		var successful = session.compile();
+		if (successful) {
+			var name = source.getFileName().toString();
+			var objectName = (name.endsWith(sourceSuffix) ? name.substring(0, name.length() - sourceSuffix.length())
+					: name) + objectSuffix;
+			try (var output = Files.newOutputStream(source.resolveSibling(objectName))) {
+				session.writeObjectProgram(output);
+			} catch (IOException e) {
+				out.println("Error writing object file: " + e);
+				successful = false;
+			}
+		}
+		return new Result(source, successful, messages.toString());
+	}
+
+	static List<Path> findSources() {
+		// Lists the source files named, and the .tri files under the
+		// directories named, in order.
+
+		var sources = new ArrayList<Path>();
+		for (var path : sourcePaths) {
+			if (Files.isDirectory(path)) {
+				try (Stream<Path> files = Files.walk(path)) {
+					files.filter(f -> f.getFileName().toString().endsWith(sourceSuffix) && Files.isRegularFile(f))
+							.sorted().forEach(sources::add);
+				} catch (IOException e) {
+					System.err.println("Error reading source directory: " + e);
+				}
+			} else {
+				sources.add(path);
+			}
+		}
+		return sources;
+	}
+
+	public static void main(String[] args) {
+		System.out.println("********** " + "Triangle Batch Compiler (Java Version 2.1)" + " **********");
+
+		parseArgs(args);
+		var sources = findSources();
+		if (sources.isEmpty()) {
+			System.out.println("Usage: tcb filename|directory ... [folding] [debug] [threads=n]");
+			System.exit(1);
+		}
+
+		var startTime = System.nanoTime();
+		var results = new ArrayList<Future<Result>>();
+		try (var executor = Executors.newFixedThreadPool(threads)) {
+			for (var source : sources) {
+				results.add(executor.submit(() -> compile(source)));
+			}
+		}
+		var elapsed = System.nanoTime() - startTime;
+
+		var compiled = 0;
+		for (var future : results) {
+			try {
+				var result = future.get();
+				System.out.print(result.messages());
+				System.out.println(result.source() + (result.successful() ? ": compiled" : ": failed"));
+				compiled += result.successful() ? 1 : 0;
+			} catch (InterruptedException | ExecutionException e) {
+				System.err.println("Error compiling: " + e);
+			}
+		}
+		System.out.printf("Compiled %d of %d programs in %.1f ms on %d threads%n", compiled, sources.size(),
+				elapsed / 1e6, threads);
+		System.exit(compiled == sources.size() ? 0 : 1);
+	}
+
+	private static void parseArgs(String[] args) {
+		for (String s : args) {
+			var sl = s.toLowerCase();
+			if (sl.equals("folding")) {
+				folding = true;
+			} else if (sl.equals("debug")) {
+				debugging = true;
+			} else if (sl.startsWith("threads=")) {
+				try {
+					threads = Math.max(1, Integer.parseInt(s.substring(8)));
+				} catch (NumberFormatException e) {
+					System.err.println("Error in number of threads: " + e);
+				}
+			} else {
+				sourcePaths.add(Path.of(s));
+			}
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package triangle;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.stream.Stream;
+
+import triangle.abstractMachine.ObjectFile;
+
+/**
+ * A directory of object programs, each named by a hash of everything that
+ * decides its contents: the source text, the compiler that compiled it, and
+ * the options it was compiled with. A program found there need not be
+ * compiled again.
+ *
+ * The directory may be shared by compilers running at once in different
+ * processes. An entry is written to a temporary file and then moved into
+ * place, so that it is only ever seen whole; a lookup of an entry that
+ * another process has just evicted is only a miss. When the entries grow past
+ * the size limit, those used least recently are removed, judged by their
+ * modification times, which a hit brings up to date.
+ */
+public final class CompileCache {
+
+	final static String entrySuffix = ".tam";
+
+	// what is hashed with the source, so that a new compiler or a change in
+	// the object file format does not find the old compiler's programs
+	final static String compilerVersion = "Triangle Compiler (Java Version 2.1), object format 1";
+
+	final static long defaultMaxBytes = 64L << 20;
+
+	// the hash of the compiler's code, once worked out
+	private static volatile String compilerBuild;
+
+	private final Path directory;
+
+	private final long maxBytes;
+
+	/**
+	 * @param directory the cache directory, which is made if need be
+	 * @param maxBytes  the most bytes of entries to keep
+	 */
+	public CompileCache(Path directory, long maxBytes) throws IOException {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		Files.createDirectories(directory);
+	}
+
+	/** @return the cache in the user's cache directory */
+	static Path defaultDirectory() {
+		return Path.of(System.getProperty("user.home"), ".cache", "triangle");
+	}
+
+	// KEYS
+
+	/**
+	 * @param source     the source text
+	 * @param sourceName the name of the source file, which matters only when
+	 *                   debugging, as it is then written in the object file
+	 * @return the key of the object program compiled from the source with the
+	 *         given options
+	 */
+	public static String key(byte[] source, String sourceName, boolean folding, boolean debugging) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		digest.update((compilerVersion + "\n" + compilerBuild() + "\n" + (folding ? "folding" : "") + "\n"
+				+ (debugging ? "debug " + sourceName : "") + "\n").getBytes(StandardCharsets.UTF_8));
+		digest.update(source);
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	private static String compilerBuild() {
+		// Identifies the build of the compiler by a hash of its code, and of
+		// the abstract machine's code that writes the object file: each jar,
+		// or every class in the directory when not run from a jar, so that
+		// programs compiled by any other build are not used. It is worked out
+		// once, as the code does not change while the compiler runs.
+
+		if (compilerBuild == null) {
+			try {
+				var digest = MessageDigest.getInstance("SHA-256");
+				for (var type : new Class<?>[] { CompileCache.class, ObjectFile.class }) {
+					hashClasses(digest, Path.of(type.getProtectionDomain().getCodeSource().getLocation().toURI()));
+				}
+				compilerBuild = HexFormat.of().formatHex(digest.digest());
+			} catch (Exception e) {
+				compilerBuild = "";
+			}
+		}
+		return compilerBuild;
+	}
+
+	private static void hashClasses(MessageDigest digest, Path location) throws IOException {
+		if (!Files.isDirectory(location)) {
+			digest.update(Files.readAllBytes(location));
+			return;
+		}
+		try (Stream<Path> files = Files.walk(location)) {
+			var classes = files.filter(f -> f.toString().endsWith(".class")).sorted().toList();
+			for (var file : classes) {
+				digest.update(location.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+				digest.update(Files.readAllBytes(file));
+			}
+		}
+	}
+
+	// LOOKING UP AND STORING
+
+	/**
+	 * Copies the object program with the given key to the named file.
+	 *
+	 * @return true iff the cache held it
+	 */
+	public boolean lookUp(String key, Path objectFile) {
+		var entry = directory.resolve(key + entrySuffix);
+		try {
+			Files.copy(entry, objectFile, StandardCopyOption.REPLACE_EXISTING);
+		} catch (NoSuchFileException e) {
+			return false;
+		} catch (IOException e) {
+			System.err.println("Error reading compile cache: " + e);
+			return false;
+		}
+		try {
+			Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// evicted since it was copied, which does no harm
+		}
+		return true;
+	}
+
+	/**
+	 * Keeps an object program under the given key, then evicts the entries
+	 * used least recently if the cache has grown too big.
+	 */
+	public void store(String key, byte[] object) {
+		try {
+			var temporary = Files.createTempFile(directory, key, ".tmp");
+			try {
+				Files.write(temporary, object);
+				Files.move(temporary, directory.resolve(key + entrySuffix), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temporary);
+			}
+			evict();
+		} catch (IOException e) {
+			System.err.println("Error writing compile cache: " + e);
+		}
+	}
+
+	record Entry(Path path, long size, long lastUsed) {
+	}
+
+	void evict() throws IOException {
+		// Entries may vanish as they are listed, when another process evicts
+		// them too; they are simply not counted.
+
+		var entries = new ArrayList<Entry>();
+		var total = 0L;
+		try (Stream<Path> files = Files.list(directory)) {
+			for (var path : (Iterable<Path>) files::iterator) {
+				if (!path.getFileName().toString().endsWith(entrySuffix)) {
+					continue;
+				}
+				try {
+					var entry = new Entry(path, Files.size(path), Files.getLastModifiedTime(path).toMillis());
+					entries.add(entry);
+					total += entry.size();
+				} catch (NoSuchFileException e) {
+					// evicted by another process
+				}
+			}
+		}
+		if (total <= maxBytes) {
+			return;
+		}
+		entries.sort(Comparator.comparingLong(Entry::lastUsed));
+		for (var entry : entries) {
+			if (total <= maxBytes) {
+				break;
+			}
+			Files.deleteIfExists(entry.path());
+			total -= entry.size();
+		}
+	}
+}
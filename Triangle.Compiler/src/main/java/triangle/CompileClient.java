@@ -0,0 +1,158 @@
+package triangle;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import triangle.CompileServer.Request;
+import triangle.CompileServer.Response;
+
+/**
+ * Compiles a Triangle program as the Compiler does, but by asking a running
+ * CompileServer to, which saves starting and warming up a compiler each time.
+ * If no server is running, the program is compiled in this process instead,
+ * with the same result.
+ *
+ * For example:
+ *
+ * <pre>
+ *   java triangle.CompileClient prog.tri [-o=prog.tam] [folding] [debug] [bypath] [socket=path]
+ *   java triangle.CompileClient stop [socket=path]
+ * </pre>
+ *
+ * bypath sends the server the path of the source file rather than its text,
+ * for the server to read itself; stop asks the server to stop.
+ */
+public class CompileClient {
+
+	static String objectName = "obj.tam";
+
+	static boolean folding = false;
+	static boolean debugging = false;
+	static boolean byPath = false;
+	static boolean stopping = false;
+
+	static Path socketPath = CompileServer.defaultSocketPath();
+
+	static String sourceName;
+
+	/**
+	 * Sends a request to the server.
+	 *
+	 * @return its response, or null if no server is listening on the socket,
+	 *         or the server stopped before answering
+	 * @throws IOException if the server could not complete the request
+	 */
+	static Response send(Request request) throws IOException {
+		SocketChannel channel;
+		try {
+			channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath));
+		} catch (IOException e) {
+			return null;
+		}
+		try (channel) {
+			request.write(new DataOutputStream(Channels.newOutputStream(channel)));
+			return Response.read(new DataInputStream(Channels.newInputStream(channel)));
+		} catch (EOFException e) {
+			// connected just as the server was told to stop
+			return null;
+		}
+	}
+
+	static Response compile() throws IOException {
+		// Asks the server to compile the program, or compiles it here if there
+		// is no server.
+
+		var flags = (folding ? CompileServer.foldingFlag : 0) | (debugging ? CompileServer.debugFlag : 0);
+		Request request;
+		if (byPath) {
+			var path = Path.of(sourceName).toAbsolutePath().toString();
+			request = new Request(flags | CompileServer.pathFlag, sourceName, path.getBytes(StandardCharsets.UTF_8));
+		} else {
+			try {
+				request = new Request(flags, sourceName, Files.readAllBytes(Path.of(sourceName)));
+			} catch (IOException e) {
+				return new Response(CompileServer.failedRequest, "Can't access source file " + sourceName
+						+ System.lineSeparator(), new byte[0]);
+			}
+		}
+
+		var response = send(request);
+		if (response == null) {
+			System.out.println("No compile server on " + socketPath + ", compiling here ...");
+			response = CompileServer.compile(request);
+		}
+		return response;
+	}
+
+	public static void main(String[] args) {
+		System.out.println("********** " + "Triangle Compile Client (Java Version 2.1)" + " **********");
+
+		parseArgs(args);
+		if (stopping) {
+			try {
+				var response = send(new Request(CompileServer.stopFlag, "", new byte[0]));
+				System.out.println(response == null ? "No compile server on " + socketPath : "Server stopped.");
+			} catch (IOException e) {
+				System.err.println("Error stopping compile server: " + e);
+				System.exit(1);
+			}
+			System.exit(0);
+		}
+		if (sourceName == null) {
+			System.out.println("Usage: tcc filename [-o=outputfilename] [folding] [debug] [bypath] [socket=path]");
+			System.out.println("       tcc stop [socket=path]");
+			System.exit(1);
+		}
+
+		Response response;
+		try {
+			response = compile();
+		} catch (IOException e) {
+			System.err.println("Error talking to compile server: " + e);
+			System.exit(1);
+			return;
+		}
+
+		System.out.print(response.messages());
+		var successful = response.status() == CompileServer.compiled;
+		if (successful) {
+			try {
+				Files.write(Path.of(objectName), response.object());
+			} catch (IOException e) {
+				System.err.println("Error writing object file: " + e);
+				successful = false;
+			}
+		}
+		System.out.println(successful ? "Compilation was successful." : "Compilation was unsuccessful.");
+		System.exit(successful ? 0 : 1);
+	}
+
+	private static void parseArgs(String[] args) {
+		for (String s : args) {
+			var sl = s.toLowerCase();
+			if (sl.startsWith("-o=")) {
+				objectName = s.substring(3);
+			} else if (sl.equals("folding")) {
+				folding = true;
+			} else if (sl.equals("debug")) {
+				debugging = true;
+			} else if (sl.equals("bypath")) {
+				byPath = true;
+			} else if (sl.equals("stop")) {
+				stopping = true;
+			} else if (sl.startsWith("socket=")) {
+				socketPath = Path.of(s.substring(7));
+			} else if (sourceName == null) {
+				sourceName = s;
+			}
+		}
+	}
+}
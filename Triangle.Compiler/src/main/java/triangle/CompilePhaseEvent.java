@@ -0,0 +1,112 @@
+package triangle;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import triangle.abstractSyntaxTrees.AbstractSyntaxTree;
+
+/**
+ * A Java Flight Recorder event for one phase of a compilation: parse, check,
+ * fold, encode or save.
+ *
+ * The event records the size of the AST and of the object program after the
+ * phase. Both are only counted if the event is to be recorded, and the
+ * Compiler only creates the event once a recording has been started, so a
+ * compilation run without a recording does no more work than before.
+ */
+@Name("triangle.CompilePhase")
+@Label("Compile Phase")
+@Category({ "Triangle", "Compiler" })
+@Description("A phase of the Triangle compiler")
+final class CompilePhaseEvent extends Event {
+
+	@Label("Phase")
+	String phase;
+
+	@Label("Source")
+	String source;
+
+	@Label("AST Nodes")
+	@Description("The nodes in the AST after the phase")
+	int nodes;
+
+	@Label("Instructions")
+	@Description("The TAM instructions emitted by the end of the phase")
+	int instructions;
+
+	@Label("Errors")
+	@Description("The errors reported by the end of the phase")
+	int errors;
+
+	/**
+	 * Starts timing a phase.
+	 */
+	static CompilePhaseEvent begin(String phase, String source) {
+		var event = new CompilePhaseEvent();
+		event.phase = phase;
+		event.source = source;
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Ends the phase, and records the event if it is enabled.
+	 */
+	void end(CompilerSession session) {
+		end();
+		if (shouldCommit()) {
+			nodes = countNodes(session.getAST());
+			instructions = session.getCodeTop();
+			errors = session.getReporter().getNumErrors();
+			commit();
+		}
+	}
+
+	private static int countNodes(AbstractSyntaxTree ast) {
+		// Counts the nodes reachable from ast through its public fields,
+		// leaving out the links that contextual analysis adds from an
+		// identifier to its declaration, and from an expression to its type,
+		// which lead out of the subtree.
+
+		Set<AbstractSyntaxTree> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+		var work = new ArrayDeque<AbstractSyntaxTree>();
+		if (ast != null) {
+			work.add(ast);
+		}
+		while (!work.isEmpty()) {
+			var node = work.remove();
+			if (!seen.add(node)) {
+				continue;
+			}
+			for (var field : node.getClass().getFields()) {
+				var child = child(node, field);
+				if (child != null) {
+					work.add(child);
+				}
+			}
+		}
+		return seen.size();
+	}
+
+	private static AbstractSyntaxTree child(AbstractSyntaxTree node, Field field) {
+		if (Modifier.isStatic(field.getModifiers()) || !AbstractSyntaxTree.class.isAssignableFrom(field.getType())
+				|| field.getName().equals("decl") || field.getName().equals("type")) {
+			return null;
+		}
+		try {
+			return (AbstractSyntaxTree) field.get(node);
+		} catch (IllegalAccessException e) {
+			return null;
+		}
+	}
+}
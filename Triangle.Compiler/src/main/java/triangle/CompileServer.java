@@ -0,0 +1,311 @@
+package triangle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+
+import triangle.syntacticAnalyzer.SourceFile;
+
+/**
+ * A compiler that stays running, so that its JVM is started and its code
+ * compiled by the JIT only once, and compiles programs sent to it over a
+ * Unix domain socket by the CompileClient. Each connection carries one
+ * request, and is served on a virtual thread of its own by a CompilerSession
+ * of its own.
+ *
+ * For example:
+ *
+ * <pre>
+ *   java triangle.CompileServer [socket=path] &amp;
+ *   java triangle.CompileClient prog.tri -o=prog.tam
+ * </pre>
+ *
+ * A request is:
+ *
+ * <pre>
+ *   magic         4 bytes   "TCRQ"
+ *   version       2 bytes
+ *   flags         2 bytes   bit 0: folding, bit 1: debug, bit 2: source is a path, bit 3: stop the server
+ *   name          4 bytes length, then UTF-8   the name of the source file
+ *   source        4 bytes length, then bytes   the program, or the path of its file
+ * </pre>
+ *
+ * and a response:
+ *
+ * <pre>
+ *   magic         4 bytes   "TCRS"
+ *   version       2 bytes
+ *   status        2 bytes   0: compiled, 1: errors in the program, 2: the request failed
+ *   messages      4 bytes length, then UTF-8   as the compiler would print them
+ *   object        4 bytes length, then bytes   the object file, if compiled
+ * </pre>
+ *
+ * The socket file is made with the permissions of the user who starts the
+ * server, and a source path is read with that user's rights, so the server
+ * should not be shared between users.
+ */
+public class CompileServer {
+
+	final static int requestMagic = 0x54435251, // "TCRQ"
+			responseMagic = 0x54435253; // "TCRS"
+
+	final static int version = 1;
+
+	final static int foldingFlag = 1, debugFlag = 2, pathFlag = 4, stopFlag = 8;
+
+	final static int compiled = 0, failedErrors = 1, failedRequest = 2;
+
+	// the largest source or message accepted, in bytes
+	final static int maxLength = 1 << 26;
+
+	// the compilations of a small program made at start-up, to have the
+	// compiler's code compiled by the JIT before the first request
+	final static int warmUpCompilations = 200;
+
+	private final static String warmUpProgram = """
+			let
+			  type R ~ record n : Integer, c : Char end;
+			  var a : array 10 of R;
+			  var i : Integer;
+			  func f(x : Integer) : Integer ~ if x < 2 then 1 else x * f(x - 1);
+			  proc p(var r : R) ~ begin r.n := f(r.n); put(r.c) end
+			in begin
+			  i := 0;
+			  while i < 10 do begin a[i] := {n ~ i, c ~ 'x'}; p(var a[i]); i := i + 1 end;
+			  putint(a[3].n); puteol()
+			end
+			""";
+
+	static Path socketPath = defaultSocketPath();
+
+	/** A request to compile a program, or to stop. */
+	record Request(int flags, String sourceName, byte[] source) {
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeInt(requestMagic);
+			out.writeShort(version);
+			out.writeShort(flags);
+			writeBytes(out, sourceName.getBytes(StandardCharsets.UTF_8));
+			writeBytes(out, source);
+			out.flush();
+		}
+
+		static Request read(DataInputStream in) throws IOException {
+			if (in.readInt() != requestMagic) {
+				throw new IOException("not a compile request");
+			}
+			var requestVersion = in.readUnsignedShort();
+			if (requestVersion != version) {
+				throw new IOException("unsupported compile request version " + requestVersion);
+			}
+			var flags = in.readUnsignedShort();
+			var sourceName = new String(readBytes(in), StandardCharsets.UTF_8);
+			return new Request(flags, sourceName, readBytes(in));
+		}
+	}
+
+	/** The outcome of a request: the compiler's messages, and the object file if it compiled. */
+	record Response(int status, String messages, byte[] object) {
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeInt(responseMagic);
+			out.writeShort(version);
+			out.writeShort(status);
+			writeBytes(out, messages.getBytes(StandardCharsets.UTF_8));
+			writeBytes(out, object);
+			out.flush();
+		}
+
+		static Response read(DataInputStream in) throws IOException {
+			if (in.readInt() != responseMagic) {
+				throw new IOException("not a compile response");
+			}
+			var responseVersion = in.readUnsignedShort();
+			if (responseVersion != version) {
+				throw new IOException("unsupported compile response version " + responseVersion);
+			}
+			var status = in.readUnsignedShort();
+			var messages = new String(readBytes(in), StandardCharsets.UTF_8);
+			return new Response(status, messages, readBytes(in));
+		}
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		var length = in.readInt();
+		if (length < 0 || length > maxLength) {
+			throw new IOException("invalid length " + length);
+		}
+		var bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * @return the socket in the temporary directory named for the user, which
+	 *         the server and client use unless told otherwise
+	 */
+	static Path defaultSocketPath() {
+		return Path.of(System.getProperty("java.io.tmpdir"), "triangle-compiler-" + System.getProperty("user.name")
+				+ ".sock");
+	}
+
+	// COMPILING
+
+	/**
+	 * Compiles the program in a request, in a session of its own.
+	 */
+	static Response compile(Request request) {
+		byte[] source;
+		if ((request.flags() & pathFlag) != 0) {
+			try {
+				source = Files.readAllBytes(Path.of(new String(request.source(), StandardCharsets.UTF_8)));
+			} catch (IOException e) {
+				return new Response(failedRequest, "Can't access source file " + request.sourceName()
+						+ System.lineSeparator(), new byte[0]);
+			}
+		} else {
+			source = request.source();
+		}
+
+		var messages = new ByteArrayOutputStream();
+		var session = new CompilerSession(SourceFile.ofBytes(source), request.sourceName(),
+				new ErrorReporter(new PrintStream(messages, true, StandardCharsets.UTF_8)));
+		session.setFolding((request.flags() & foldingFlag) != 0);
+		session.setDebugging((request.flags() & debugFlag) != 0);
+		if (!session.compile()) {
+			return new Response(failedErrors, messages.toString(StandardCharsets.UTF_8), new byte[0]);
+		}
+		var object = new ByteArrayOutputStream();
+		try {
+			session.writeObjectProgram(object);
+		} catch (IOException e) {
+			return new Response(failedRequest, "Error writing object file: " + e + System.lineSeparator(),
+					new byte[0]);
+		}
+		return new Response(compiled, messages.toString(StandardCharsets.UTF_8), object.toByteArray());
+	}
+
+	static void warmUp() {
+		var source = warmUpProgram.getBytes(StandardCharsets.UTF_8);
+		for (var i = 0; i < warmUpCompilations; i++) {
+			compile(new Request(debugFlag, "warm-up", source));
+		}
+	}
+
+	// SERVING
+
+	static void serve(ServerSocketChannel server) throws IOException {
+		// Serves requests until one asks the server to stop, which closes the
+		// server socket so that no more are accepted, then returns once the
+		// requests already accepted have been answered.
+
+		try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			while (true) {
+				SocketChannel channel;
+				try {
+					channel = server.accept();
+				} catch (ClosedChannelException e) {
+					System.out.println("Stopping.");
+					return;
+				}
+				executor.submit(() -> {
+					if (handle(channel)) {
+						try {
+							server.close();
+						} catch (IOException e) {
+							System.err.println("Error stopping compile server: " + e);
+						}
+					}
+				});
+			}
+		}
+	}
+
+	static boolean handle(SocketChannel channel) {
+		// Serves one request, and returns whether it asked the server to
+		// stop.
+
+		try (channel) {
+			var in = new DataInputStream(Channels.newInputStream(channel));
+			var out = new DataOutputStream(Channels.newOutputStream(channel));
+			var request = Request.read(in);
+			if ((request.flags() & stopFlag) != 0) {
+				new Response(compiled, "", new byte[0]).write(out);
+				return true;
+			}
+			compile(request).write(out);
+		} catch (IOException e) {
+			System.err.println("Error serving compile request: " + e);
+		}
+		return false;
+	}
+
+	static ServerSocketChannel bind() throws IOException {
+		// Binds the socket, replacing a socket file left by a server that is
+		// no longer running, but not one that is.
+
+		var address = UnixDomainSocketAddress.of(socketPath);
+		if (Files.exists(socketPath)) {
+			var running = false;
+			try {
+				SocketChannel.open(address).close();
+				running = true;
+			} catch (IOException e) {
+				Files.deleteIfExists(socketPath);
+			}
+			if (running) {
+				throw new IOException("a compile server is already running on " + socketPath);
+			}
+		}
+		var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		server.bind(address);
+		return server;
+	}
+
+	public static void main(String[] args) {
+		System.out.println("********** " + "Triangle Compile Server (Java Version 2.1)" + " **********");
+
+		parseArgs(args);
+		try (var server = bind()) {
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				try {
+					Files.deleteIfExists(socketPath);
+				} catch (IOException e) {
+					// nothing more to do on the way out
+				}
+			}));
+			warmUp();
+			System.out.println("Listening on " + socketPath);
+			serve(server);
+		} catch (IOException e) {
+			System.err.println("Error running compile server: " + e);
+			System.exit(1);
+		}
+	}
+
+	private static void parseArgs(String[] args) {
+		for (String s : args) {
+			var sl = s.toLowerCase();
+			if (sl.startsWith("socket=")) {
+				socketPath = Path.of(s.substring(7));
+			}
+		}
+	}
+}
@@ -18,13 +18,11 @@
 
 package triangle;
 
-import triangle.abstractSyntaxTrees.Program;
-import triangle.codeGenerator.Emitter;
-import triangle.codeGenerator.Encoder;
-import triangle.contextualAnalyzer.Checker;
-import triangle.optimiser.ConstantFolder;
-import triangle.syntacticAnalyzer.Parser;
-import triangle.syntacticAnalyzer.Scanner;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 import triangle.syntacticAnalyzer.SourceFile;
 import triangle.treeDrawer.Drawer;
 
@@ -38,17 +36,13 @@ public class Compiler {
 	
 	static boolean showTree = false;
 	static boolean folding = false;
+	static boolean debugging = false;
 
-	private static Scanner scanner;
-	private static Parser parser;
-	private static Checker checker;
-	private static Encoder encoder;
-	private static Emitter emitter;
-	private static ErrorReporter reporter;
-	private static Drawer drawer;
+	// the directory of the compile cache, or null if not caching
+	static Path cacheDirectory = null;
+	static long cacheBytes = CompileCache.defaultMaxBytes;
 
-	/** The AST representing the source program. */
-	private static Program theAST;
+	private static CompilerSession session;
 
 	/**
 	 * Compile the source program to TAM machine code.
@@ -67,46 +61,79 @@ public class Compiler {
 
 		System.out.println("********** " + "Triangle Compiler (Java Version 2.1)" + " **********");
 
-		System.out.println("Syntactic Analysis ...");
-		SourceFile source = SourceFile.ofPath(sourceName);
-
-		if (source == null) {
+		byte[] sourceBytes = null;
+		try {
+			sourceBytes = Files.readAllBytes(Path.of(sourceName));
+		} catch (IOException e) {
 			System.out.println("Can't access source file " + sourceName);
 			System.exit(1);
 		}
 
-		scanner = new Scanner(source);
-		reporter = new ErrorReporter(false);
-		parser = new Parser(scanner, reporter);
-		checker = new Checker(reporter);
-		emitter = new Emitter(reporter);
-		encoder = new Encoder(emitter, reporter);
-		drawer = new Drawer();
+		// the tree and the table can only be shown for a program that has
+		// been compiled
+		CompileCache cache = null;
+		String cacheKey = null;
+		if (cacheDirectory != null && !showingAST && !showingTable) {
+			try {
+				cache = new CompileCache(cacheDirectory, cacheBytes);
+				cacheKey = CompileCache.key(sourceBytes, sourceName, folding, debugging);
+				if (cache.lookUp(cacheKey, Path.of(objectName))) {
+					System.out.println("Using cached object program ...");
+					System.out.println("Compilation was successful.");
+					return true;
+				}
+			} catch (IOException e) {
+				System.err.println("Error opening compile cache: " + e);
+				cache = null;
+			}
+		}
+
+		System.out.println("Syntactic Analysis ...");
+		session = new CompilerSession(SourceFile.ofBytes(sourceBytes), sourceName);
+		session.setDebugging(debugging);
 
 		// scanner.enableDebugging();
-		theAST = parser.parseProgram(); // 1st pass
-		if (reporter.getNumErrors() == 0) {
+		var phase = beginPhase("parse", sourceName);
+		var successful = session.parse(); // 1st pass
+		endPhase(phase);
+		if (successful) {
 			// if (showingAST) {
 			// drawer.draw(theAST);
 			// }
 			System.out.println("Contextual Analysis ...");
-			checker.check(theAST); // 2nd pass
+			phase = beginPhase("check", sourceName);
+			successful = session.check(); // 2nd pass
+			endPhase(phase);
 			if (showingAST) {
-				drawer.draw(theAST);
+				new Drawer().draw(session.getAST());
 			}
 			if (folding) {
-				theAST.visit(new ConstantFolder());
+				phase = beginPhase("fold", sourceName);
+				session.fold();
+				endPhase(phase);
 			}
 			
-			if (reporter.getNumErrors() == 0) {
+			if (successful) {
 				System.out.println("Code Generation ...");
-				encoder.encodeRun(theAST, showingTable); // 3rd pass
+				phase = beginPhase("encode", sourceName);
+				successful = session.encode(showingTable); // 3rd pass
+				endPhase(phase);
 			}
 		}
 
-		boolean successful = (reporter.getNumErrors() == 0);
 		if (successful) {
-			emitter.saveObjectProgram(objectName);
+			phase = beginPhase("save", sourceName);
+			session.saveObjectProgram(objectName);
+			endPhase(phase);
+			if (cache != null) {
+				var object = new ByteArrayOutputStream();
+				try {
+					session.writeObjectProgram(object);
+					cache.store(cacheKey, object.toByteArray());
+				} catch (IOException e) {
+					System.err.println("Error writing compile cache: " + e);
+				}
+			}
 			System.out.println("Compilation was successful.");
 		} else {
 			System.out.println("Compilation was unsuccessful.");
@@ -114,6 +141,22 @@ public class Compiler {
 		return successful;
 	}
 
+	private static CompilePhaseEvent beginPhase(String phase, String sourceName) {
+		// The flight recorder sets jdk.jfr.repository once it has started a
+		// recording. Until then the event class is not loaded at all, since
+		// loading it would start the flight recorder.
+		if (System.getProperty("jdk.jfr.repository") == null) {
+			return null;
+		}
+		return CompilePhaseEvent.begin(phase, sourceName);
+	}
+
+	private static void endPhase(CompilePhaseEvent phase) {
+		if (phase != null) {
+			phase.end(session);
+		}
+	}
+
 	/**
 	 * Triangle compiler main program.
 	 *
@@ -123,7 +166,7 @@ public class Compiler {
 	public static void main(String[] args) {
 
 		if (args.length < 1) {
-			System.out.println("Usage: tc filename [-o=outputfilename] [tree] [folding]");
+			System.out.println("Usage: tc filename [-o=outputfilename] [tree] [folding] [debug] [cache[=directory]] [cachesize=megabytes]");
 			System.exit(1);
 		}
 		
@@ -147,6 +190,18 @@ public class Compiler {
 				objectName = s.substring(3);
 			} else if (sl.equals("folding")) {
 				folding = true;
+			} else if (sl.equals("debug")) {
+				debugging = true;
+			} else if (sl.equals("cache")) {
+				cacheDirectory = CompileCache.defaultDirectory();
+			} else if (sl.startsWith("cache=")) {
+				cacheDirectory = Path.of(s.substring(6));
+			} else if (sl.startsWith("cachesize=")) {
+				try {
+					cacheBytes = Long.parseLong(s.substring(10)) << 20;
+				} catch (NumberFormatException e) {
+					System.err.println("Error in cache size: " + e);
+				}
 			}
 		}
 	}
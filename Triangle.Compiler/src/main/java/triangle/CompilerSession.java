@@ -0,0 +1,198 @@
+package triangle;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import triangle.abstractMachine.DebugInfo;
+import triangle.abstractMachine.Instruction;
+import triangle.abstractSyntaxTrees.Program;
+import triangle.codeGenerator.Emitter;
+import triangle.codeGenerator.Encoder;
+import triangle.contextualAnalyzer.Checker;
+import triangle.optimiser.ConstantFolder;
+import triangle.syntacticAnalyzer.Parser;
+import triangle.syntacticAnalyzer.Scanner;
+import triangle.syntacticAnalyzer.SourceFile;
+
+/**
+ * One compilation of one Triangle program, with its own scanner, parser,
+ * checker, encoder and code store. The only state that sessions share is the
+ * StdEnvironment, which is never changed, so sessions can run at once on
+ * different threads. For example, to compile many programs at once:
+ *
+ * <pre>
+ * try (var executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())) {
+ * 	for (var name : sourceNames) {
+ * 		executor.submit(() -&gt; {
+ * 			var session = new CompilerSession(SourceFile.ofPath(name), name);
+ * 			if (session.compile()) {
+ * 				session.saveObjectProgram(name.replace(".tri", ".tam"));
+ * 			}
+ * 		});
+ * 	}
+ * }
+ * </pre>
+ *
+ * A session compiles its program once; the phases may be run one at a time,
+ * in order, or all together by compile.
+ */
+public final class CompilerSession {
+
+	private final SourceFile source;
+
+	private final String sourceName;
+
+	private final ErrorReporter reporter;
+
+	private final Emitter emitter;
+
+	private final Encoder encoder;
+
+	private boolean folding;
+
+	// the debug information to write with the program, or null
+	private DebugInfo debugInfo;
+
+	/** The AST representing the source program, once it has been parsed. */
+	private Program theAST;
+
+	/**
+	 * @param source     the source program
+	 * @param sourceName the name of its file, recorded in the debug
+	 *                   information
+	 * @param reporter   where to report errors
+	 */
+	public CompilerSession(SourceFile source, String sourceName, ErrorReporter reporter) {
+		this.source = source;
+		this.sourceName = sourceName;
+		this.reporter = reporter;
+		emitter = new Emitter(reporter);
+		encoder = new Encoder(emitter, reporter);
+	}
+
+	/**
+	 * Makes a session that reports errors on standard output.
+	 */
+	public CompilerSession(SourceFile source, String sourceName) {
+		this(source, sourceName, new ErrorReporter(false));
+	}
+
+	/**
+	 * Selects whether compile folds constant expressions after contextual
+	 * analysis.
+	 */
+	public void setFolding(boolean folding) {
+		this.folding = folding;
+	}
+
+	/**
+	 * Selects whether to record debug information as the program is encoded,
+	 * to be written with the object program.
+	 */
+	public void setDebugging(boolean debugging) {
+		debugInfo = debugging ? new DebugInfo(sourceName) : null;
+		encoder.setDebugInfo(debugInfo);
+	}
+
+	// PHASES
+
+	/**
+	 * Runs every phase, stopping at the first that reports errors.
+	 *
+	 * @return true iff the source program is free of compile-time errors
+	 */
+	public boolean compile() {
+		if (!parse() || !check()) {
+			return false;
+		}
+		if (folding) {
+			fold();
+		}
+		return encode(false);
+	}
+
+	/**
+	 * Parses the source program (1st pass).
+	 *
+	 * @return true iff no errors have been reported so far
+	 */
+	public boolean parse() {
+		theAST = new Parser(new Scanner(source), reporter).parseProgram();
+		return reporter.getNumErrors() == 0;
+	}
+
+	/**
+	 * Checks the scope and type rules, and decorates the AST (2nd pass).
+	 *
+	 * @return true iff no errors have been reported so far
+	 */
+	public boolean check() {
+		new Checker(reporter).check(theAST);
+		return reporter.getNumErrors() == 0;
+	}
+
+	/**
+	 * Folds constant expressions in the checked AST.
+	 */
+	public void fold() {
+		theAST.visit(new ConstantFolder());
+	}
+
+	/**
+	 * Generates the object program (3rd pass).
+	 *
+	 * @param showingTable true iff the object description details are to be
+	 *                     displayed
+	 * @return true iff no errors have been reported so far
+	 */
+	public boolean encode(boolean showingTable) {
+		encoder.encodeRun(theAST, showingTable);
+		return reporter.getNumErrors() == 0;
+	}
+
+	// RESULTS
+
+	public String getSourceName() {
+		return sourceName;
+	}
+
+	public ErrorReporter getReporter() {
+		return reporter;
+	}
+
+	/** @return the AST, or null if the program has not been parsed */
+	public Program getAST() {
+		return theAST;
+	}
+
+	/** @return the address one beyond the last instruction emitted */
+	public int getCodeTop() {
+		return emitter.getNextInstrAddr();
+	}
+
+	/** @return the object program, from CB up to getCodeTop() */
+	public Instruction[] getCode() {
+		return emitter.getCode();
+	}
+
+	/** @return the debug information, or null if none was recorded */
+	public DebugInfo getDebugInfo() {
+		return debugInfo;
+	}
+
+	/**
+	 * Saves the object program, with its debug information if any, in the
+	 * named file, reporting any failure on standard error.
+	 */
+	public void saveObjectProgram(String objectName) {
+		emitter.saveObjectProgram(objectName, debugInfo);
+	}
+
+	/**
+	 * Writes the object program, with its debug information if any, to the
+	 * given stream, which is left open.
+	 */
+	public void writeObjectProgram(OutputStream output) throws IOException {
+		emitter.writeObjectProgram(output, debugInfo);
+	}
+}
@@ -18,6 +18,8 @@
 
 package triangle;
 
+import java.io.PrintStream;
+
 import triangle.syntacticAnalyzer.SourcePosition;
 
 public class ErrorReporter {
@@ -26,12 +28,25 @@ public class ErrorReporter {
 	
 	private boolean throwExceptions;
 
+	private final PrintStream out;
+
 	/**
 	 * @param throwExceptions if true, throw exceptions (good for unit tests) otherwise write to stdout
 	 */
 	public ErrorReporter(boolean throwExceptions) {
 		numErrors = 0;
 		this.throwExceptions = throwExceptions;
+		this.out = System.out;
+	}
+
+	/**
+	 * @param out where to write the errors, such as a stream of its own for
+	 *            each of several compilations running at once
+	 */
+	public ErrorReporter(PrintStream out) {
+		numErrors = 0;
+		this.throwExceptions = false;
+		this.out = out;
 	}
 
 	public void reportError(String message, String tokenName, SourcePosition pos) {
@@ -50,13 +65,13 @@ public class ErrorReporter {
 		if (throwExceptions) {
 			throw new RuntimeException(s);
 		} else {
-			System.out.println(s);
+			out.println(s);
 		}
 		
 	}
 
 	public void reportRestriction(String message) {
-		System.out.println("RESTRICTION: " + message);
+		out.println("RESTRICTION: " + message);
 	}
 	
 	public int getNumErrors() {
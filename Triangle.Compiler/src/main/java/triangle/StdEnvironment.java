@@ -18,33 +18,200 @@
 
 package triangle;
 
+import triangle.abstractMachine.Machine;
+import triangle.abstractMachine.Primitive;
+import triangle.abstractSyntaxTrees.commands.EmptyCommand;
 import triangle.abstractSyntaxTrees.declarations.BinaryOperatorDeclaration;
 import triangle.abstractSyntaxTrees.declarations.ConstDeclaration;
 import triangle.abstractSyntaxTrees.declarations.FuncDeclaration;
 import triangle.abstractSyntaxTrees.declarations.ProcDeclaration;
 import triangle.abstractSyntaxTrees.declarations.UnaryOperatorDeclaration;
+import triangle.abstractSyntaxTrees.expressions.EmptyExpression;
+import triangle.abstractSyntaxTrees.expressions.IntegerExpression;
+import triangle.abstractSyntaxTrees.formals.ConstFormalParameter;
+import triangle.abstractSyntaxTrees.formals.EmptyFormalParameterSequence;
+import triangle.abstractSyntaxTrees.formals.FormalParameterSequence;
+import triangle.abstractSyntaxTrees.formals.SingleFormalParameterSequence;
+import triangle.abstractSyntaxTrees.formals.VarFormalParameter;
+import triangle.abstractSyntaxTrees.terminals.Identifier;
+import triangle.abstractSyntaxTrees.terminals.Operator;
+import triangle.abstractSyntaxTrees.types.AnyTypeDenoter;
+import triangle.abstractSyntaxTrees.types.BoolTypeDenoter;
+import triangle.abstractSyntaxTrees.types.CharTypeDenoter;
+import triangle.abstractSyntaxTrees.types.ErrorTypeDenoter;
+import triangle.abstractSyntaxTrees.types.IntTypeDenoter;
 import triangle.abstractSyntaxTrees.types.TypeDeclaration;
 import triangle.abstractSyntaxTrees.types.TypeDenoter;
+import triangle.codeGenerator.entities.EqualityRoutine;
+import triangle.codeGenerator.entities.KnownValue;
+import triangle.codeGenerator.entities.PrimitiveRoutine;
+import triangle.codeGenerator.entities.TypeRepresentation;
+import triangle.contextualAnalyzer.IdentificationTable;
+import triangle.syntacticAnalyzer.SourcePosition;
 
+/**
+ * The standard environment: small ASTs for the standard types, and for the
+ * "declarations" of the standard constants, procedures, functions and
+ * operators, with the run-time entities that the Encoder uses for them.
+ *
+ * The environment is built once, when the class is loaded, and is never
+ * changed afterwards, so it is shared by every compilation, including any
+ * running at the same time on other threads.
+ */
 public final class StdEnvironment {
 
-	// These are small ASTs representing standard types.
+	private final static SourcePosition dummyPos = new SourcePosition();
 
-	public static TypeDenoter booleanType, charType, integerType, anyType, errorType;
+	private final static Identifier dummyI = new Identifier("", dummyPos);
+
+	// the identification table holding the standard declarations, which
+	// every Checker's table starts from
+	private final static IdentificationTable table = new IdentificationTable();
+
+	// These are small ASTs representing standard types.
 
-	public static TypeDeclaration booleanDecl, charDecl, integerDecl;
+	public final static TypeDenoter booleanType = standardType(new BoolTypeDenoter(dummyPos), Machine.booleanSize),
+			charType = standardType(new CharTypeDenoter(dummyPos), Machine.characterSize),
+			integerType = standardType(new IntTypeDenoter(dummyPos), Machine.integerSize),
+			anyType = new AnyTypeDenoter(dummyPos), errorType = new ErrorTypeDenoter(dummyPos);
 
 	// These are small ASTs representing "declarations" of standard entities.
+	// The primitive routines are listed in Table C3 (P411) of the PLPJ book,
+	// and Table 3 of the Triangle guide.
+
+	public final static TypeDeclaration booleanDecl = declareStdType("Boolean", booleanType);
+
+	public final static ConstDeclaration falseDecl = declareStdConst("false", booleanType, Machine.falseRep),
+			trueDecl = declareStdConst("true", booleanType, Machine.trueRep);
+
+	public final static UnaryOperatorDeclaration notDecl = declareStdUnaryOp("\\", booleanType, booleanType,
+			Primitive.NOT);
+
+	public final static BinaryOperatorDeclaration andDecl = declareStdBinaryOp("/\\", booleanType, booleanType,
+			booleanType, Primitive.AND),
+			orDecl = declareStdBinaryOp("\\/", booleanType, booleanType, booleanType, Primitive.OR);
+
+	public final static TypeDeclaration integerDecl = declareStdType("Integer", integerType);
+
+	public final static ConstDeclaration maxintDecl = declareStdConst("maxint", integerType, Machine.maxintRep);
+
+	public final static BinaryOperatorDeclaration addDecl = declareStdBinaryOp("+", integerType, integerType,
+			integerType, Primitive.ADD),
+			subtractDecl = declareStdBinaryOp("-", integerType, integerType, integerType, Primitive.SUB),
+			multiplyDecl = declareStdBinaryOp("*", integerType, integerType, integerType, Primitive.MULT),
+			divideDecl = declareStdBinaryOp("/", integerType, integerType, integerType, Primitive.DIV),
+			moduloDecl = declareStdBinaryOp("//", integerType, integerType, integerType, Primitive.MOD),
+			lessDecl = declareStdBinaryOp("<", integerType, integerType, booleanType, Primitive.LT),
+			notgreaterDecl = declareStdBinaryOp("<=", integerType, integerType, booleanType, Primitive.LE),
+			greaterDecl = declareStdBinaryOp(">", integerType, integerType, booleanType, Primitive.GT),
+			notlessDecl = declareStdBinaryOp(">=", integerType, integerType, booleanType, Primitive.GE);
+
+	public final static TypeDeclaration charDecl = declareStdType("Char", charType);
+
+	public final static FuncDeclaration chrDecl = declareStdFunc("chr",
+			new SingleFormalParameterSequence(new ConstFormalParameter(dummyI, integerType, dummyPos), dummyPos),
+			charType, Primitive.ID),
+			ordDecl = declareStdFunc("ord",
+					new SingleFormalParameterSequence(new ConstFormalParameter(dummyI, charType, dummyPos), dummyPos),
+					integerType, Primitive.ID),
+			eofDecl = declareStdFunc("eof", new EmptyFormalParameterSequence(dummyPos), booleanType, Primitive.EOF),
+			eolDecl = declareStdFunc("eol", new EmptyFormalParameterSequence(dummyPos), booleanType, Primitive.EOL);
+
+	public final static ProcDeclaration getDecl = declareStdProc("get",
+			new SingleFormalParameterSequence(new VarFormalParameter(dummyI, charType, dummyPos), dummyPos),
+			Primitive.GET),
+			putDecl = declareStdProc("put",
+					new SingleFormalParameterSequence(new ConstFormalParameter(dummyI, charType, dummyPos), dummyPos),
+					Primitive.PUT),
+			getintDecl = declareStdProc("getint",
+					new SingleFormalParameterSequence(new VarFormalParameter(dummyI, integerType, dummyPos), dummyPos),
+					Primitive.GETINT),
+			putintDecl = declareStdProc("putint",
+					new SingleFormalParameterSequence(new ConstFormalParameter(dummyI, integerType, dummyPos),
+							dummyPos),
+					Primitive.PUTINT),
+			geteolDecl = declareStdProc("geteol", new EmptyFormalParameterSequence(dummyPos), Primitive.GETEOL),
+			puteolDecl = declareStdProc("puteol", new EmptyFormalParameterSequence(dummyPos), Primitive.PUTEOL);
+
+	public final static BinaryOperatorDeclaration equalDecl = declareStdEqualityOp("=", Primitive.EQ),
+			unequalDecl = declareStdEqualityOp("\\=", Primitive.NE);
+
+	private StdEnvironment() {
+	}
+
+	/**
+	 * @return a new identification table holding the standard declarations,
+	 *         for a Checker to enter a program's declarations in
+	 */
+	public static IdentificationTable newIdentificationTable() {
+		return new IdentificationTable(table);
+	}
+
+	// Each of these creates a small AST to represent a standard type or the
+	// "declaration" of a standard entity, decides its run-time
+	// representation, and enters it in the identification table.
+
+	private static TypeDenoter standardType(TypeDenoter type, int size) {
+		type.entity = new TypeRepresentation(size);
+		return type;
+	}
+
+	private static TypeDeclaration declareStdType(String id, TypeDenoter typedenoter) {
+		var binding = new TypeDeclaration(new Identifier(id, dummyPos), typedenoter, dummyPos);
+		table.enter(id, binding);
+		return binding;
+	}
+
+	private static ConstDeclaration declareStdConst(String id, TypeDenoter constType, int value) {
+		// constExpr used only as a placeholder for constType
+		var constExpr = new IntegerExpression(null, dummyPos);
+		constExpr.type = constType;
+		var binding = new ConstDeclaration(new Identifier(id, dummyPos), constExpr, dummyPos);
+		binding.entity = new KnownValue(constType.entity.getSize(), value);
+		table.enter(id, binding);
+		return binding;
+	}
 
-	public static ConstDeclaration falseDecl, trueDecl, maxintDecl;
+	private static ProcDeclaration declareStdProc(String id, FormalParameterSequence fps, Primitive primitive) {
+		var binding = new ProcDeclaration(new Identifier(id, dummyPos), fps, new EmptyCommand(dummyPos), dummyPos);
+		binding.entity = new PrimitiveRoutine(Machine.closureSize, primitive);
+		table.enter(id, binding);
+		return binding;
+	}
 
-	public static UnaryOperatorDeclaration notDecl;
+	private static FuncDeclaration declareStdFunc(String id, FormalParameterSequence fps, TypeDenoter resultType,
+			Primitive primitive) {
+		var binding = new FuncDeclaration(new Identifier(id, dummyPos), fps, resultType, new EmptyExpression(dummyPos),
+				dummyPos);
+		binding.entity = new PrimitiveRoutine(Machine.closureSize, primitive);
+		table.enter(id, binding);
+		return binding;
+	}
 
-	public static BinaryOperatorDeclaration andDecl, orDecl, addDecl, subtractDecl, multiplyDecl, divideDecl,
-			moduloDecl, equalDecl, unequalDecl, lessDecl, notlessDecl, greaterDecl, notgreaterDecl;
+	// An operator "declaration" summarises the operator's type info.
 
-	public static ProcDeclaration getDecl, putDecl, getintDecl, putintDecl, geteolDecl, puteolDecl;
+	private static UnaryOperatorDeclaration declareStdUnaryOp(String op, TypeDenoter argType, TypeDenoter resultType,
+			Primitive primitive) {
+		var binding = new UnaryOperatorDeclaration(new Operator(op, dummyPos), argType, resultType, dummyPos);
+		binding.entity = new PrimitiveRoutine(Machine.closureSize, primitive);
+		table.enter(op, binding);
+		return binding;
+	}
 
-	public static FuncDeclaration chrDecl, ordDecl, eolDecl, eofDecl;
+	private static BinaryOperatorDeclaration declareStdBinaryOp(String op, TypeDenoter arg1Type, TypeDenoter arg2type,
+			TypeDenoter resultType, Primitive primitive) {
+		var binding = new BinaryOperatorDeclaration(new Operator(op, dummyPos), arg1Type, arg2type, resultType,
+				dummyPos);
+		binding.entity = new PrimitiveRoutine(Machine.closureSize, primitive);
+		table.enter(op, binding);
+		return binding;
+	}
 
+	private static BinaryOperatorDeclaration declareStdEqualityOp(String op, Primitive primitive) {
+		var binding = new BinaryOperatorDeclaration(new Operator(op, dummyPos), anyType, anyType, booleanType,
+				dummyPos);
+		binding.entity = new EqualityRoutine(Machine.closureSize, primitive);
+		table.enter(op, binding);
+		return binding;
+	}
 }
@@ -1,13 +1,16 @@
 package triangle.codeGenerator;
 
-import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
 
 import triangle.ErrorReporter;
+import triangle.abstractMachine.DebugInfo;
 import triangle.abstractMachine.Instruction;
 import triangle.abstractMachine.Machine;
+import triangle.abstractMachine.ObjectFile;
 import triangle.abstractMachine.OpCode;
 import triangle.abstractMachine.Primitive;
 import triangle.abstractMachine.Register;
@@ -17,12 +20,16 @@ public class Emitter {
 	// OBJECT CODE
 
 	// Implementation notes:
-	// Object code is generated directly into the TAM Code Store, starting at
-	// CB.
+	// Object code is generated into a code store of the emitter's own,
+	// starting at CB, so that emitters on different threads do not share
+	// one.
 	// The address of the next instruction is held in nextInstrAddr.
 
 	ErrorReporter errorReporter;
 
+	// grown as code is added, up to PB
+	private Instruction[] code = new Instruction[1024];
+
 	int nextInstrAddr;
 
 	public Emitter(ErrorReporter errorReporter) {
@@ -34,6 +41,13 @@ public class Emitter {
 		return nextInstrAddr;
 	}
 
+	/**
+	 * @return the code emitted so far, from CB up to getNextInstrAddr()
+	 */
+	public Instruction[] getCode() {
+		return Arrays.copyOf(code, nextInstrAddr);
+	}
+
 	public int emit(OpCode op) {
 		return emit(op, 0, Register.CB, 0);
 	}
@@ -77,18 +91,16 @@ public class Emitter {
 	 **/
 	public int emit(OpCode op, int length, Register register, int operand) {
 
-		if (length > 255) {
-			errorReporter.reportRestriction("length of operand can't exceed 255 words");
-			length = 255; // to allow code generation to continue
-		}
-
 		var nextInstr = new Instruction(op, register, length, operand);
 
 		var currentInstrAddr = nextInstrAddr;
 		if (nextInstrAddr == Machine.PB) {
 			errorReporter.reportRestriction("too many instructions for code segment");
 		} else {
-			Machine.code[nextInstrAddr++] = nextInstr;
+			if (nextInstrAddr == code.length) {
+				code = Arrays.copyOf(code, (int) Math.min(2L * code.length, Machine.PB));
+			}
+			code[nextInstrAddr++] = nextInstr;
 		}
 		return currentInstrAddr;
 
@@ -97,7 +109,7 @@ public class Emitter {
 	// Patches the d-field of the instruction at address addr with the next
 	// instruction address.
 	public void patch(int addr) {
-		Machine.code[addr].setOperand(nextInstrAddr);
+		code[addr].setOperand(nextInstrAddr);
 	}
 
 	/**
@@ -106,15 +118,28 @@ public class Emitter {
 	 * @param objectFile the object file
 	 */
 	public void saveObjectProgram(String objectFileName) {
+		saveObjectProgram(objectFileName, null);
+	}
+
+	/**
+	 * Saves the object program, with the given debug information if it is not
+	 * null.
+	 */
+	public void saveObjectProgram(String objectFileName, DebugInfo debugInfo) {
 		try (var objectFile = new FileOutputStream(objectFileName)) {
-			var objectStream = new DataOutputStream(objectFile);
-			for (var addr = Machine.CB; addr < nextInstrAddr; addr++) {
-				Machine.code[addr].write(objectStream);
-			}
+			writeObjectProgram(objectFile, debugInfo);
 		} catch (FileNotFoundException fnfe) {
 			System.err.println("Error opening object file: " + fnfe);
 		} catch (IOException ioe) {
 			System.err.println("Error writing object file: " + ioe);
 		}
 	}
+
+	/**
+	 * Writes the object program, with the given debug information if it is not
+	 * null, to the given stream, which is left open.
+	 */
+	public void writeObjectProgram(OutputStream output, DebugInfo debugInfo) throws IOException {
+		ObjectFile.write(code, nextInstrAddr, debugInfo, output);
+	}
 }
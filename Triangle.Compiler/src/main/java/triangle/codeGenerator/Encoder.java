@@ -19,7 +19,7 @@
 package triangle.codeGenerator;
 
 import triangle.ErrorReporter;
-import triangle.StdEnvironment;
+import triangle.abstractMachine.DebugInfo;
 import triangle.abstractMachine.Machine;
 import triangle.abstractMachine.OpCode;
 import triangle.abstractMachine.Primitive;
@@ -46,7 +46,6 @@ import triangle.abstractSyntaxTrees.commands.SequentialCommand;
 import triangle.abstractSyntaxTrees.commands.WhileCommand;
 import triangle.abstractSyntaxTrees.declarations.BinaryOperatorDeclaration;
 import triangle.abstractSyntaxTrees.declarations.ConstDeclaration;
-import triangle.abstractSyntaxTrees.declarations.Declaration;
 import triangle.abstractSyntaxTrees.declarations.FuncDeclaration;
 import triangle.abstractSyntaxTrees.declarations.ProcDeclaration;
 import triangle.abstractSyntaxTrees.declarations.SequentialDeclaration;
@@ -104,13 +103,12 @@ import triangle.abstractSyntaxTrees.vnames.SimpleVname;
 import triangle.abstractSyntaxTrees.vnames.SubscriptVname;
 import triangle.abstractSyntaxTrees.vnames.Vname;
 import triangle.codeGenerator.entities.AddressableEntity;
-import triangle.codeGenerator.entities.EqualityRoutine;
 import triangle.codeGenerator.entities.FetchableEntity;
 import triangle.codeGenerator.entities.Field;
 import triangle.codeGenerator.entities.KnownAddress;
 import triangle.codeGenerator.entities.KnownRoutine;
 import triangle.codeGenerator.entities.KnownValue;
-import triangle.codeGenerator.entities.PrimitiveRoutine;
+import triangle.codeGenerator.entities.ObjectAddress;
 import triangle.codeGenerator.entities.RoutineEntity;
 import triangle.codeGenerator.entities.RuntimeEntity;
 import triangle.codeGenerator.entities.TypeRepresentation;
@@ -128,6 +126,7 @@ public final class Encoder implements ActualParameterVisitor<Frame, Integer>,
 	// Commands
 	@Override
 	public Void visitAssignCommand(AssignCommand ast, Frame frame) {
+		markLine(ast);
 		var valSize = ast.E.visit(this, frame);
 		encodeStore(ast.V, frame.expand(valSize), valSize);
 		return null;
@@ -135,6 +134,7 @@ public final class Encoder implements ActualParameterVisitor<Frame, Integer>,
 
 	@Override
 	public Void visitCallCommand(CallCommand ast, Frame frame) {
+		markLine(ast);
 		var argsSize = ast.APS.visit(this, frame);
 		ast.I.visit(this, frame.replace(argsSize));
 		return null;
@@ -147,6 +147,7 @@ public final class Encoder implements ActualParameterVisitor<Frame, Integer>,
 
 	@Override
 	public Void visitIfCommand(IfCommand ast, Frame frame) {
+		markLine(ast);
 		ast.E.visit(this, frame);
 		var jumpifAddr = emitter.emit(OpCode.JUMPIF, Machine.falseRep, Register.CB, 0);
 		ast.C1.visit(this, frame);
@@ -159,11 +160,15 @@ public final class Encoder implements ActualParameterVisitor<Frame, Integer>,
 
 	@Override
 	public Void visitLetCommand(LetCommand ast, Frame frame) {
+		markLine(ast);
+		var scope = openScope();
 		var extraSize = ast.D.visit(this, frame);
 		ast.C.visit(this, frame.expand(extraSize));
 		if (extraSize > 0) {
+			markLine(ast);
 			emitter.emit(OpCode.POP, extraSize);
 		}
+		closeScope(scope);
 		return null;
 	}
 
@@ -176,10 +181,12 @@ public final class Encoder implements ActualParameterVisitor<Frame, Integer>,
 
 	@Override
 	public Void visitWhileCommand(WhileCommand ast, Frame frame) {
+		markLine(ast);
 		var jumpAddr = emitter.emit(OpCode.JUMP, 0, Register.CB, 0);
 		var loopAddr = emitter.getNextInstrAddr();
 		ast.C.visit(this, frame);
 		emitter.patch(jumpAddr);
+		markLine(ast.E);
 		ast.E.visit(this, frame);
 		emitter.emit(OpCode.JUMPIF, Machine.trueRep, Register.CB, loopAddr);
 		return null;
@@ -246,12 +253,14 @@ public final class Encoder implements ActualParameterVisitor<Frame, Integer>,
 	@Override
 	public Integer visitLetExpression(LetExpression ast, Frame frame) {
 		ast.type.visit(this);
+		var scope = openScope();
 		var extraSize = ast.D.visit(this, frame);
 		var frame1 = frame.expand(extraSize);
 		var valSize = ast.E.visit(this, frame1);
 		if (extraSize > 0) {
 			emitter.emit(OpCode.POP, valSize, extraSize);
 		}
+		closeScope(scope);
 		return valSize;
 	}
 
@@ -301,18 +310,23 @@ public final class Encoder implements ActualParameterVisitor<Frame, Integer>,
 		var argsSize = 0;
 		var valSize = 0;
 
+		markLine(ast);
 		var jumpAddr = emitter.emit(OpCode.JUMP, 0, Register.CB, 0);
 		ast.entity = new KnownRoutine(Machine.closureSize, frame.getLevel(), emitter.getNextInstrAddr());
 		writeTableDetails(ast);
+		var scope = openScope();
 		if (frame.getLevel() == Machine.maxRoutineLevel) {
 			reporter.reportRestriction("can't nest routines more than 7 deep");
 		} else {
 			var frame1 = frame.push(0);
 			argsSize = ast.FPS.visit(this, frame1);
 			var frame2 = frame.push(Machine.linkDataSize);
+			markLine(ast.E);
 			valSize = ast.E.visit(this, frame2);
 		}
-		emitter.emit(OpCode.RETURN, valSize, argsSize);
+		var returnAddr = emitter.emit(OpCode.RETURN, valSize, argsSize);
+		closeScope(scope);
+		writeRoutineDetails(ast.I, (KnownRoutine) ast.entity, returnAddr, frame.getLevel() + 1);
 		emitter.patch(jumpAddr);
 		return 0;
 	}
@@ -320,9 +334,11 @@ public final class Encoder implements ActualParameterVisitor<Frame, Integer>,
 	@Override
 	public Integer visitProcDeclaration(ProcDeclaration ast, Frame frame) {
 		var argsSize = 0;
+		markLine(ast);
 		var jumpAddr = emitter.emit(OpCode.JUMP, 0, Register.CB, 0);
 		ast.entity = new KnownRoutine(Machine.closureSize, frame.getLevel(), emitter.getNextInstrAddr());
 		writeTableDetails(ast);
+		var scope = openScope();
 		if (frame.getLevel() == Machine.maxRoutineLevel) {
 			reporter.reportRestriction("can't nest routines so deeply");
 		} else {
@@ -331,7 +347,10 @@ public final class Encoder implements ActualParameterVisitor<Frame, Integer>,
 			var frame2 = frame.push(Machine.linkDataSize);
 			ast.C.visit(this, frame2);
 		}
-		emitter.emit(OpCode.RETURN, argsSize);
+		markLine(ast);
+		var returnAddr = emitter.emit(OpCode.RETURN, argsSize);
+		closeScope(scope);
+		writeRoutineDetails(ast.I, (KnownRoutine) ast.entity, returnAddr, frame.getLevel() + 1);
 		emitter.patch(jumpAddr);
 		return 0;
 	}
@@ -672,87 +691,95 @@ public final class Encoder implements ActualParameterVisitor<Frame, Integer>,
 	public Encoder(Emitter emitter, ErrorReporter reporter) {
 		this.emitter = emitter;
 		this.reporter = reporter;
-
-		elaborateStdEnvironment();
 	}
 
 	private Emitter emitter;
 
 	private ErrorReporter reporter;
 
+	// the debug information to record, or null if none is wanted
+	private DebugInfo debugInfo;
+
+	/**
+	 * Asks for the routines, source lines and frame layouts of the program to
+	 * be recorded, as it is encoded, in the given DebugInfo.
+	 */
+	public void setDebugInfo(DebugInfo debugInfo) {
+		this.debugInfo = debugInfo;
+	}
+
 	// Generates code to run a program.
 	// showingTable is true iff entity description details
 	// are to be displayed.
 	public final void encodeRun(Program program, boolean showingTable) {
 		tableDetailsReqd = showingTable;
 		// startCodeGeneration();
+		var scope = openScope();
 		program.visit(this, Frame.Initial);
 		emitter.emit(OpCode.HALT);
+		closeScope(scope);
 	}
 
-	// Decides run-time representation of a standard constant.
-	private final void elaborateStdConst(ConstDeclaration constDeclaration, int value) {
+	boolean tableDetailsReqd;
 
-		var typeSize = constDeclaration.E.type.visit(this);
-		constDeclaration.entity = new KnownValue(typeSize, value);
-		writeTableDetails(constDeclaration);
+	/**
+	 * called by all visitor methods here once the entity of ast is decided;
+	 * records the variables, constants and parameters held in frames in the
+	 * debug information, if any is wanted
+	 */
+	public void writeTableDetails(AbstractSyntaxTree ast) {
+		if (debugInfo == null) {
+			return;
+		}
+		if (ast instanceof VarDeclaration decl) {
+			writeVariableDetails(decl.I, "var", ((KnownAddress) decl.entity).getAddress(), decl.T.entity.getSize());
+		} else if (ast instanceof ConstDeclaration decl && decl.entity instanceof UnknownValue value) {
+			writeVariableDetails(decl.I, "const", value.getAddress(), value.getSize());
+		} else if (ast instanceof ConstFormalParameter param) {
+			writeVariableDetails(param.I, "value-param", ((UnknownValue) param.entity).getAddress(), param.entity.getSize());
+		} else if (ast instanceof VarFormalParameter param) {
+			writeVariableDetails(param.I, "var-param", ((UnknownAddress) param.entity).getAddress(),
+					param.entity.getSize());
+		} else if (ast instanceof ProcFormalParameter param) {
+			writeVariableDetails(param.I, "proc-param", ((UnknownRoutine) param.entity).getAddress(),
+					param.entity.getSize());
+		} else if (ast instanceof FuncFormalParameter param) {
+			writeVariableDetails(param.I, "func-param", ((UnknownRoutine) param.entity).getAddress(),
+					param.entity.getSize());
+		}
 	}
 
-	// Decides run-time representation of a standard routine.
-	private final void elaborateStdPrimRoutine(Declaration routineDeclaration, Primitive primitive) {
-		routineDeclaration.entity = new PrimitiveRoutine(Machine.closureSize, primitive);
-		writeTableDetails(routineDeclaration);
+	private void writeVariableDetails(Identifier I, String kind, ObjectAddress address, int size) {
+		debugInfo.addVariable(I.spelling, kind, address.getLevel(), address.getDisplacement(), size,
+				emitter.getNextInstrAddr());
 	}
 
-	private final void elaborateStdEqRoutine(Declaration routineDeclaration, Primitive primitive) {
-		routineDeclaration.entity = new EqualityRoutine(Machine.closureSize, primitive);
-		writeTableDetails(routineDeclaration);
+	private void writeRoutineDetails(Identifier I, KnownRoutine routine, int exit, int level) {
+		if (debugInfo != null) {
+			debugInfo.addRoutine(I.spelling, routine.getAddress().getDisplacement(), exit, level);
+		}
 	}
 
-	/**
-	 * in the following we associate the primitive routines (Primitive.*)
-	 * and the primitive types (Machine.*) in the abstract machine with 
-	 * the relevant std env declarations. 
-	 * The primitive routines are listed in Table C3 (P411) of the PLPJ book, 
-	 * and Table 3 of the Triangle guide
-	 */
-	private final void elaborateStdEnvironment() {
-		tableDetailsReqd = false;
-		elaborateStdConst(StdEnvironment.falseDecl, Machine.falseRep);
-		elaborateStdConst(StdEnvironment.trueDecl, Machine.trueRep);
-		elaborateStdPrimRoutine(StdEnvironment.notDecl, Primitive.NOT);
-		elaborateStdPrimRoutine(StdEnvironment.andDecl, Primitive.AND);
-		elaborateStdPrimRoutine(StdEnvironment.orDecl, Primitive.OR);
-		elaborateStdConst(StdEnvironment.maxintDecl, Machine.maxintRep);
-		elaborateStdPrimRoutine(StdEnvironment.addDecl, Primitive.ADD);
-		elaborateStdPrimRoutine(StdEnvironment.subtractDecl, Primitive.SUB);
-		elaborateStdPrimRoutine(StdEnvironment.multiplyDecl, Primitive.MULT);
-		elaborateStdPrimRoutine(StdEnvironment.divideDecl, Primitive.DIV);
-		elaborateStdPrimRoutine(StdEnvironment.moduloDecl, Primitive.MOD);
-		elaborateStdPrimRoutine(StdEnvironment.lessDecl, Primitive.LT);
-		elaborateStdPrimRoutine(StdEnvironment.notgreaterDecl, Primitive.LE);
-		elaborateStdPrimRoutine(StdEnvironment.greaterDecl, Primitive.GT);
-		elaborateStdPrimRoutine(StdEnvironment.notlessDecl, Primitive.GE);
-		elaborateStdPrimRoutine(StdEnvironment.chrDecl, Primitive.ID);
-		elaborateStdPrimRoutine(StdEnvironment.ordDecl, Primitive.ID);
-		elaborateStdPrimRoutine(StdEnvironment.eolDecl, Primitive.EOL);
-		elaborateStdPrimRoutine(StdEnvironment.eofDecl, Primitive.EOF);
-		elaborateStdPrimRoutine(StdEnvironment.getDecl, Primitive.GET);
-		elaborateStdPrimRoutine(StdEnvironment.putDecl, Primitive.PUT);
-		elaborateStdPrimRoutine(StdEnvironment.getintDecl, Primitive.GETINT);
-		elaborateStdPrimRoutine(StdEnvironment.putintDecl, Primitive.PUTINT);
-		elaborateStdPrimRoutine(StdEnvironment.geteolDecl, Primitive.GETEOL);
-		elaborateStdPrimRoutine(StdEnvironment.puteolDecl, Primitive.PUTEOL);
-		elaborateStdEqRoutine(StdEnvironment.equalDecl, Primitive.EQ);
-		elaborateStdEqRoutine(StdEnvironment.unequalDecl, Primitive.NE);
+	// Records that the code emitted next comes from the given phrase.
+	private void markLine(AbstractSyntaxTree ast) {
+		if (debugInfo != null) {
+			// some phrases, such as sequential commands, are built without a
+			// finish
+			var position = ast.getPosition();
+			debugInfo.addLine(emitter.getNextInstrAddr(), position.start, Math.max(position.start, position.finish));
+		}
 	}
 
-	boolean tableDetailsReqd;
+	// Scopes: the variables recorded after openScope are in scope until the
+	// matching closeScope.
+	private int openScope() {
+		return debugInfo == null ? 0 : debugInfo.getVariableCount();
+	}
 
-	/**
-	 * called by all visitor methods here; could be used to insert debugging information
-	 */
-	public static void writeTableDetails(AbstractSyntaxTree ast) {
+	private void closeScope(int scope) {
+		if (debugInfo != null) {
+			debugInfo.closeScopes(scope, emitter.getNextInstrAddr());
+		}
 	}
 
 	// Generates code to pop the top off the stack
@@ -765,11 +792,6 @@ public final class Encoder implements ActualParameterVisitor<Frame, Integer>,
 
 		var baseObject = (AddressableEntity) V.visit(this, frame);
 		// If indexed = true, code will have been generated to load an index value.
-		if (valSize > 255) {
-			reporter.reportRestriction("can't store values larger than 255 words");
-			valSize = 255; // to allow code generation to continue
-		}
-
 		baseObject.encodeStore(emitter, frame, valSize, V);
 	}
 
@@ -784,11 +806,6 @@ public final class Encoder implements ActualParameterVisitor<Frame, Integer>,
 
 		var baseObject = (FetchableEntity) V.visit(this, frame);
 		// If indexed = true, code will have been generated to load an index value.
-		if (valSize > 255) {
-			reporter.reportRestriction("can't load values larger than 255 words");
-			valSize = 255; // to allow code generation to continue
-		}
-
 		baseObject.encodeFetch(emitter, frame, valSize, V);
 	}
 
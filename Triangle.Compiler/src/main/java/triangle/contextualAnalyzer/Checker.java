@@ -755,12 +755,10 @@ public final class Checker implements ActualParameterVisitor<FormalParameter, Vo
 
 	public Checker(ErrorReporter reporter) {
 		this.reporter = reporter;
-		this.idTable = new IdentificationTable();
-		establishStdEnvironment();
+		this.idTable = StdEnvironment.newIdentificationTable();
 	}
 
 	private IdentificationTable idTable;
-	private static SourcePosition dummyPos = new SourcePosition();
 	private ErrorReporter reporter;
 
 	private void reportUndeclaredOrError(Declaration binding, Terminal leaf, String message) {
@@ -818,148 +816,4 @@ public final class Checker implements ActualParameterVisitor<FormalParameter, Vo
 		}
 		return StdEnvironment.errorType;
 	}
-
-	// Creates a small AST to represent the "declaration" of a standard
-	// type, and enters it in the identification table.
-
-	private TypeDeclaration declareStdType(String id, TypeDenoter typedenoter) {
-
-		var binding = new TypeDeclaration(new Identifier(id, dummyPos), typedenoter, dummyPos);
-		idTable.enter(id, binding);
-		return binding;
-	}
-
-	// Creates a small AST to represent the "declaration" of a standard
-	// type, and enters it in the identification table.
-
-	private ConstDeclaration declareStdConst(String id, TypeDenoter constType) {
-
-		// constExpr used only as a placeholder for constType
-		var constExpr = new IntegerExpression(null, dummyPos);
-		constExpr.type = constType;
-		var binding = new ConstDeclaration(new Identifier(id, dummyPos), constExpr, dummyPos);
-		idTable.enter(id, binding);
-		return binding;
-	}
-
-	// Creates a small AST to represent the "declaration" of a standard
-	// type, and enters it in the identification table.
-
-	private ProcDeclaration declareStdProc(String id, FormalParameterSequence fps) {
-
-		var binding = new ProcDeclaration(new Identifier(id, dummyPos), fps, new EmptyCommand(dummyPos), dummyPos);
-		idTable.enter(id, binding);
-		return binding;
-	}
-
-	// Creates a small AST to represent the "declaration" of a standard
-	// type, and enters it in the identification table.
-
-	private FuncDeclaration declareStdFunc(String id, FormalParameterSequence fps, TypeDenoter resultType) {
-
-		var binding = new FuncDeclaration(new Identifier(id, dummyPos), fps, resultType, new EmptyExpression(dummyPos),
-				dummyPos);
-		idTable.enter(id, binding);
-		return binding;
-	}
-
-	// Creates a small AST to represent the "declaration" of a
-	// unary operator, and enters it in the identification table.
-	// This "declaration" summarises the operator's type info.
-
-	private UnaryOperatorDeclaration declareStdUnaryOp(String op, TypeDenoter argType, TypeDenoter resultType) {
-
-		var binding = new UnaryOperatorDeclaration(new Operator(op, dummyPos), argType, resultType, dummyPos);
-		idTable.enter(op, binding);
-		return binding;
-	}
-
-	// Creates a small AST to represent the "declaration" of a
-	// binary operator, and enters it in the identification table.
-	// This "declaration" summarises the operator's type info.
-
-	private BinaryOperatorDeclaration declareStdBinaryOp(String op, TypeDenoter arg1Type, TypeDenoter arg2type,
-			TypeDenoter resultType) {
-
-		var binding = new BinaryOperatorDeclaration(new Operator(op, dummyPos), arg1Type, arg2type, resultType,
-				dummyPos);
-		idTable.enter(op, binding);
-		return binding;
-	}
-
-	// Creates small ASTs to represent the standard types.
-	// Creates small ASTs to represent "declarations" of standard types,
-	// constants, procedures, functions, and operators.
-	// Enters these "declarations" in the identification table.
-
-	private final static Identifier dummyI = new Identifier("", dummyPos);
-
-	private void establishStdEnvironment() {
-
-		// idTable.startIdentification();
-		StdEnvironment.booleanType = new BoolTypeDenoter(dummyPos);
-		StdEnvironment.integerType = new IntTypeDenoter(dummyPos);
-		StdEnvironment.charType = new CharTypeDenoter(dummyPos);
-		StdEnvironment.anyType = new AnyTypeDenoter(dummyPos);
-		StdEnvironment.errorType = new ErrorTypeDenoter(dummyPos);
-
-		StdEnvironment.booleanDecl = declareStdType("Boolean", StdEnvironment.booleanType);
-		StdEnvironment.falseDecl = declareStdConst("false", StdEnvironment.booleanType);
-		StdEnvironment.trueDecl = declareStdConst("true", StdEnvironment.booleanType);
-		StdEnvironment.notDecl = declareStdUnaryOp("\\", StdEnvironment.booleanType, StdEnvironment.booleanType);
-		StdEnvironment.andDecl = declareStdBinaryOp("/\\", StdEnvironment.booleanType, StdEnvironment.booleanType,
-				StdEnvironment.booleanType);
-		StdEnvironment.orDecl = declareStdBinaryOp("\\/", StdEnvironment.booleanType, StdEnvironment.booleanType,
-				StdEnvironment.booleanType);
-
-		StdEnvironment.integerDecl = declareStdType("Integer", StdEnvironment.integerType);
-		StdEnvironment.maxintDecl = declareStdConst("maxint", StdEnvironment.integerType);
-		StdEnvironment.addDecl = declareStdBinaryOp("+", StdEnvironment.integerType, StdEnvironment.integerType,
-				StdEnvironment.integerType);
-		StdEnvironment.subtractDecl = declareStdBinaryOp("-", StdEnvironment.integerType, StdEnvironment.integerType,
-				StdEnvironment.integerType);
-		StdEnvironment.multiplyDecl = declareStdBinaryOp("*", StdEnvironment.integerType, StdEnvironment.integerType,
-				StdEnvironment.integerType);
-		StdEnvironment.divideDecl = declareStdBinaryOp("/", StdEnvironment.integerType, StdEnvironment.integerType,
-				StdEnvironment.integerType);
-		StdEnvironment.moduloDecl = declareStdBinaryOp("//", StdEnvironment.integerType, StdEnvironment.integerType,
-				StdEnvironment.integerType);
-		StdEnvironment.lessDecl = declareStdBinaryOp("<", StdEnvironment.integerType, StdEnvironment.integerType,
-				StdEnvironment.booleanType);
-		StdEnvironment.notgreaterDecl = declareStdBinaryOp("<=", StdEnvironment.integerType, StdEnvironment.integerType,
-				StdEnvironment.booleanType);
-		StdEnvironment.greaterDecl = declareStdBinaryOp(">", StdEnvironment.integerType, StdEnvironment.integerType,
-				StdEnvironment.booleanType);
-		StdEnvironment.notlessDecl = declareStdBinaryOp(">=", StdEnvironment.integerType, StdEnvironment.integerType,
-				StdEnvironment.booleanType);
-
-		StdEnvironment.charDecl = declareStdType("Char", StdEnvironment.charType);
-		StdEnvironment.chrDecl = declareStdFunc("chr",
-				new SingleFormalParameterSequence(
-						new ConstFormalParameter(dummyI, StdEnvironment.integerType, dummyPos), dummyPos),
-				StdEnvironment.charType);
-		StdEnvironment.ordDecl = declareStdFunc("ord",
-				new SingleFormalParameterSequence(new ConstFormalParameter(dummyI, StdEnvironment.charType, dummyPos),
-						dummyPos),
-				StdEnvironment.integerType);
-		StdEnvironment.eofDecl = declareStdFunc("eof", new EmptyFormalParameterSequence(dummyPos),
-				StdEnvironment.booleanType);
-		StdEnvironment.eolDecl = declareStdFunc("eol", new EmptyFormalParameterSequence(dummyPos),
-				StdEnvironment.booleanType);
-		StdEnvironment.getDecl = declareStdProc("get", new SingleFormalParameterSequence(
-				new VarFormalParameter(dummyI, StdEnvironment.charType, dummyPos), dummyPos));
-		StdEnvironment.putDecl = declareStdProc("put", new SingleFormalParameterSequence(
-				new ConstFormalParameter(dummyI, StdEnvironment.charType, dummyPos), dummyPos));
-		StdEnvironment.getintDecl = declareStdProc("getint", new SingleFormalParameterSequence(
-				new VarFormalParameter(dummyI, StdEnvironment.integerType, dummyPos), dummyPos));
-		StdEnvironment.putintDecl = declareStdProc("putint", new SingleFormalParameterSequence(
-				new ConstFormalParameter(dummyI, StdEnvironment.integerType, dummyPos), dummyPos));
-		StdEnvironment.geteolDecl = declareStdProc("geteol", new EmptyFormalParameterSequence(dummyPos));
-		StdEnvironment.puteolDecl = declareStdProc("puteol", new EmptyFormalParameterSequence(dummyPos));
-		StdEnvironment.equalDecl = declareStdBinaryOp("=", StdEnvironment.anyType, StdEnvironment.anyType,
-				StdEnvironment.booleanType);
-		StdEnvironment.unequalDecl = declareStdBinaryOp("\\=", StdEnvironment.anyType, StdEnvironment.anyType,
-				StdEnvironment.booleanType);
-
-	}
 }
@@ -30,6 +30,16 @@ public final class IdentificationTable {
 		latest = null;
 	}
 
+	// Makes a table that starts with the entries of the given table, at level
+	// 0. The entries are shared, not copied, and are never changed, so the
+	// given table may be shared by many tables; it must not have entries
+	// made in it afterwards.
+
+	public IdentificationTable(IdentificationTable outer) {
+		level = 0;
+		latest = outer.latest;
+	}
+
 	// Opens a new level in the identification table, 1 higher than the
 	// current topmost level.
 
@@ -33,13 +33,21 @@ public class SourceFile {
 		try {
 			SourceFile sf = new SourceFile();
 			sf.sourceFile = new java.io.File(pathname);
-			sf.source = new java.io.FileInputStream(sf.sourceFile);
+			// read whole, so that the file is closed at once, and not read a
+			// byte at a time
+			sf.source = new java.io.ByteArrayInputStream(java.nio.file.Files.readAllBytes(sf.sourceFile.toPath()));
 			return sf;
 		} catch (java.io.IOException s) {
 			return null;
 		}
 	}
 	
+	public static SourceFile ofBytes(byte[] bytes) {
+		SourceFile sf = new SourceFile();
+		sf.source = new java.io.ByteArrayInputStream(bytes);
+		return sf;
+	}
+
 	public static SourceFile fromResource(String handle) {
 		SourceFile sf = new SourceFile();
 		//sf.sourceFile = new java.io.File(pathname);
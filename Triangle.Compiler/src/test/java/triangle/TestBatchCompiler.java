@@ -0,0 +1,128 @@
+package triangle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestBatchCompiler {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// the times each program is compiled at once, so that sessions
+	// compiling the same program run side by side
+	private final static int copies = 4;
+
+	private final static int threads = 8;
+
+	@After
+	public void tearDown() {
+		BatchCompiler.folding = false;
+		BatchCompiler.debugging = false;
+	}
+
+	/* compiling the example programs concurrently, as against one at a time */
+
+	@Test
+	public void testConcurrentMatchesSequential() throws Exception {
+		compareConcurrentWithSequential();
+	}
+
+	@Test
+	public void testConcurrentMatchesSequentialFolding() throws Exception {
+		BatchCompiler.folding = true;
+		compareConcurrentWithSequential();
+	}
+
+	private void compareConcurrentWithSequential() throws IOException, InterruptedException, ExecutionException,
+			URISyntaxException {
+		var programs = programs();
+		assertFalse("no example programs found", programs.isEmpty());
+
+		var sequentialDirectory = folder.newFolder().toPath();
+		var expected = new ArrayList<BatchCompiler.Result>();
+		for (var program : programs) {
+			expected.add(BatchCompiler.compile(copy(program, sequentialDirectory, "s-" + program.getFileName())));
+		}
+		assertTrue("no example program compiled", expected.stream().anyMatch(BatchCompiler.Result::successful));
+
+		var concurrentDirectory = folder.newFolder().toPath();
+		var results = new ArrayList<List<Future<BatchCompiler.Result>>>();
+		try (var executor = Executors.newFixedThreadPool(threads)) {
+			var sources = new ArrayList<List<Path>>();
+			for (var program : programs) {
+				var copiesOfProgram = new ArrayList<Path>();
+				for (var i = 0; i < copies; i++) {
+					copiesOfProgram.add(copy(program, concurrentDirectory, i + "-" + program.getFileName()));
+				}
+				sources.add(copiesOfProgram);
+				results.add(new ArrayList<>());
+			}
+			// interleaved, so that copies of one program are compiled at once
+			for (var i = 0; i < copies; i++) {
+				for (var p = 0; p < programs.size(); p++) {
+					var source = sources.get(p).get(i);
+					results.get(p).add(executor.submit(() -> BatchCompiler.compile(source)));
+				}
+			}
+		}
+
+		for (var p = 0; p < programs.size(); p++) {
+			var want = expected.get(p);
+			var name = programs.get(p).getFileName().toString();
+			for (var future : results.get(p)) {
+				var got = future.get();
+				assertEquals(name, want.successful(), got.successful());
+				assertEquals(name, messages(want, sequentialDirectory), messages(got, concurrentDirectory));
+				if (want.successful()) {
+					assertArrayEquals(name, Files.readAllBytes(objectFile(want.source())),
+							Files.readAllBytes(objectFile(got.source())));
+				}
+			}
+		}
+	}
+
+	private List<Path> programs() throws IOException, URISyntaxException {
+		// build.gradle adds the programs directory to the test resources
+		var directory = Path.of(getClass().getResource("/hi.tri").toURI()).getParent();
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(f -> f.getFileName().toString().endsWith(BatchCompiler.sourceSuffix)).sorted()
+					.toList();
+		}
+	}
+
+	private static Path copy(Path program, Path directory, String name) throws IOException {
+		return Files.copy(program, directory.resolve(name));
+	}
+
+	private static String messages(BatchCompiler.Result result, Path directory) {
+		// the messages name the source file, which is in a different
+		// directory, and has a different prefix, for each run
+		var name = result.source().getFileName().toString();
+		return result.messages().replace(directory.toString(), "")
+				.replace(name, name.substring(name.indexOf('-') + 1));
+	}
+
+	private static Path objectFile(Path source) {
+		var name = source.getFileName().toString();
+		return source.resolveSibling(name.substring(0, name.length() - BatchCompiler.sourceSuffix.length())
+				+ BatchCompiler.objectSuffix);
+	}
+}
@@ -0,0 +1,187 @@
+package triangle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestCompileCache {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path directory;
+
+	private final static byte[] source = "let var n : Integer in putint(n)".getBytes(StandardCharsets.UTF_8);
+
+	@Before
+	public void setUp() {
+		directory = folder.getRoot().toPath().resolve("cache");
+	}
+
+	/* keys */
+
+	@Test
+	public void testKeyIsStable() {
+		assertEquals(CompileCache.key(source, "a.tri", false, false), CompileCache.key(source, "a.tri", false, false));
+		assertEquals(64, CompileCache.key(source, "a.tri", false, false).length());
+	}
+
+	@Test
+	public void testKeyInputs() {
+		var key = CompileCache.key(source, "a.tri", false, false);
+		var changed = source.clone();
+		changed[changed.length - 2] = 'm';
+		assertNotEquals(key, CompileCache.key(changed, "a.tri", false, false));
+		assertNotEquals(key, CompileCache.key(source, "a.tri", true, false));
+		assertNotEquals(key, CompileCache.key(source, "a.tri", false, true));
+		assertNotEquals(CompileCache.key(source, "a.tri", true, false), CompileCache.key(source, "a.tri", false, true));
+	}
+
+	@Test
+	public void testKeySourceName() {
+		// the name is only written in the object file when debugging
+		assertEquals(CompileCache.key(source, "a.tri", false, false), CompileCache.key(source, "b.tri", false, false));
+		assertNotEquals(CompileCache.key(source, "a.tri", false, true), CompileCache.key(source, "b.tri", false, true));
+	}
+
+	/* looking up and storing */
+
+	@Test
+	public void testMissThenHit() throws IOException {
+		var cache = new CompileCache(directory, CompileCache.defaultMaxBytes);
+		assertTrue(Files.isDirectory(directory));
+
+		var key = CompileCache.key(source, "a.tri", false, false);
+		var objectFile = folder.getRoot().toPath().resolve("obj.tam");
+		assertFalse(cache.lookUp(key, objectFile));
+		assertFalse(Files.exists(objectFile));
+
+		var object = new byte[] { 1, 2, 3, 4 };
+		cache.store(key, object);
+		assertTrue(cache.lookUp(key, objectFile));
+		assertArrayEquals(object, Files.readAllBytes(objectFile));
+
+		// storing the key again replaces its entry
+		cache.store(key, new byte[] { 5 });
+		assertTrue(cache.lookUp(key, objectFile));
+		assertArrayEquals(new byte[] { 5 }, Files.readAllBytes(objectFile));
+		assertEquals(1, entries().size());
+	}
+
+	@Test
+	public void testHitMarksUsed() throws IOException {
+		var cache = new CompileCache(directory, CompileCache.defaultMaxBytes);
+		cache.store("a", new byte[10]);
+		setLastUsed("a", 1000);
+		assertTrue(cache.lookUp("a", folder.getRoot().toPath().resolve("obj.tam")));
+		assertTrue(Files.getLastModifiedTime(entry("a")).toMillis() > 1000);
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() throws IOException {
+		var cache = new CompileCache(directory, 30);
+		cache.store("a", new byte[10]);
+		cache.store("b", new byte[10]);
+		cache.store("c", new byte[10]);
+		setLastUsed("a", 3000);
+		setLastUsed("b", 1000);
+		setLastUsed("c", 2000);
+
+		// d takes the cache over its limit, and b was used least recently
+		cache.store("d", new byte[10]);
+		assertEquals(3, entries().size());
+		assertFalse(Files.exists(entry("b")));
+
+		// a larger entry evicts as many as it has to
+		setLastUsed("d", 4000);
+		cache.store("e", new byte[15]);
+		assertFalse(Files.exists(entry("c")));
+		assertFalse(Files.exists(entry("a")));
+		assertTrue(Files.exists(entry("d")));
+		assertTrue(Files.exists(entry("e")));
+	}
+
+	@Test
+	public void testOtherFilesNotEvicted() throws IOException {
+		var cache = new CompileCache(directory, 10);
+		var other = Files.write(directory.resolve("notes.txt"), new byte[100]);
+		cache.store("a", new byte[10]);
+		assertTrue(Files.exists(other));
+		assertTrue(Files.exists(entry("a")));
+	}
+
+	@Test
+	public void testConcurrentStore() throws IOException, InterruptedException, ExecutionException {
+		// caches in several threads share the directory, storing the same
+		// keys at once, and every entry read must be whole
+		var threads = 8;
+		var keys = 20;
+		var objectSize = 4096;
+		var futures = new ArrayList<Future<?>>();
+		try (var executor = Executors.newFixedThreadPool(threads)) {
+			for (var t = 0; t < threads; t++) {
+				var thread = t;
+				futures.add(executor.submit((Callable<Void>) () -> {
+					var cache = new CompileCache(directory, CompileCache.defaultMaxBytes);
+					var objectFile = folder.getRoot().toPath().resolve("obj" + thread + ".tam");
+					for (var k = 0; k < keys; k++) {
+						cache.store("key" + k, object(k, objectSize));
+						assertTrue(cache.lookUp("key" + k, objectFile));
+						assertArrayEquals(object(k, objectSize), Files.readAllBytes(objectFile));
+					}
+					return null;
+				}));
+			}
+		}
+		for (var future : futures) {
+			future.get();
+		}
+
+		assertEquals(keys, entries().size());
+		try (Stream<Path> files = Files.list(directory)) {
+			assertEquals("temporary files were left", keys, files.count());
+		}
+	}
+
+	private static byte[] object(int k, int size) {
+		var object = new byte[size];
+		for (var i = 0; i < size; i++) {
+			object[i] = (byte) (k + i);
+		}
+		return object;
+	}
+
+	private Path entry(String key) {
+		return directory.resolve(key + CompileCache.entrySuffix);
+	}
+
+	private void setLastUsed(String key, long millis) throws IOException {
+		Files.setLastModifiedTime(entry(key), FileTime.fromMillis(millis));
+	}
+
+	private List<Path> entries() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(f -> f.toString().endsWith(CompileCache.entrySuffix)).toList();
+		}
+	}
+}